@@ -13,6 +13,8 @@ import android.os.Bundle;
 import android.provider.Settings;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by yasirkula on 22.04.2018.
  */
@@ -23,6 +25,12 @@ public class NativeCamera
 	public static boolean QuickCapture = true; // true: the Confirm/Delete screen after the capture is skipped
 	public static boolean UseDefaultCameraApp = true; // false: Intent.createChooser is used to pick the camera app
 	public static boolean PermissionFreeMode = false; // true: Permissions for reading/writing media elements won't be requested. It might cause undesired side effects like a copy of the captured image/video being saved to Gallery or the captured image having a very low resolution
+	public static boolean TrimLosslessJpegEdges = false; // true: while correcting a JPEG's orientation losslessly, partial edge blocks that can't be moved are trimmed (up to 15 pixels); false: such JPEGs are decoded and re-encoded instead
+	public static boolean DeduplicateCopies = false; // true: media that has to be copied to the cache is hashed (SHA-256) while being copied and stored under its hash, so copying the same media again reuses the existing copy. This disables the zero-copy fast paths of CopyFile since the data must be read to be hashed
+	public static boolean FastStartRecordedVideos = false; // true: recorded MP4/MOV videos are rewritten so that their metadata ('moov' box) is at the start of the file, which allows them to be played or uploaded progressively
+	public static long TemporaryFileCacheSize = 1024L * 1024L * 1024L; // Maximum total size of the temporary files (intermediate images, video frames). When exceeded, the least recently used files are deleted (<=0: unlimited). Captured media (and copies of them) don't count towards this limit
+	public static long VideoThumbnailCacheSize = 64L * 1024L * 1024L; // Maximum total size of the video thumbnails that are cached on disk between sessions. When exceeded, the least recently used thumbnails are deleted (<=0: caching is disabled)
+	public static long DecodeMemoryBudget = 0L; // >0: maximum number of bytes that can be allocated for bitmaps while decoding an image. The sample size, pixel format and whether or not the image is decoded in bands are picked so that the peak memory usage stays within this budget
 
 	public static boolean HasCamera( Context context )
 	{
@@ -46,6 +54,13 @@ public class NativeCamera
 	}
 
 	public static void RecordVideo( Context context, NativeCameraMediaReceiver mediaReceiver, int defaultCamera, int quality, int maxDuration, long maxSize )
+	{
+		RecordVideo( context, mediaReceiver, defaultCamera, quality, maxDuration, maxSize, false );
+	}
+
+	// returnFileDescriptor: if the recorded video can't be accessed via File API, mediaReceiver receives a file descriptor to it instead of
+	// the path of its copy (see NativeCameraUtils.GetFileDescriptorFromURI)
+	public static void RecordVideo( Context context, NativeCameraMediaReceiver mediaReceiver, int defaultCamera, int quality, int maxDuration, long maxSize, boolean returnFileDescriptor )
 	{
 		if( !CanAccessCamera( context, mediaReceiver, false ) )
 			return;
@@ -56,6 +71,7 @@ public class NativeCamera
 		bundle.putInt( NativeCameraVideoFragment.QUALITY_ID, quality );
 		bundle.putInt( NativeCameraVideoFragment.MAX_DURATION_ID, maxDuration );
 		bundle.putLong( NativeCameraVideoFragment.MAX_SIZE_ID, maxSize );
+		bundle.putBoolean( NativeCameraVideoFragment.FILE_DESCRIPTOR_ID, returnFileDescriptor );
 
 		final Fragment request = new NativeCameraVideoFragment( mediaReceiver );
 		request.setArguments( bundle );
@@ -63,6 +79,44 @@ public class NativeCamera
 		( (Activity) context ).getFragmentManager().beginTransaction().add( 0, request ).commitAllowingStateLoss();
 	}
 
+	public static void SetDeduplicateCopies( boolean value )
+	{
+		DeduplicateCopies = value;
+	}
+
+	public static void SetFastStartRecordedVideos( boolean value )
+	{
+		FastStartRecordedVideos = value;
+	}
+
+	public static boolean MakeVideoFastStart( Context context, final String path )
+	{
+		return NativeCameraUtils.MakeVideoFastStart( context, path );
+	}
+
+	// Result is "1" if the video was rewritten, "0" otherwise
+	public static void MakeVideoFastStartAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final int priority )
+	{
+		NativeCameraTaskQueue.Enqueue( false, priority, null, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.MakeVideoFastStart( context, path ) ? "1" : "0";
+			}
+		} );
+	}
+
+	public static String GetFileHash( String path )
+	{
+		return NativeCameraUtils.GetFileHash( path );
+	}
+
+	public static void CloseFileDescriptor( int fileDescriptor )
+	{
+		NativeCameraUtils.CloseFileDescriptor( fileDescriptor );
+	}
+
 	// Credit: https://stackoverflow.com/a/35456817/2373034
 	public static void OpenSettings( Context context )
 	{
@@ -123,6 +177,64 @@ public class NativeCamera
 		return NativeCameraUtils.LoadImageAtPath( context, path, temporaryFilePath, maxSize );
 	}
 
+	// encodeFormat: 0=auto (PNG if the image has transparent pixels, JPEG otherwise), 1=JPEG, 2=PNG, 3=WebP lossy, 4=WebP lossless
+	public static String LoadImageAtPath( Context context, String path, final String temporaryFilePath, final int maxSize, final int encodeFormat, final int quality )
+	{
+		return NativeCameraUtils.LoadImageAtPath( context, path, temporaryFilePath, maxSize, encodeFormat, quality );
+	}
+
+	public static String LoadImageAtPath( Context context, String path, final String temporaryFilePath, final int maxSize, final int encodeFormat, final int quality, final NativeCameraCancellationToken cancellationToken )
+	{
+		return NativeCameraUtils.LoadImageAtPath( context, path, temporaryFilePath, maxSize, encodeFormat, quality, cancellationToken );
+	}
+
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize )
+	{
+		return NativeCameraUtils.LoadImageAtPathRaw( context, path, rawFilePath, maxSize );
+	}
+
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize, final boolean generateMipmaps )
+	{
+		return NativeCameraUtils.LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps );
+	}
+
+	// memoryBudget: >0 overrides DecodeMemoryBudget for this call
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize, final boolean generateMipmaps, final boolean grayscale, final long memoryBudget )
+	{
+		return LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps, grayscale, memoryBudget, null );
+	}
+
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize, final boolean generateMipmaps, final boolean grayscale, final long memoryBudget, final NativeCameraCancellationToken cancellationToken )
+	{
+		return NativeCameraUtils.LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps, grayscale, memoryBudget > 0L ? memoryBudget : DecodeMemoryBudget, cancellationToken );
+	}
+
+	public static String LoadImageAtPathETC2( Context context, String path, final String ktxFilePath, final int maxSize, final boolean fastCompression )
+	{
+		return NativeCameraUtils.LoadImageAtPathETC2( context, path, ktxFilePath, maxSize, fastCompression );
+	}
+
+	public static String[] LoadImagesAtPaths( Context context, final String[] paths, final String[] temporaryFilePaths, final int maxSize )
+	{
+		return NativeCameraUtils.LoadImagesAtPaths( context, paths, temporaryFilePaths, maxSize, false );
+	}
+
+	public static String[] LoadImagesAtPathsRaw( Context context, final String[] paths, final String[] rawFilePaths, final int maxSize )
+	{
+		return LoadImagesAtPathsRaw( context, paths, rawFilePaths, maxSize, false );
+	}
+
+	// generateMipmaps: the full mip chain is appended to each raw image (see NativeCameraUtils.WriteRawImage)
+	public static String[] LoadImagesAtPathsRaw( Context context, final String[] paths, final String[] rawFilePaths, final int maxSize, final boolean generateMipmaps )
+	{
+		return NativeCameraUtils.LoadImagesAtPaths( context, paths, rawFilePaths, maxSize, true, generateMipmaps );
+	}
+
+	public static int LoadImageAtPathToBuffer( Context context, final String path, final ByteBuffer buffer, final int maxSize )
+	{
+		return NativeCameraUtils.LoadImageAtPathToBuffer( context, path, buffer, maxSize );
+	}
+
 	public static String GetImageProperties( Context context, final String path )
 	{
 		return NativeCameraUtils.GetImageProperties( context, path );
@@ -133,11 +245,288 @@ public class NativeCamera
 		return NativeCameraUtils.GetVideoProperties( context, path );
 	}
 
+	public static String GetVideoDetails( Context context, final String path )
+	{
+		return NativeCameraUtils.GetVideoDetails( context, path );
+	}
+
+	public static int[] GetImagePropertiesArray( Context context, final String path )
+	{
+		return NativeCameraUtils.GetImagePropertiesArray( context, path );
+	}
+
+	public static long[] GetVideoPropertiesArray( Context context, final String path )
+	{
+		return NativeCameraUtils.GetVideoPropertiesArray( context, path );
+	}
+
+	public static int[] GetImagePropertiesBatch( Context context, final String[] paths )
+	{
+		return NativeCameraUtils.GetImagePropertiesBatch( context, paths );
+	}
+
+	public static long[] GetVideoPropertiesBatch( Context context, final String[] paths )
+	{
+		return NativeCameraUtils.GetVideoPropertiesBatch( context, paths );
+	}
+
+	public static void ClearMetadataCache()
+	{
+		NativeCameraUtils.ClearMetadataCache();
+	}
+
+	// Video sessions keep a video open between queries so that its container isn't parsed again for each property/thumbnail query. Returns
+	// a handle that must be passed to CloseVideoSession when the video is no longer needed, or 0 if the video can't be opened
+	public static int OpenVideoSession( Context context, final String path )
+	{
+		return NativeCameraVideoSession.OpenHandle( path );
+	}
+
+	public static void CloseVideoSession( final int handle )
+	{
+		NativeCameraVideoSession.CloseHandle( handle );
+	}
+
+	// Returns { width, height, duration, rotation } or all 0s if the handle is invalid or the video can't be read
+	public static long[] GetVideoSessionProperties( final int handle )
+	{
+		NativeCameraVideoSession session = NativeCameraVideoSession.AcquireHandle( handle );
+		if( session == null )
+			return new long[NativeCameraUtils.VIDEO_PROPERTIES_LENGTH];
+
+		try
+		{
+			long[] properties = session.GetProperties();
+			return ( properties != null ) ? properties : new long[NativeCameraUtils.VIDEO_PROPERTIES_LENGTH];
+		}
+		finally
+		{
+			session.ReleaseHandle();
+		}
+	}
+
+	public static String GetVideoSessionThumbnail( Context context, final int handle, final String savePath, final int encodeFormat, final int quality, final int maxSize, final double captureTime )
+	{
+		NativeCameraVideoSession session = NativeCameraVideoSession.AcquireHandle( handle );
+		if( session == null )
+			return "";
+
+		try
+		{
+			return NativeCameraUtils.GetVideoThumbnail( context, session, savePath, encodeFormat, quality, maxSize, captureTime, null );
+		}
+		finally
+		{
+			session.ReleaseHandle();
+		}
+	}
+
+	// Releases the videos that were kept open after their sessions were closed
+	public static void ClearVideoSessionPool()
+	{
+		NativeCameraVideoSession.ClearPool();
+	}
+
 	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final boolean saveAsJpeg, final int maxSize, final double captureTime )
 	{
 		return NativeCameraUtils.GetVideoThumbnail( context, path, savePath, saveAsJpeg, maxSize, captureTime );
 	}
 
+	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final int encodeFormat, final int quality, final int maxSize, final double captureTime )
+	{
+		return NativeCameraUtils.GetVideoThumbnail( context, path, savePath, encodeFormat, quality, maxSize, captureTime );
+	}
+
+	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final int encodeFormat, final int quality, final int maxSize, final double captureTime, final NativeCameraCancellationToken cancellationToken )
+	{
+		return NativeCameraUtils.GetVideoThumbnail( context, path, savePath, encodeFormat, quality, maxSize, captureTime, cancellationToken );
+	}
+
+	// Asynchronous variants of the functions above: they run on NativeCameraTaskQueue's CPU (image/thumbnail loading) or I/O (properties)
+	// lane and pass the result to resultReceiver. priority: see NativeCameraTaskQueue.PRIORITY_*, cancellationToken can be null
+	public static void LoadImageAtPathAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final String temporaryFilePath, final int maxSize, final int encodeFormat, final int quality, final int priority, final NativeCameraCancellationToken cancellationToken )
+	{
+		NativeCameraTaskQueue.Enqueue( true, priority, cancellationToken, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.LoadImageAtPath( context, path, temporaryFilePath, maxSize, encodeFormat, quality, cancellationToken );
+			}
+		} );
+	}
+
+	public static void LoadImageAtPathRawAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final String rawFilePath, final int maxSize, final boolean generateMipmaps, final boolean grayscale, final long memoryBudget, final int priority, final NativeCameraCancellationToken cancellationToken )
+	{
+		NativeCameraTaskQueue.Enqueue( true, priority, cancellationToken, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps, grayscale, memoryBudget > 0L ? memoryBudget : DecodeMemoryBudget, cancellationToken );
+			}
+		} );
+	}
+
+	public static String GetVideoFrameAtlas( Context context, final String path, final String atlasPath, final int frameCount, final double[] captureTimes, final int maxFrameSize, final int maxAtlasSize )
+	{
+		return NativeCameraUtils.GetVideoFrameAtlas( context, path, atlasPath, frameCount, captureTimes, maxFrameSize, maxAtlasSize, null );
+	}
+
+	public static void GetVideoFrameAtlasAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final String atlasPath, final int frameCount, final double[] captureTimes, final int maxFrameSize, final int maxAtlasSize, final int priority, final NativeCameraCancellationToken cancellationToken )
+	{
+		NativeCameraTaskQueue.Enqueue( true, priority, cancellationToken, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.GetVideoFrameAtlas( context, path, atlasPath, frameCount, captureTimes, maxFrameSize, maxAtlasSize, cancellationToken );
+			}
+		} );
+	}
+
+	public static void GetVideoThumbnailAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final String savePath, final int encodeFormat, final int quality, final int maxSize, final double captureTime, final int priority, final NativeCameraCancellationToken cancellationToken )
+	{
+		NativeCameraTaskQueue.Enqueue( true, priority, cancellationToken, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.GetVideoThumbnail( context, path, savePath, encodeFormat, quality, maxSize, captureTime, cancellationToken );
+			}
+		} );
+	}
+
+	public static void GetVideoSessionThumbnailAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final int handle, final String savePath, final int encodeFormat, final int quality, final int maxSize, final double captureTime, final int priority, final NativeCameraCancellationToken cancellationToken )
+	{
+		NativeCameraTaskQueue.Enqueue( true, priority, cancellationToken, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				NativeCameraVideoSession session = NativeCameraVideoSession.AcquireHandle( handle );
+				if( session == null )
+					return "";
+
+				try
+				{
+					return NativeCameraUtils.GetVideoThumbnail( context, session, savePath, encodeFormat, quality, maxSize, captureTime, cancellationToken );
+				}
+				finally
+				{
+					session.ReleaseHandle();
+				}
+			}
+		} );
+	}
+
+	public static void GetImagePropertiesAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final int priority )
+	{
+		NativeCameraTaskQueue.Enqueue( false, priority, null, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.GetImageProperties( context, path );
+			}
+		} );
+	}
+
+	public static void GetVideoPropertiesAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final int priority )
+	{
+		NativeCameraTaskQueue.Enqueue( false, priority, null, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.GetVideoProperties( context, path );
+			}
+		} );
+	}
+
+	public static void GetVideoDetailsAsync( final Context context, final NativeCameraResultReceiver resultReceiver, final String path, final int priority )
+	{
+		NativeCameraTaskQueue.Enqueue( false, priority, null, resultReceiver, new NativeCameraTaskQueue.Function()
+		{
+			@Override
+			public String Run()
+			{
+				return NativeCameraUtils.GetVideoDetails( context, path );
+			}
+		} );
+	}
+
+	public static void SetTaskQueueMaxThreadCount( final int cpuLaneThreadCount, final int ioLaneThreadCount )
+	{
+		NativeCameraTaskQueue.SetMaxThreadCount( cpuLaneThreadCount, ioLaneThreadCount );
+	}
+
+	public static String OpenImageTiles( Context context, final String path )
+	{
+		return NativeCameraTileDecoder.Open( context, path );
+	}
+
+	public static String LoadImageTile( Context context, final String path, final int tileSize, final int level, final int tileX, final int tileY, final String rawFilePath )
+	{
+		return NativeCameraTileDecoder.LoadTile( context, path, tileSize, level, tileX, tileY, rawFilePath );
+	}
+
+	public static int LoadImageTileToBuffer( Context context, final String path, final int tileSize, final int level, final int tileX, final int tileY, final ByteBuffer buffer )
+	{
+		return NativeCameraTileDecoder.LoadTileToBuffer( context, path, tileSize, level, tileX, tileY, buffer );
+	}
+
+	public static void CloseImageTiles( final String path )
+	{
+		NativeCameraTileDecoder.Close( path );
+	}
+
+	public static void SetDecodeMemoryBudget( long memoryBudget )
+	{
+		DecodeMemoryBudget = memoryBudget;
+	}
+
+	public static void SetTemporaryFileCacheSize( Context context, long maxSize )
+	{
+		TemporaryFileCacheSize = maxSize;
+		NativeCameraUtils.GetTempStore( context ).SetMaxSize( maxSize );
+	}
+
+	public static void ClearTemporaryFiles( Context context )
+	{
+		NativeCameraUtils.GetTempStore( context ).Clear();
+		NativeCameraUtils.GetCaptureStore( context ).Clear();
+	}
+
+	public static void SetVideoThumbnailCacheSize( Context context, long maxSize )
+	{
+		VideoThumbnailCacheSize = maxSize;
+		if( maxSize > 0L )
+			NativeCameraUtils.GetVideoThumbnailCache( context ).SetMaxSize( maxSize );
+		else
+			NativeCameraUtils.GetVideoThumbnailCache( context ).Clear();
+	}
+
+	public static void ClearVideoThumbnailCache( Context context )
+	{
+		NativeCameraUtils.GetVideoThumbnailCache( context ).Clear();
+	}
+
+	public static void SetBitmapPoolMaxSize( long maxSize )
+	{
+		NativeCameraBitmapPool.SetMaxSize( maxSize );
+	}
+
+	public static void ClearBitmapPool()
+	{
+		NativeCameraBitmapPool.Clear();
+	}
+
+	public static String GetBitmapPoolStatistics()
+	{
+		return NativeCameraBitmapPool.GetStatistics();
+	}
+
 	private static boolean CanAccessCamera( Context context, NativeCameraMediaReceiver mediaReceiver, final boolean isPictureMode )
 	{
 		if( !HasCamera( context ) )
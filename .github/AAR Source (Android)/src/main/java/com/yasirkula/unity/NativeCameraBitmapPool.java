@@ -0,0 +1,156 @@
+package com.yasirkula.unity;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Pool of mutable bitmaps that are reused via BitmapFactory.Options.inBitmap and Bitmap.reconfigure instead of allocating
+// a new bitmap for each decode. Bitmaps are bucketed by their allocation size and the least recently pooled bitmaps are
+// recycled when the pool exceeds its byte limit
+public class NativeCameraBitmapPool
+{
+	// A pooled bitmap won't be used for a request that requires less than 1/MAX_SIZE_MULTIPLIER of its memory
+	private static final int MAX_SIZE_MULTIPLIER = 4;
+
+	private static final TreeMap<Integer, ArrayList<Bitmap>> bitmapsBySize = new TreeMap<Integer, ArrayList<Bitmap>>();
+	private static final LinkedList<Bitmap> bitmapsByAge = new LinkedList<Bitmap>();
+
+	private static long maxSize = Math.min( 32L * 1024L * 1024L, Runtime.getRuntime().maxMemory() / 8L );
+	private static long currentSize = 0L;
+	private static int hitCount = 0;
+	private static int missCount = 0;
+
+	// Returns a bitmap with undefined contents that can be passed to BitmapFactory.Options.inBitmap, or null if there is no suitable bitmap
+	public static synchronized Bitmap GetDirty( int width, int height, Bitmap.Config config )
+	{
+		if( width <= 0 || height <= 0 )
+			return null;
+
+		int requiredSize = width * height * GetBytesPerPixel( config );
+		Map.Entry<Integer, ArrayList<Bitmap>> bucket = bitmapsBySize.ceilingEntry( requiredSize );
+		if( bucket == null || bucket.getKey() > (long) requiredSize * MAX_SIZE_MULTIPLIER )
+		{
+			missCount++;
+			return null;
+		}
+
+		ArrayList<Bitmap> bitmaps = bucket.getValue();
+		Bitmap result = bitmaps.remove( bitmaps.size() - 1 );
+		if( bitmaps.isEmpty() )
+			bitmapsBySize.remove( bucket.getKey() );
+
+		bitmapsByAge.remove( result );
+		currentSize -= bucket.getKey();
+
+		try
+		{
+			result.reconfigure( width, height, config );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+
+			result.recycle();
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		return result;
+	}
+
+	// Returns a transparent bitmap with the specified size, either from the pool or a newly allocated one
+	public static Bitmap Get( int width, int height, Bitmap.Config config )
+	{
+		Bitmap result = GetDirty( width, height, config );
+		if( result == null )
+			return Bitmap.createBitmap( width, height, config );
+
+		result.eraseColor( Color.TRANSPARENT );
+		result.setHasAlpha( true );
+
+		return result;
+	}
+
+	// Adds the bitmap to the pool so that it can be reused later. The bitmap mustn't be used by the caller afterwards
+	public static void Put( Bitmap bitmap )
+	{
+		if( bitmap == null || bitmap.isRecycled() )
+			return;
+
+		synchronized( NativeCameraBitmapPool.class )
+		{
+			int size = bitmap.getAllocationByteCount();
+			if( bitmap.isMutable() && size <= maxSize / 2 )
+			{
+				ArrayList<Bitmap> bitmaps = bitmapsBySize.get( size );
+				if( bitmaps == null )
+				{
+					bitmaps = new ArrayList<Bitmap>( 2 );
+					bitmapsBySize.put( size, bitmaps );
+				}
+
+				bitmaps.add( bitmap );
+				bitmapsByAge.addLast( bitmap );
+				currentSize += size;
+
+				TrimToSize( maxSize );
+				return;
+			}
+		}
+
+		bitmap.recycle();
+	}
+
+	public static synchronized void SetMaxSize( long maxSize )
+	{
+		NativeCameraBitmapPool.maxSize = maxSize > 0L ? maxSize : 0L;
+		TrimToSize( NativeCameraBitmapPool.maxSize );
+	}
+
+	public static synchronized void Clear()
+	{
+		TrimToSize( 0L );
+	}
+
+	// Returns "hitCount>missCount>currentSize>maxSize"
+	public static synchronized String GetStatistics()
+	{
+		return hitCount + ">" + missCount + ">" + currentSize + ">" + maxSize;
+	}
+
+	private static void TrimToSize( long size )
+	{
+		while( currentSize > size && !bitmapsByAge.isEmpty() )
+		{
+			Bitmap bitmap = bitmapsByAge.removeFirst();
+			int bitmapSize = bitmap.getAllocationByteCount();
+
+			ArrayList<Bitmap> bitmaps = bitmapsBySize.get( bitmapSize );
+			if( bitmaps != null )
+			{
+				bitmaps.remove( bitmap );
+				if( bitmaps.isEmpty() )
+					bitmapsBySize.remove( bitmapSize );
+			}
+
+			currentSize -= bitmapSize;
+			bitmap.recycle();
+		}
+	}
+
+	private static int GetBytesPerPixel( Bitmap.Config config )
+	{
+		if( config == Bitmap.Config.ALPHA_8 )
+			return 1;
+		if( config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444 )
+			return 2;
+
+		return 4;
+	}
+}
\ No newline at end of file
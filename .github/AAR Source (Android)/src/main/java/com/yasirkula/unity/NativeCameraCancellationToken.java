@@ -0,0 +1,57 @@
+package com.yasirkula.unity;
+
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+// Cancels a long-running utility call (e.g. LoadImageAtPath) from another thread. The call stops at its next checkpoint (between the
+// decode, transform, encode and copy steps) and returns its failure value. Ongoing BitmapFactory decodes are cancelled via
+// BitmapFactory.Options.requestCancelDecode (which is a no-op on Android 7.0 and later, so those decodes run until completion)
+public class NativeCameraCancellationToken
+{
+	private volatile boolean isCancelled = false;
+	private final ArrayList<BitmapFactory.Options> activeDecodes = new ArrayList<BitmapFactory.Options>( 1 );
+
+	public void Cancel()
+	{
+		synchronized( activeDecodes )
+		{
+			isCancelled = true;
+
+			for( BitmapFactory.Options options : activeDecodes )
+				options.requestCancelDecode();
+		}
+	}
+
+	public boolean IsCancelled()
+	{
+		return isCancelled;
+	}
+
+	public void RegisterDecode( final BitmapFactory.Options options )
+	{
+		synchronized( activeDecodes )
+		{
+			if( isCancelled )
+				options.requestCancelDecode();
+			else
+				activeDecodes.add( options );
+		}
+	}
+
+	public void UnregisterDecode( final BitmapFactory.Options options )
+	{
+		synchronized( activeDecodes )
+		{
+			activeDecodes.remove( options );
+		}
+	}
+
+	// token can be null, in which case the call can't be cancelled
+	public static void ThrowIfCancelled( final NativeCameraCancellationToken token )
+	{
+		if( token != null && token.isCancelled )
+			throw new CancellationException( "Operation was cancelled" );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,440 @@
+package com.yasirkula.unity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Encodes images to ETC2 RGB8 (opaque) or ETC2 RGBA8 (EAC alpha + ETC2 RGB8) blocks. Color blocks are encoded in the ETC1 compatible
+// individual/differential modes, which are valid ETC2 blocks. Doesn't depend on Android APIs; block rows can be encoded in parallel
+public class NativeCameraETC2Encoder
+{
+	public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+	private static final int GL_RGB = 0x1907;
+	private static final int GL_RGBA = 0x1908;
+
+	// ETC1 intensity modifiers, pixel index 0: +[0], 1: +[1], 2: -[0], 3: -[1]
+	private static final int[][] COLOR_MODIFIERS = {
+			{ 2, 8 }, { 5, 17 }, { 9, 29 }, { 13, 42 },
+			{ 18, 60 }, { 24, 80 }, { 33, 106 }, { 47, 183 } };
+
+	// EAC alpha modifiers
+	private static final int[][] ALPHA_MODIFIERS = {
+			{ -3, -6, -9, -15, 2, 5, 8, 14 },
+			{ -3, -7, -10, -13, 2, 6, 9, 12 },
+			{ -2, -5, -8, -13, 1, 4, 7, 12 },
+			{ -2, -4, -6, -13, 1, 3, 5, 12 },
+			{ -3, -6, -8, -12, 2, 5, 7, 11 },
+			{ -3, -7, -9, -11, 2, 6, 8, 10 },
+			{ -4, -7, -8, -11, 3, 6, 7, 10 },
+			{ -3, -5, -8, -11, 2, 4, 7, 10 },
+			{ -2, -6, -8, -10, 1, 5, 7, 9 },
+			{ -2, -5, -8, -10, 1, 4, 7, 9 },
+			{ -2, -4, -8, -10, 1, 3, 7, 9 },
+			{ -2, -5, -7, -10, 1, 4, 6, 9 },
+			{ -3, -4, -7, -10, 2, 3, 6, 9 },
+			{ -1, -2, -3, -10, 0, 1, 2, 9 },
+			{ -4, -6, -8, -9, 3, 5, 7, 8 },
+			{ -3, -5, -7, -9, 2, 4, 6, 8 } };
+
+	// Table and modifier index of ALPHA_MODIFIERS that is 0, used for blocks with uniform alpha
+	private static final int UNIFORM_ALPHA_TABLE = 13;
+	private static final int UNIFORM_ALPHA_INDEX = 4;
+
+	// Holds the intermediate results of a single thread
+	public static class Workspace
+	{
+		private final int[] block = new int[16];
+		private final int[] subBlockR = new int[8], subBlockG = new int[8], subBlockB = new int[8];
+		private final int[] subBlockPositions = new int[8];
+		private final int[] indices = new int[8], candidateIndices = new int[8], bestIndices1 = new int[8];
+		private int table;
+	}
+
+	public static int GetBlockSize( final boolean hasAlpha )
+	{
+		return hasAlpha ? 16 : 8;
+	}
+
+	public static int GetEncodedSize( final int width, final int height, final boolean hasAlpha )
+	{
+		return ( ( width + 3 ) / 4 ) * ( ( height + 3 ) / 4 ) * GetBlockSize( hasAlpha );
+	}
+
+	// Encodes a row of 4x4 blocks. pixels contains 4 rows of ARGB pixels, each row is width pixels long. Blocks are written to output
+	// starting from outputOffset. Pixels past the right edge of the image are filled with the rightmost column
+	public static void EncodeBlockRow( final int[] pixels, final int width, final boolean hasAlpha, final boolean fast, final Workspace workspace, final byte[] output, int outputOffset )
+	{
+		int[] block = workspace.block;
+		for( int blockX = 0; blockX < width; blockX += 4 )
+		{
+			for( int y = 0; y < 4; y++ )
+			{
+				for( int x = 0; x < 4; x++ )
+					block[y * 4 + x] = pixels[y * width + Math.min( blockX + x, width - 1 )];
+			}
+
+			if( hasAlpha )
+			{
+				WriteLong( output, outputOffset, EncodeAlphaBlock( block, fast ) );
+				outputOffset += 8;
+			}
+
+			WriteLong( output, outputOffset, EncodeColorBlock( block, fast, workspace ) );
+			outputOffset += 8;
+		}
+	}
+
+	// Returns the KTX 1.1 header, key-value data and image size field that precede the encoded blocks. Blocks are expected to be
+	// ordered bottom-up (like Unity's textures), which is stated in the KTXorientation metadata
+	public static byte[] CreateKTXHeader( final int width, final int height, final boolean hasAlpha )
+	{
+		byte[] orientationKey = "KTXorientation\0S=r,T=u\0".getBytes();
+		int keyValueSize = 4 + orientationKey.length;
+		int keyValuePadding = ( 4 - ( keyValueSize & 3 ) ) & 3;
+
+		ByteBuffer result = ByteBuffer.allocate( 64 + keyValueSize + keyValuePadding + 4 ).order( ByteOrder.LITTLE_ENDIAN );
+		result.put( new byte[] { (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n' } );
+		result.putInt( 0x04030201 ); // endianness
+		result.putInt( 0 ); // glType
+		result.putInt( 1 ); // glTypeSize
+		result.putInt( 0 ); // glFormat
+		result.putInt( hasAlpha ? GL_COMPRESSED_RGBA8_ETC2_EAC : GL_COMPRESSED_RGB8_ETC2 ); // glInternalFormat
+		result.putInt( hasAlpha ? GL_RGBA : GL_RGB ); // glBaseInternalFormat
+		result.putInt( width );
+		result.putInt( height );
+		result.putInt( 0 ); // pixelDepth
+		result.putInt( 0 ); // numberOfArrayElements
+		result.putInt( 1 ); // numberOfFaces
+		result.putInt( 1 ); // numberOfMipmapLevels
+		result.putInt( keyValueSize + keyValuePadding ); // bytesOfKeyValueData
+		result.putInt( orientationKey.length );
+		result.put( orientationKey );
+		result.put( new byte[keyValuePadding] );
+		result.putInt( GetEncodedSize( width, height, hasAlpha ) ); // imageSize
+
+		return result.array();
+	}
+
+	private static long EncodeColorBlock( final int[] block, final boolean fast, final Workspace workspace )
+	{
+		long bestBlock = 0L;
+		long bestError = Long.MAX_VALUE;
+		int[] bestIndices1 = workspace.bestIndices1;
+
+		for( int flip = 0; flip <= 1; flip++ )
+		{
+			// Average colors of the sub-blocks (flip=0: 2x4 left/right, flip=1: 4x2 top/bottom)
+			int[] average1 = GetSubBlockAverage( block, flip, 0 );
+			int[] average2 = GetSubBlockAverage( block, flip, 1 );
+
+			// Differential mode: 5-bit base colors that differ by -4..3 per channel. If the difference is too large, the second color
+			// is clamped towards the first one, which is usually still better than the 4-bit colors of the individual mode
+			int[] base1 = new int[3], base2 = new int[3];
+			boolean isDifferenceClamped = false;
+			for( int i = 0; i < 3; i++ )
+			{
+				base1[i] = ( average1[i] * 31 + 127 ) / 255;
+				base2[i] = ( average2[i] * 31 + 127 ) / 255;
+
+				int difference = base2[i] - base1[i];
+				if( difference < -4 || difference > 3 )
+				{
+					base2[i] = base1[i] + Math.max( -4, Math.min( 3, difference ) );
+					isDifferenceClamped = true;
+				}
+			}
+
+			int variations = fast ? 0 : 1;
+			for( int variation1 = -variations; variation1 <= variations; variation1++ )
+			{
+				for( int variation2 = -variations; variation2 <= variations; variation2++ )
+				{
+					int[] color1 = ShiftColor( base1, variation1, 31 );
+					int[] color2 = ShiftColor( base2, variation2, 31 );
+					if( !IsValidDifference( color1, color2 ) )
+						continue;
+
+					long error = EncodeSubBlock( block, flip, 0, Expand5( color1 ), workspace, bestError );
+					int table1 = workspace.table;
+					System.arraycopy( workspace.indices, 0, bestIndices1, 0, 8 );
+
+					if( error < bestError )
+					{
+						error += EncodeSubBlock( block, flip, 1, Expand5( color2 ), workspace, bestError - error );
+						if( error < bestError )
+						{
+							bestError = error;
+							bestBlock = ( (long) color1[0] << 59 ) | ( (long) ( ( color2[0] - color1[0] ) & 7 ) << 56 ) |
+									( (long) color1[1] << 51 ) | ( (long) ( ( color2[1] - color1[1] ) & 7 ) << 48 ) |
+									( (long) color1[2] << 43 ) | ( (long) ( ( color2[2] - color1[2] ) & 7 ) << 40 ) |
+									( (long) table1 << 37 ) | ( (long) workspace.table << 34 ) | ( 1L << 33 ) | ( (long) flip << 32 ) |
+									GetIndexBits( flip, bestIndices1, workspace.indices );
+						}
+					}
+				}
+			}
+
+			// Individual mode: two independent 4-bit base colors
+			if( !fast || isDifferenceClamped )
+			{
+				int[] color1 = new int[3], color2 = new int[3];
+				for( int i = 0; i < 3; i++ )
+				{
+					color1[i] = ( average1[i] * 15 + 127 ) / 255;
+					color2[i] = ( average2[i] * 15 + 127 ) / 255;
+				}
+
+				long error = EncodeSubBlock( block, flip, 0, Expand4( color1 ), workspace, bestError );
+				int table1 = workspace.table;
+				System.arraycopy( workspace.indices, 0, bestIndices1, 0, 8 );
+
+				if( error < bestError )
+				{
+					error += EncodeSubBlock( block, flip, 1, Expand4( color2 ), workspace, bestError - error );
+					if( error < bestError )
+					{
+						bestError = error;
+						bestBlock = ( (long) color1[0] << 60 ) | ( (long) color2[0] << 56 ) |
+								( (long) color1[1] << 52 ) | ( (long) color2[1] << 48 ) |
+								( (long) color1[2] << 44 ) | ( (long) color2[2] << 40 ) |
+								( (long) table1 << 37 ) | ( (long) workspace.table << 34 ) | ( (long) flip << 32 ) |
+								GetIndexBits( flip, bestIndices1, workspace.indices );
+					}
+				}
+			}
+		}
+
+		return bestBlock;
+	}
+
+	// Finds the modifier table and pixel indices with the least squared error for a sub-block. Result is stored in workspace.table and
+	// workspace.indices. Returns early if the error exceeds maxError
+	private static long EncodeSubBlock( final int[] block, final int flip, final int subBlock, final int[] baseColor, final Workspace workspace, final long maxError )
+	{
+		int[] r = workspace.subBlockR, g = workspace.subBlockG, b = workspace.subBlockB, positions = workspace.subBlockPositions;
+		for( int i = 0; i < 8; i++ )
+		{
+			int position = GetSubBlockPixelPosition( flip, subBlock, i );
+			int color = block[position];
+			r[i] = ( color >> 16 ) & 0xFF;
+			g[i] = ( color >> 8 ) & 0xFF;
+			b[i] = color & 0xFF;
+			positions[i] = position;
+		}
+
+		int baseR = baseColor[0], baseG = baseColor[1], baseB = baseColor[2];
+		long bestError = Long.MAX_VALUE;
+		int bestTable = 0;
+		int[] bestIndices = workspace.indices;
+		int[] indices = workspace.candidateIndices;
+
+		for( int table = 0; table < 8; table++ )
+		{
+			int small = COLOR_MODIFIERS[table][0], large = COLOR_MODIFIERS[table][1];
+			long error = 0L;
+			for( int i = 0; i < 8 && error < bestError; i++ )
+			{
+				// All channels are shifted by the same modifier, so the modifier closest to the average channel difference is the best
+				// one (unless clamping kicks in, so the neighbouring modifier is also checked)
+				int difference = ( r[i] - baseR ) + ( g[i] - baseG ) + ( b[i] - baseB );
+				int candidate;
+				if( difference >= 0 )
+					candidate = ( difference * 2 < 3 * ( small + large ) ) ? 0 : 1;
+				else
+					candidate = ( -difference * 2 < 3 * ( small + large ) ) ? 2 : 3;
+
+				int bestIndex = candidate;
+				int bestPixelError = GetColorError( r[i], g[i], b[i], baseR, baseG, baseB, GetColorModifier( small, large, candidate ) );
+				int neighbour = candidate ^ 1;
+				int neighbourError = GetColorError( r[i], g[i], b[i], baseR, baseG, baseB, GetColorModifier( small, large, neighbour ) );
+				if( neighbourError < bestPixelError )
+				{
+					bestIndex = neighbour;
+					bestPixelError = neighbourError;
+				}
+
+				indices[i] = bestIndex;
+				error += bestPixelError;
+			}
+
+			if( error < bestError )
+			{
+				bestError = error;
+				bestTable = table;
+				System.arraycopy( indices, 0, bestIndices, 0, 8 );
+
+				if( error == 0L )
+					break;
+			}
+		}
+
+		workspace.table = bestTable;
+		return ( bestError > maxError ) ? Long.MAX_VALUE / 2 : bestError;
+	}
+
+	private static long EncodeAlphaBlock( final int[] block, final boolean fast )
+	{
+		int minAlpha = 255, maxAlpha = 0;
+		for( int color : block )
+		{
+			int alpha = color >>> 24;
+			minAlpha = Math.min( minAlpha, alpha );
+			maxAlpha = Math.max( maxAlpha, alpha );
+		}
+
+		if( minAlpha == maxAlpha )
+		{
+			long result = ( (long) minAlpha << 56 ) | ( 1L << 52 ) | ( (long) UNIFORM_ALPHA_TABLE << 48 );
+			for( int position = 0; position < 16; position++ )
+				result |= (long) UNIFORM_ALPHA_INDEX << ( 45 - 3 * GetIndexBitPosition( position ) );
+
+			return result;
+		}
+
+		long bestBlock = 0L;
+		long bestError = Long.MAX_VALUE;
+		int[] indices = new int[16];
+
+		for( int table = 0; table < 16; table++ )
+		{
+			int[] modifiers = ALPHA_MODIFIERS[table];
+			int span = modifiers[7] - modifiers[3];
+			int multiplier = Math.max( 1, Math.min( 15, ( maxAlpha - minAlpha + span / 2 ) / span ) );
+
+			int variations = fast ? 0 : 1;
+			for( int m = Math.max( 1, multiplier - variations ); m <= Math.min( 15, multiplier + variations ); m++ )
+			{
+				// Center the table's range on the block's alpha range
+				int base = Math.max( 0, Math.min( 255, ( minAlpha + maxAlpha - ( modifiers[7] + modifiers[3] ) * m + 1 ) / 2 ) );
+
+				long error = 0L;
+				for( int position = 0; position < 16 && error < bestError; position++ )
+				{
+					int alpha = block[position] >>> 24;
+					int bestIndex = 0, bestPixelError = Integer.MAX_VALUE;
+					for( int index = 0; index < 8; index++ )
+					{
+						int difference = alpha - Math.max( 0, Math.min( 255, base + modifiers[index] * m ) );
+						if( difference * difference < bestPixelError )
+						{
+							bestPixelError = difference * difference;
+							bestIndex = index;
+						}
+					}
+
+					indices[position] = bestIndex;
+					error += bestPixelError;
+				}
+
+				if( error < bestError )
+				{
+					bestError = error;
+					bestBlock = ( (long) base << 56 ) | ( (long) m << 52 ) | ( (long) table << 48 );
+					for( int position = 0; position < 16; position++ )
+						bestBlock |= (long) indices[position] << ( 45 - 3 * GetIndexBitPosition( position ) );
+				}
+			}
+		}
+
+		return bestBlock;
+	}
+
+	// Average color of a sub-block, rounded
+	private static int[] GetSubBlockAverage( final int[] block, final int flip, final int subBlock )
+	{
+		int r = 0, g = 0, b = 0;
+		for( int i = 0; i < 8; i++ )
+		{
+			int color = block[GetSubBlockPixelPosition( flip, subBlock, i )];
+			r += ( color >> 16 ) & 0xFF;
+			g += ( color >> 8 ) & 0xFF;
+			b += color & 0xFF;
+		}
+
+		return new int[] { ( r + 4 ) / 8, ( g + 4 ) / 8, ( b + 4 ) / 8 };
+	}
+
+	// Returns the position (y * 4 + x) of the i'th pixel of the sub-block
+	private static int GetSubBlockPixelPosition( final int flip, final int subBlock, final int i )
+	{
+		if( flip == 0 )
+			return ( i >> 1 ) * 4 + subBlock * 2 + ( i & 1 ); // 2x4
+		else
+			return ( subBlock * 2 + ( i >> 2 ) ) * 4 + ( i & 3 ); // 4x2
+	}
+
+	// Pixel indices are stored in column-major order: bit position of the pixel at (x, y) is x * 4 + y
+	private static int GetIndexBitPosition( final int position )
+	{
+		return ( position & 3 ) * 4 + ( position >> 2 );
+	}
+
+	private static long GetIndexBits( final int flip, final int[] indices1, final int[] indices2 )
+	{
+		long result = 0L;
+		for( int i = 0; i < 8; i++ )
+		{
+			int bitPosition1 = GetIndexBitPosition( GetSubBlockPixelPosition( flip, 0, i ) );
+			int bitPosition2 = GetIndexBitPosition( GetSubBlockPixelPosition( flip, 1, i ) );
+			result |= ( (long) ( indices1[i] >> 1 ) << ( 16 + bitPosition1 ) ) | ( (long) ( indices1[i] & 1 ) << bitPosition1 );
+			result |= ( (long) ( indices2[i] >> 1 ) << ( 16 + bitPosition2 ) ) | ( (long) ( indices2[i] & 1 ) << bitPosition2 );
+		}
+
+		return result;
+	}
+
+	private static int GetColorModifier( final int small, final int large, final int index )
+	{
+		switch( index )
+		{
+			case 0: return small;
+			case 1: return large;
+			case 2: return -small;
+			default: return -large;
+		}
+	}
+
+	private static int GetColorError( int r, int g, int b, int baseR, int baseG, int baseB, int modifier )
+	{
+		int dr = r - Math.max( 0, Math.min( 255, baseR + modifier ) );
+		int dg = g - Math.max( 0, Math.min( 255, baseG + modifier ) );
+		int db = b - Math.max( 0, Math.min( 255, baseB + modifier ) );
+		return dr * dr + dg * dg + db * db;
+	}
+
+	private static int[] ShiftColor( final int[] color, final int amount, final int maxValue )
+	{
+		return new int[] {
+				Math.max( 0, Math.min( maxValue, color[0] + amount ) ),
+				Math.max( 0, Math.min( maxValue, color[1] + amount ) ),
+				Math.max( 0, Math.min( maxValue, color[2] + amount ) ) };
+	}
+
+	private static boolean IsValidDifference( final int[] color1, final int[] color2 )
+	{
+		for( int i = 0; i < 3; i++ )
+		{
+			int difference = color2[i] - color1[i];
+			if( difference < -4 || difference > 3 )
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int[] Expand5( final int[] color )
+	{
+		return new int[] { ( color[0] << 3 ) | ( color[0] >> 2 ), ( color[1] << 3 ) | ( color[1] >> 2 ), ( color[2] << 3 ) | ( color[2] >> 2 ) };
+	}
+
+	private static int[] Expand4( final int[] color )
+	{
+		return new int[] { ( color[0] << 4 ) | color[0], ( color[1] << 4 ) | color[1], ( color[2] << 4 ) | color[2] };
+	}
+
+	private static void WriteLong( final byte[] output, final int offset, final long value )
+	{
+		for( int i = 0; i < 8; i++ )
+			output[offset + i] = (byte) ( value >>> ( 56 - i * 8 ) );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,484 @@
+package com.yasirkula.unity;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// Extracts the dimensions, MIME type and EXIF orientation of JPEG, PNG, WebP and HEIF/AVIF images by reading only their headers.
+// Large segments/chunks/boxes that don't contain this information are skipped without being read. Doesn't depend on Android APIs
+public class NativeCameraImageHeader
+{
+	// EXIF orientation values (same as ExifInterface.ORIENTATION_*)
+	public static final int ORIENTATION_UNDEFINED = 0;
+	private static final int ORIENTATION_ROTATE_180 = 3;
+	private static final int ORIENTATION_ROTATE_90 = 6;
+	private static final int ORIENTATION_ROTATE_270 = 8;
+
+	private static final int MAX_EXIF_SIZE = 64 * 1024;
+	private static final int MAX_HEIF_META_SIZE = 4 * 1024 * 1024;
+
+	public final int width; // Dimensions of the encoded image, i.e. orientation isn't applied
+	public final int height;
+	public final String mimeType;
+	public final int orientation;
+
+	private NativeCameraImageHeader( int width, int height, String mimeType, int orientation )
+	{
+		this.width = width;
+		this.height = height;
+		this.mimeType = mimeType;
+		this.orientation = orientation;
+	}
+
+	// Returns null if the image's format isn't supported or the image is corrupted
+	public static NativeCameraImageHeader Parse( final String path )
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile( path, "r" );
+
+			byte[] signature = new byte[12];
+			if( file.read( signature ) < 12 )
+				return null;
+
+			file.seek( 0L );
+			if( ( signature[0] & 0xFF ) == 0xFF && ( signature[1] & 0xFF ) == 0xD8 )
+				return ParseJPEG( file );
+			if( ( signature[0] & 0xFF ) == 0x89 && signature[1] == 'P' && signature[2] == 'N' && signature[3] == 'G' )
+				return ParsePNG( file );
+			if( signature[0] == 'R' && signature[1] == 'I' && signature[2] == 'F' && signature[3] == 'F' && signature[8] == 'W' && signature[9] == 'E' && signature[10] == 'B' && signature[11] == 'P' )
+				return ParseWebP( file );
+			if( signature[4] == 'f' && signature[5] == 't' && signature[6] == 'y' && signature[7] == 'p' )
+				return ParseHEIF( file );
+
+			return null;
+		}
+		catch( Exception e )
+		{
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if( file != null )
+					file.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	private static NativeCameraImageHeader ParseJPEG( RandomAccessFile file ) throws IOException
+	{
+		int orientation = ORIENTATION_UNDEFINED;
+		long position = 2L;
+		byte[] header = new byte[4];
+		while( true )
+		{
+			file.seek( position );
+			file.readFully( header, 0, 2 );
+			if( ( header[0] & 0xFF ) != 0xFF )
+				return null;
+
+			int marker = header[1] & 0xFF;
+			if( marker == 0xFF )
+			{
+				position++; // Fill byte
+				continue;
+			}
+
+			if( marker == 0xD8 || ( marker >= 0xD0 && marker <= 0xD7 ) || marker == 0x01 )
+			{
+				position += 2L; // Standalone markers
+				continue;
+			}
+
+			if( marker == 0xD9 || marker == 0xDA )
+				return null; // Reached image data before SOF
+
+			file.readFully( header, 0, 2 );
+			int length = ReadUInt16( header, 0, false );
+			if( length < 2 )
+				return null;
+
+			if( marker == 0xE1 && orientation == ORIENTATION_UNDEFINED && length >= 16 )
+			{
+				byte[] segment = new byte[Math.min( length - 2, MAX_EXIF_SIZE )];
+				file.readFully( segment );
+				if( segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f' && segment[4] == 0 && segment[5] == 0 )
+					orientation = ParseExifOrientation( segment, 6, segment.length );
+			}
+			else if( marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC )
+			{
+				byte[] frame = new byte[5];
+				file.readFully( frame );
+
+				int height = ReadUInt16( frame, 1, false );
+				int width = ReadUInt16( frame, 3, false );
+				if( width <= 0 || height <= 0 )
+					return null;
+
+				return new NativeCameraImageHeader( width, height, "image/jpeg", orientation );
+			}
+
+			position += 2L + length;
+		}
+	}
+
+	private static NativeCameraImageHeader ParsePNG( RandomAccessFile file ) throws IOException
+	{
+		byte[] header = new byte[8];
+		long position = 8L;
+
+		file.seek( position );
+		file.readFully( header );
+		if( !IsType( header, 4, "IHDR" ) )
+			return null;
+
+		byte[] dimensions = new byte[8];
+		file.readFully( dimensions );
+		int width = (int) ReadUInt32( dimensions, 0, false );
+		int height = (int) ReadUInt32( dimensions, 4, false );
+		if( width <= 0 || height <= 0 )
+			return null;
+
+		// eXIf chunk must come before IDAT
+		int orientation = ORIENTATION_UNDEFINED;
+		long fileLength = file.length();
+		while( position + 8L <= fileLength )
+		{
+			file.seek( position );
+			file.readFully( header );
+
+			long length = ReadUInt32( header, 0, false );
+			if( IsType( header, 4, "eXIf" ) )
+			{
+				byte[] exif = new byte[(int) Math.min( length, MAX_EXIF_SIZE )];
+				file.readFully( exif );
+				orientation = ParseExifOrientation( exif, 0, exif.length );
+				break;
+			}
+
+			if( IsType( header, 4, "IDAT" ) || IsType( header, 4, "IEND" ) )
+				break;
+
+			position += 12L + length;
+		}
+
+		return new NativeCameraImageHeader( width, height, "image/png", orientation );
+	}
+
+	private static NativeCameraImageHeader ParseWebP( RandomAccessFile file ) throws IOException
+	{
+		byte[] header = new byte[8];
+		byte[] data = new byte[10];
+		int width = 0, height = 0, orientation = ORIENTATION_UNDEFINED;
+		boolean isExtendedFormat = false;
+
+		long position = 12L;
+		long fileLength = file.length();
+		while( position + 8L <= fileLength )
+		{
+			file.seek( position );
+			file.readFully( header );
+
+			long length = ReadUInt32( header, 4, true );
+			if( IsType( header, 0, "VP8X" ) )
+			{
+				file.readFully( data );
+				width = 1 + ReadUInt24( data, 4 );
+				height = 1 + ReadUInt24( data, 7 );
+				isExtendedFormat = true;
+
+				if( ( data[0] & 0x08 ) == 0 )
+					break; // No EXIF chunk
+			}
+			else if( IsType( header, 0, "VP8 " ) && !isExtendedFormat )
+			{
+				file.readFully( data );
+				if( ( data[3] & 0xFF ) != 0x9D || ( data[4] & 0xFF ) != 0x01 || ( data[5] & 0xFF ) != 0x2A )
+					return null;
+
+				width = ReadUInt16( data, 6, true ) & 0x3FFF;
+				height = ReadUInt16( data, 8, true ) & 0x3FFF;
+				break; // Simple format can't have EXIF
+			}
+			else if( IsType( header, 0, "VP8L" ) && !isExtendedFormat )
+			{
+				file.readFully( data, 0, 5 );
+				if( data[0] != 0x2F )
+					return null;
+
+				long bits = ReadUInt32( data, 1, true );
+				width = 1 + (int) ( bits & 0x3FFF );
+				height = 1 + (int) ( ( bits >> 14 ) & 0x3FFF );
+				break;
+			}
+			else if( IsType( header, 0, "EXIF" ) )
+			{
+				byte[] exif = new byte[(int) Math.min( length, MAX_EXIF_SIZE )];
+				file.readFully( exif );
+
+				int offset = ( exif.length > 6 && exif[0] == 'E' && exif[1] == 'x' && exif[2] == 'i' && exif[3] == 'f' ) ? 6 : 0;
+				orientation = ParseExifOrientation( exif, offset, exif.length );
+				break;
+			}
+
+			position += 8L + length + ( length & 1L ); // Chunks are padded to even sizes
+		}
+
+		if( width <= 0 || height <= 0 )
+			return null;
+
+		return new NativeCameraImageHeader( width, height, "image/webp", orientation );
+	}
+
+	// Parses the ispe and irot properties of the primary item. Anti-clockwise rotation of 'irot' is converted to EXIF orientation
+	private static NativeCameraImageHeader ParseHEIF( RandomAccessFile file ) throws IOException
+	{
+		byte[] header = new byte[16];
+		file.seek( 0L );
+		file.readFully( header, 0, 12 );
+
+		String mimeType = ( IsType( header, 8, "avif" ) || IsType( header, 8, "avis" ) ) ? "image/avif" : "image/heif";
+
+		long fileLength = file.length();
+		long position = 0L;
+		while( position + 8L <= fileLength )
+		{
+			file.seek( position );
+			file.readFully( header, 0, 8 );
+
+			long size = GetBoxSize( file, header, position, fileLength );
+			if( size <= 0L )
+				return null;
+
+			if( IsType( header, 4, "meta" ) )
+			{
+				if( size > MAX_HEIF_META_SIZE )
+					return null;
+
+				// 'meta' is a small box that contains the item properties, read it at once
+				byte[] meta = new byte[(int) size];
+				file.seek( position );
+				file.readFully( meta );
+				return ParseHEIFMeta( meta, mimeType );
+			}
+
+			position += size;
+		}
+
+		return null;
+	}
+
+	private static NativeCameraImageHeader ParseHEIFMeta( byte[] meta, String mimeType )
+	{
+		int primaryItemId = -1;
+		int ipcoStart = -1, ipcoEnd = -1;
+		int ipmaStart = -1, ipmaEnd = -1;
+
+		// meta is a FullBox
+		int position = 12;
+		while( position + 8 <= meta.length )
+		{
+			int size = (int) ReadUInt32( meta, position, false );
+			if( size < 8 || position + size > meta.length )
+				return null;
+
+			if( IsType( meta, position + 4, "pitm" ) )
+				primaryItemId = ( meta[position + 8] == 0 ) ? ReadUInt16( meta, position + 12, false ) : (int) ReadUInt32( meta, position + 12, false );
+			else if( IsType( meta, position + 4, "iprp" ) )
+			{
+				int childPosition = position + 8;
+				while( childPosition + 8 <= position + size )
+				{
+					int childSize = (int) ReadUInt32( meta, childPosition, false );
+					if( childSize < 8 || childPosition + childSize > position + size )
+						return null;
+
+					if( IsType( meta, childPosition + 4, "ipco" ) && ipcoStart < 0 )
+					{
+						ipcoStart = childPosition + 8;
+						ipcoEnd = childPosition + childSize;
+					}
+					else if( IsType( meta, childPosition + 4, "ipma" ) && ipmaStart < 0 )
+					{
+						ipmaStart = childPosition;
+						ipmaEnd = childPosition + childSize;
+					}
+
+					childPosition += childSize;
+				}
+			}
+
+			position += size;
+		}
+
+		if( primaryItemId < 0 || ipcoStart < 0 || ipmaStart < 0 )
+			return null;
+
+		// Find the 1-based property indices associated with the primary item
+		int version = meta[ipmaStart + 8];
+		int flags = meta[ipmaStart + 11] & 0x01;
+		int entryCount = (int) ReadUInt32( meta, ipmaStart + 12, false );
+		int[] propertyIndices = null;
+
+		position = ipmaStart + 16;
+		for( int i = 0; i < entryCount && position < ipmaEnd; i++ )
+		{
+			int itemId;
+			if( version < 1 )
+			{
+				itemId = ReadUInt16( meta, position, false );
+				position += 2;
+			}
+			else
+			{
+				itemId = (int) ReadUInt32( meta, position, false );
+				position += 4;
+			}
+
+			int associationCount = meta[position++] & 0xFF;
+			int[] indices = new int[associationCount];
+			for( int j = 0; j < associationCount; j++ )
+			{
+				if( flags == 1 )
+				{
+					indices[j] = ReadUInt16( meta, position, false ) & 0x7FFF;
+					position += 2;
+				}
+				else
+					indices[j] = meta[position++] & 0x7F;
+			}
+
+			if( itemId == primaryItemId )
+			{
+				propertyIndices = indices;
+				break;
+			}
+		}
+
+		if( propertyIndices == null )
+			return null;
+
+		int width = 0, height = 0, rotation = 0;
+		for( int propertyIndex : propertyIndices )
+		{
+			// Find the property box with the given index
+			position = ipcoStart;
+			for( int i = 1; i < propertyIndex && position + 8 <= ipcoEnd; i++ )
+				position += Math.max( 8, (int) ReadUInt32( meta, position, false ) );
+
+			if( position + 8 > ipcoEnd )
+				continue;
+
+			if( IsType( meta, position + 4, "ispe" ) && width == 0 )
+			{
+				width = (int) ReadUInt32( meta, position + 12, false );
+				height = (int) ReadUInt32( meta, position + 16, false );
+			}
+			else if( IsType( meta, position + 4, "irot" ) )
+				rotation = meta[position + 8] & 0x03; // Anti-clockwise, in 90 degree steps
+		}
+
+		if( width <= 0 || height <= 0 )
+			return null;
+
+		int orientation;
+		if( rotation == 1 )
+			orientation = ORIENTATION_ROTATE_270;
+		else if( rotation == 2 )
+			orientation = ORIENTATION_ROTATE_180;
+		else if( rotation == 3 )
+			orientation = ORIENTATION_ROTATE_90;
+		else
+			orientation = 1; // ORIENTATION_NORMAL
+
+		return new NativeCameraImageHeader( width, height, mimeType, orientation );
+	}
+
+	static long GetBoxSize( RandomAccessFile file, byte[] header, long position, long fileLength ) throws IOException
+	{
+		long size = ReadUInt32( header, 0, false );
+		if( size == 1L )
+		{
+			file.readFully( header, 8, 8 );
+			size = ( ReadUInt32( header, 8, false ) << 32 ) | ReadUInt32( header, 12, false );
+		}
+		else if( size == 0L )
+			size = fileLength - position;
+
+		return ( size < 8L ) ? -1L : size;
+	}
+
+	// Returns the orientation tag in IFD0 of the TIFF structure starting at data[offset], or ORIENTATION_UNDEFINED
+	private static int ParseExifOrientation( byte[] data, int offset, int end )
+	{
+		if( end - offset < 8 )
+			return ORIENTATION_UNDEFINED;
+
+		boolean littleEndian;
+		if( data[offset] == 'I' && data[offset + 1] == 'I' )
+			littleEndian = true;
+		else if( data[offset] == 'M' && data[offset + 1] == 'M' )
+			littleEndian = false;
+		else
+			return ORIENTATION_UNDEFINED;
+
+		long ifdOffset = ReadUInt32( data, offset + 4, littleEndian );
+		if( ifdOffset < 8L || offset + ifdOffset + 2L > end )
+			return ORIENTATION_UNDEFINED;
+
+		int ifdStart = offset + (int) ifdOffset;
+		int entryCount = ReadUInt16( data, ifdStart, littleEndian );
+		for( int i = 0; i < entryCount; i++ )
+		{
+			int entry = ifdStart + 2 + i * 12;
+			if( entry + 12 > end )
+				break;
+
+			if( ReadUInt16( data, entry, littleEndian ) == 0x0112 )
+			{
+				int orientation = ReadUInt16( data, entry + 8, littleEndian );
+				return ( orientation >= 1 && orientation <= 8 ) ? orientation : ORIENTATION_UNDEFINED;
+			}
+		}
+
+		return ORIENTATION_UNDEFINED;
+	}
+
+	// Returns true if the 4 bytes at data[offset] are the ASCII characters of type (box type, chunk name, etc.)
+	static boolean IsType( byte[] data, int offset, String type )
+	{
+		for( int i = 0; i < 4; i++ )
+		{
+			if( data[offset + i] != type.charAt( i ) )
+				return false;
+		}
+
+		return true;
+	}
+
+	static int ReadUInt16( byte[] data, int offset, boolean littleEndian )
+	{
+		if( littleEndian )
+			return ( data[offset] & 0xFF ) | ( ( data[offset + 1] & 0xFF ) << 8 );
+		else
+			return ( ( data[offset] & 0xFF ) << 8 ) | ( data[offset + 1] & 0xFF );
+	}
+
+	private static int ReadUInt24( byte[] data, int offset )
+	{
+		return ( data[offset] & 0xFF ) | ( ( data[offset + 1] & 0xFF ) << 8 ) | ( ( data[offset + 2] & 0xFF ) << 16 );
+	}
+
+	static long ReadUInt32( byte[] data, int offset, boolean littleEndian )
+	{
+		if( littleEndian )
+			return ReadUInt16( data, offset, true ) | ( (long) ReadUInt16( data, offset + 2, true ) << 16 );
+		else
+			return ( (long) ReadUInt16( data, offset, false ) << 16 ) | ReadUInt16( data, offset + 2, false );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,870 @@
+package com.yasirkula.unity;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+// Lossless orientation correction for baseline JPEG images, similar to "jpegtran -rotate/-flip/-transpose/-transverse". Quantized DCT
+// coefficients are rearranged (and their signs flipped) instead of decoding and re-encoding the pixels, so image quality is preserved
+// exactly. The output is Huffman encoded with the standard tables from Annex K of the JPEG specification and its EXIF orientation is
+// reset to normal. Progressive, arithmetic coded, 12-bit and multi-scan JPEGs aren't supported.
+//
+// Edge blocks that don't fill a whole MCU can't be moved to the opposite edge losslessly. If allowTrim is true, those pixels are
+// trimmed (like jpegtran's -trim), otherwise such images aren't transformed at all (like jpegtran's -perfect)
+public class NativeCameraJpegTransform
+{
+	// EXIF orientation values (same as ExifInterface.ORIENTATION_*)
+	private static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+	private static final int ORIENTATION_ROTATE_180 = 3;
+	private static final int ORIENTATION_FLIP_VERTICAL = 4;
+	private static final int ORIENTATION_TRANSPOSE = 5;
+	private static final int ORIENTATION_ROTATE_90 = 6;
+	private static final int ORIENTATION_TRANSVERSE = 7;
+	private static final int ORIENTATION_ROTATE_270 = 8;
+
+	// Natural (row-major) index of the k'th coefficient in zigzag order
+	private static final int[] ZIGZAG = {
+			0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+			12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+			35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+			58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+	// Standard Huffman tables (JPEG specification, Annex K.3)
+	private static final int[] STD_DC_LUMINANCE_BITS = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int[] STD_DC_CHROMINANCE_BITS = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+	private static final int[] STD_DC_VALUES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+	private static final int[] STD_AC_LUMINANCE_BITS = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+	private static final int[] STD_AC_LUMINANCE_VALUES = {
+			0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+			0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+			0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+			0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+			0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+			0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+			0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+			0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+			0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+			0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+			0xf9, 0xfa };
+	private static final int[] STD_AC_CHROMINANCE_BITS = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+	private static final int[] STD_AC_CHROMINANCE_VALUES = {
+			0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+			0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+			0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+			0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+			0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+			0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+			0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+			0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+			0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+			0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+			0xf9, 0xfa };
+
+	private static class HuffmanTable
+	{
+		private static final int LOOKUP_BITS = 9;
+
+		public final int[] lookup = new int[1 << LOOKUP_BITS]; // (symbol << 8) | codeLength, 0 if code is longer than LOOKUP_BITS
+		public final int[] maxCode = new int[18];
+		public final int[] minCode = new int[17];
+		public final int[] valuePointer = new int[17];
+		public final int[] values;
+
+		public HuffmanTable( int[] bits, int[] values )
+		{
+			this.values = values;
+
+			int code = 0, k = 0;
+			for( int length = 1; length <= 16; length++ )
+			{
+				valuePointer[length] = k;
+				minCode[length] = code;
+
+				for( int i = 0; i < bits[length - 1]; i++, k++, code++ )
+				{
+					if( length <= LOOKUP_BITS )
+					{
+						int shift = LOOKUP_BITS - length;
+						int entry = ( values[k] << 8 ) | length;
+						for( int j = code << shift, end = ( code + 1 ) << shift; j < end; j++ )
+							lookup[j] = entry;
+					}
+				}
+
+				maxCode[length] = bits[length - 1] > 0 ? code - 1 : -1;
+				code <<= 1;
+			}
+
+			maxCode[17] = Integer.MAX_VALUE; // Sentinel
+		}
+	}
+
+	private static class HuffmanEncoder
+	{
+		public final int[] codes = new int[256];
+		public final int[] lengths = new int[256];
+
+		public HuffmanEncoder( int[] bits, int[] values )
+		{
+			int code = 0, k = 0;
+			for( int length = 1; length <= 16; length++ )
+			{
+				for( int i = 0; i < bits[length - 1]; i++, k++, code++ )
+				{
+					codes[values[k]] = code;
+					lengths[values[k]] = length;
+				}
+
+				code <<= 1;
+			}
+		}
+	}
+
+	private static class Component
+	{
+		public int id, h, v, quantizationTableIndex;
+		public HuffmanTable dcTable, acTable;
+		public int blocksPerLine, blocksPerColumn;
+		public short[] coefficients; // Quantized, in natural order, 64 per block
+	}
+
+	private static class BitReader
+	{
+		private final byte[] data;
+		private int position;
+		private int bitBuffer; // Left aligned
+		private int bitCount;
+		private boolean markerReached;
+
+		public BitReader( byte[] data, int position )
+		{
+			this.data = data;
+			this.position = position;
+		}
+
+		private void Fill()
+		{
+			while( bitCount <= 24 )
+			{
+				int b = 0;
+				if( !markerReached && position < data.length )
+				{
+					b = data[position] & 0xFF;
+					if( b == 0xFF )
+					{
+						int next = ( position + 1 < data.length ) ? ( data[position + 1] & 0xFF ) : 0xD9;
+						if( next == 0x00 )
+							position += 2;
+						else
+						{
+							// Reached a marker, feed zeros until it is consumed
+							markerReached = true;
+							b = 0;
+						}
+					}
+					else
+						position++;
+				}
+
+				bitBuffer |= b << ( 24 - bitCount );
+				bitCount += 8;
+			}
+		}
+
+		public int ReadBits( int count )
+		{
+			if( count == 0 )
+				return 0;
+
+			Fill();
+			int result = bitBuffer >>> ( 32 - count );
+			bitBuffer <<= count;
+			bitCount -= count;
+
+			return result;
+		}
+
+		public int DecodeHuffman( HuffmanTable table ) throws IOException
+		{
+			Fill();
+
+			int entry = table.lookup[bitBuffer >>> ( 32 - HuffmanTable.LOOKUP_BITS )];
+			if( entry != 0 )
+			{
+				int length = entry & 0xFF;
+				bitBuffer <<= length;
+				bitCount -= length;
+
+				return entry >>> 8;
+			}
+
+			for( int length = HuffmanTable.LOOKUP_BITS + 1; length <= 16; length++ )
+			{
+				int code = bitBuffer >>> ( 32 - length );
+				if( code <= table.maxCode[length] )
+				{
+					bitBuffer <<= length;
+					bitCount -= length;
+
+					return table.values[table.valuePointer[length] + code - table.minCode[length]];
+				}
+			}
+
+			throw new IOException( "Invalid Huffman code" );
+		}
+
+		public void ProcessRestartMarker() throws IOException
+		{
+			bitBuffer = 0;
+			bitCount = 0;
+			markerReached = false;
+
+			while( position + 1 < data.length && !( data[position] == (byte) 0xFF && ( data[position + 1] & 0xF8 ) == 0xD0 ) )
+				position++;
+
+			if( position + 1 >= data.length )
+				throw new IOException( "Restart marker not found" );
+
+			position += 2;
+		}
+	}
+
+	private static class BitWriter
+	{
+		private final OutputStream stream;
+		private int bitBuffer; // Right aligned
+		private int bitCount;
+
+		public BitWriter( OutputStream stream )
+		{
+			this.stream = stream;
+		}
+
+		public void WriteBits( int value, int count ) throws IOException
+		{
+			bitBuffer = ( bitBuffer << count ) | ( value & ( ( 1 << count ) - 1 ) );
+			bitCount += count;
+
+			while( bitCount >= 8 )
+			{
+				int b = ( bitBuffer >>> ( bitCount - 8 ) ) & 0xFF;
+				stream.write( b );
+				if( b == 0xFF )
+					stream.write( 0 );
+
+				bitCount -= 8;
+			}
+		}
+
+		public void Flush() throws IOException
+		{
+			if( bitCount > 0 )
+				WriteBits( 0x7F, 8 - bitCount ); // Pad with 1 bits
+		}
+	}
+
+	// Upper bound of the memory allocated by Transform: the source file's bytes plus the 16-bit DCT coefficients of up to 3 full
+	// resolution components, rounded up to whole MCUs (at most 32x32 pixels)
+	public static long GetPeakMemory( final int width, final int height, final long fileLength )
+	{
+		return fileLength + (long) ( ( width + 31 ) / 32 * 32 ) * ( ( height + 31 ) / 32 * 32 ) * 3L * 2L;
+	}
+
+	public static boolean Transform( final String srcPath, final String dstPath, final int orientation, final boolean allowTrim ) throws IOException
+	{
+		boolean transpose, flipX, flipY;
+		switch( orientation )
+		{
+			case ORIENTATION_FLIP_HORIZONTAL: transpose = false; flipX = true; flipY = false; break;
+			case ORIENTATION_ROTATE_180: transpose = false; flipX = true; flipY = true; break;
+			case ORIENTATION_FLIP_VERTICAL: transpose = false; flipX = false; flipY = true; break;
+			case ORIENTATION_TRANSPOSE: transpose = true; flipX = false; flipY = false; break;
+			case ORIENTATION_ROTATE_90: transpose = true; flipX = true; flipY = false; break;
+			case ORIENTATION_TRANSVERSE: transpose = true; flipX = true; flipY = true; break;
+			case ORIENTATION_ROTATE_270: transpose = true; flipX = false; flipY = true; break;
+			default: return false;
+		}
+
+		byte[] data = ReadFile( srcPath );
+		if( data.length < 4 || ( data[0] & 0xFF ) != 0xFF || ( data[1] & 0xFF ) != 0xD8 )
+			return false;
+
+		ArrayList<byte[]> metadataSegments = new ArrayList<byte[]>(); // APPn and COM segments, including their markers
+		int[][] quantizationTables = new int[4][]; // In zigzag order
+		HuffmanTable[] dcTables = new HuffmanTable[4];
+		HuffmanTable[] acTables = new HuffmanTable[4];
+		Component[] components = null;
+		int width = 0, height = 0, restartInterval = 0;
+		int scanPosition = -1;
+
+		int position = 2;
+		while( scanPosition < 0 )
+		{
+			while( position < data.length && ( data[position] & 0xFF ) == 0xFF && position + 1 < data.length && ( data[position + 1] & 0xFF ) == 0xFF )
+				position++; // Fill bytes
+
+			if( position + 4 > data.length || ( data[position] & 0xFF ) != 0xFF )
+				return false;
+
+			int marker = data[position + 1] & 0xFF;
+			int segmentStart = position + 4;
+			int segmentLength = ReadUInt16( data, position + 2 );
+			int segmentEnd = position + 2 + segmentLength;
+			if( segmentLength < 2 || segmentEnd > data.length )
+				return false;
+
+			if( marker == 0xC0 || marker == 0xC1 )
+			{
+				if( ( data[segmentStart] & 0xFF ) != 8 )
+					return false;
+
+				height = ReadUInt16( data, segmentStart + 1 );
+				width = ReadUInt16( data, segmentStart + 3 );
+				int componentCount = data[segmentStart + 5] & 0xFF;
+				if( width <= 0 || height <= 0 || componentCount <= 0 || componentCount > 4 || segmentLength < 8 + componentCount * 3 )
+					return false;
+
+				components = new Component[componentCount];
+				for( int i = 0; i < componentCount; i++ )
+				{
+					int offset = segmentStart + 6 + i * 3;
+					Component component = new Component();
+					component.id = data[offset] & 0xFF;
+					component.h = ( data[offset + 1] & 0xFF ) >> 4;
+					component.v = data[offset + 1] & 0x0F;
+					component.quantizationTableIndex = data[offset + 2] & 0xFF;
+					if( component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4 || component.quantizationTableIndex > 3 )
+						return false;
+
+					components[i] = component;
+				}
+			}
+			else if( marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC )
+				return false; // Progressive, lossless or arithmetic coded
+			else if( marker == 0xC4 )
+			{
+				int offset = segmentStart;
+				while( offset < segmentEnd )
+				{
+					int tableClass = ( data[offset] & 0xFF ) >> 4;
+					int tableIndex = data[offset] & 0x0F;
+					if( tableClass > 1 || tableIndex > 3 || offset + 17 > segmentEnd )
+						return false;
+
+					int[] bits = new int[16];
+					int valueCount = 0;
+					for( int i = 0; i < 16; i++ )
+						valueCount += bits[i] = data[offset + 1 + i] & 0xFF;
+
+					if( valueCount > 256 || offset + 17 + valueCount > segmentEnd )
+						return false;
+
+					int[] values = new int[valueCount];
+					for( int i = 0; i < valueCount; i++ )
+						values[i] = data[offset + 17 + i] & 0xFF;
+
+					if( tableClass == 0 )
+						dcTables[tableIndex] = new HuffmanTable( bits, values );
+					else
+						acTables[tableIndex] = new HuffmanTable( bits, values );
+
+					offset += 17 + valueCount;
+				}
+			}
+			else if( marker == 0xDB )
+			{
+				int offset = segmentStart;
+				while( offset < segmentEnd )
+				{
+					int precision = ( data[offset] & 0xFF ) >> 4;
+					int tableIndex = data[offset] & 0x0F;
+					if( precision > 1 || tableIndex > 3 || offset + 1 + 64 * ( precision + 1 ) > segmentEnd )
+						return false;
+
+					int[] table = new int[64];
+					for( int i = 0; i < 64; i++ )
+						table[i] = ( precision == 0 ) ? ( data[offset + 1 + i] & 0xFF ) : ReadUInt16( data, offset + 1 + i * 2 );
+
+					quantizationTables[tableIndex] = table;
+					offset += 1 + 64 * ( precision + 1 );
+				}
+			}
+			else if( marker == 0xDD )
+				restartInterval = ReadUInt16( data, segmentStart );
+			else if( ( marker >= 0xE0 && marker <= 0xEF ) || marker == 0xFE )
+			{
+				// Secondary images referenced by MPF would be lost since only the primary image is written, skip MPF data
+				boolean isMPF = marker == 0xE2 && segmentLength >= 6 && data[segmentStart] == 'M' && data[segmentStart + 1] == 'P' && data[segmentStart + 2] == 'F' && data[segmentStart + 3] == 0;
+				if( !isMPF )
+				{
+					byte[] segment = new byte[segmentLength + 2];
+					System.arraycopy( data, position, segment, 0, segment.length );
+					if( marker == 0xE1 )
+						ResetExifOrientation( segment, 4, segment.length );
+
+					metadataSegments.add( segment );
+				}
+			}
+			else if( marker == 0xDA )
+			{
+				if( components == null )
+					return false;
+
+				int scanComponentCount = data[segmentStart] & 0xFF;
+				if( scanComponentCount != components.length || segmentLength < 6 + scanComponentCount * 2 )
+					return false; // Non-interleaved multi-scan images aren't supported
+
+				for( int i = 0; i < scanComponentCount; i++ )
+				{
+					int componentId = data[segmentStart + 1 + i * 2] & 0xFF;
+					int tables = data[segmentStart + 2 + i * 2] & 0xFF;
+
+					Component component = null;
+					for( Component c : components )
+					{
+						if( c.id == componentId )
+							component = c;
+					}
+
+					if( component == null || ( tables >> 4 ) > 3 || ( tables & 0x0F ) > 3 )
+						return false;
+
+					component.dcTable = dcTables[tables >> 4];
+					component.acTable = acTables[tables & 0x0F];
+					if( component.dcTable == null || component.acTable == null || quantizationTables[component.quantizationTableIndex] == null )
+						return false;
+				}
+
+				scanPosition = segmentEnd;
+			}
+			else if( marker == 0xD9 )
+				return false;
+
+			position = segmentEnd;
+		}
+
+		// Decode the quantized DCT coefficients
+		if( components.length == 1 )
+			components[0].h = components[0].v = 1; // Single component scans are never interleaved
+
+		int maxH = 1, maxV = 1;
+		for( Component component : components )
+		{
+			maxH = Math.max( maxH, component.h );
+			maxV = Math.max( maxV, component.v );
+		}
+
+		int mcusX = ( width + 8 * maxH - 1 ) / ( 8 * maxH );
+		int mcusY = ( height + 8 * maxV - 1 ) / ( 8 * maxV );
+		for( Component component : components )
+		{
+			component.blocksPerLine = mcusX * component.h;
+			component.blocksPerColumn = mcusY * component.v;
+			component.coefficients = new short[component.blocksPerLine * component.blocksPerColumn * 64];
+		}
+
+		BitReader reader = new BitReader( data, scanPosition );
+		int[] predictions = new int[components.length];
+		int mcuCount = mcusX * mcusY;
+		for( int mcu = 0; mcu < mcuCount; mcu++ )
+		{
+			if( restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0 )
+			{
+				reader.ProcessRestartMarker();
+				for( int i = 0; i < predictions.length; i++ )
+					predictions[i] = 0;
+			}
+
+			int mcuX = mcu % mcusX;
+			int mcuY = mcu / mcusX;
+			for( int i = 0; i < components.length; i++ )
+			{
+				Component component = components[i];
+				for( int v = 0; v < component.v; v++ )
+				{
+					for( int h = 0; h < component.h; h++ )
+					{
+						int blockOffset = ( ( mcuY * component.v + v ) * component.blocksPerLine + mcuX * component.h + h ) * 64;
+						short[] coefficients = component.coefficients;
+
+						int size = reader.DecodeHuffman( component.dcTable );
+						if( size > 11 )
+							throw new IOException( "Invalid DC coefficient" );
+
+						predictions[i] += Extend( reader.ReadBits( size ), size );
+						coefficients[blockOffset] = (short) predictions[i];
+
+						for( int k = 1; k < 64; )
+						{
+							int symbol = reader.DecodeHuffman( component.acTable );
+							int run = symbol >> 4;
+							size = symbol & 0x0F;
+							if( size == 0 )
+							{
+								if( run != 15 )
+									break; // EOB
+
+								k += 16;
+							}
+							else
+							{
+								k += run;
+								if( k > 63 || size > 10 )
+									throw new IOException( "Invalid AC coefficient" );
+
+								coefficients[blockOffset + ZIGZAG[k]] = (short) Extend( reader.ReadBits( size ), size );
+								k++;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		data = null; // Allow the source file's bytes to be garbage collected while the output is written
+
+		// Calculate the transformed image's layout
+		int dstMaxH = transpose ? maxV : maxH;
+		int dstMaxV = transpose ? maxH : maxV;
+		int dstWidth = transpose ? height : width;
+		int dstHeight = transpose ? width : height;
+		if( flipX && dstWidth % ( 8 * dstMaxH ) != 0 )
+		{
+			if( !allowTrim )
+				return false;
+
+			dstWidth -= dstWidth % ( 8 * dstMaxH );
+		}
+
+		if( flipY && dstHeight % ( 8 * dstMaxV ) != 0 )
+		{
+			if( !allowTrim )
+				return false;
+
+			dstHeight -= dstHeight % ( 8 * dstMaxV );
+		}
+
+		if( dstWidth <= 0 || dstHeight <= 0 )
+			return false;
+
+		int dstMcusX = ( dstWidth + 8 * dstMaxH - 1 ) / ( 8 * dstMaxH );
+		int dstMcusY = ( dstHeight + 8 * dstMaxV - 1 ) / ( 8 * dstMaxV );
+
+		// Coefficient mapping within a block: dst[k] = srcSigns[k] * src[srcIndices[k]]
+		int[] srcIndices = new int[64];
+		int[] srcSigns = new int[64];
+		for( int k = 0; k < 64; k++ )
+		{
+			int u = k & 7, v = k >> 3;
+			srcIndices[k] = transpose ? ( u * 8 + v ) : k;
+			srcSigns[k] = ( ( flipX && ( u & 1 ) != 0 ) ^ ( flipY && ( v & 1 ) != 0 ) ) ? -1 : 1;
+		}
+
+		boolean hasExtendedQuantizationTable = false;
+		for( int[] table : quantizationTables )
+		{
+			if( table != null )
+			{
+				for( int value : table )
+				{
+					if( value > 255 )
+						hasExtendedQuantizationTable = true;
+				}
+			}
+		}
+
+		OutputStream out = new BufferedOutputStream( new FileOutputStream( dstPath ), 64 * 1024 );
+		try
+		{
+			out.write( 0xFF );
+			out.write( 0xD8 );
+
+			for( byte[] segment : metadataSegments )
+				out.write( segment );
+
+			// DQT
+			for( int i = 0; i < quantizationTables.length; i++ )
+			{
+				int[] table = quantizationTables[i];
+				if( table == null )
+					continue;
+
+				int precision = hasExtendedQuantizationTable ? 1 : 0;
+				WriteMarker( out, 0xDB, 1 + 64 * ( precision + 1 ) );
+				out.write( ( precision << 4 ) | i );
+				for( int k = 0; k < 64; k++ )
+				{
+					// Transposing the coefficients also transposes the quantization table
+					int naturalIndex = ZIGZAG[k];
+					int value = table[transpose ? ZigzagIndexOf( ( naturalIndex & 7 ) * 8 + ( naturalIndex >> 3 ) ) : k];
+					if( precision == 1 )
+						out.write( value >> 8 );
+
+					out.write( value & 0xFF );
+				}
+			}
+
+			// SOF
+			WriteMarker( out, hasExtendedQuantizationTable ? 0xC1 : 0xC0, 6 + components.length * 3 );
+			out.write( 8 );
+			WriteUInt16( out, dstHeight );
+			WriteUInt16( out, dstWidth );
+			out.write( components.length );
+			for( Component component : components )
+			{
+				out.write( component.id );
+				out.write( transpose ? ( ( component.v << 4 ) | component.h ) : ( ( component.h << 4 ) | component.v ) );
+				out.write( component.quantizationTableIndex );
+			}
+
+			// DHT
+			int huffmanTableCount = components.length > 1 ? 2 : 1;
+			WriteHuffmanTable( out, 0x00, STD_DC_LUMINANCE_BITS, STD_DC_VALUES );
+			WriteHuffmanTable( out, 0x10, STD_AC_LUMINANCE_BITS, STD_AC_LUMINANCE_VALUES );
+			if( huffmanTableCount > 1 )
+			{
+				WriteHuffmanTable( out, 0x01, STD_DC_CHROMINANCE_BITS, STD_DC_VALUES );
+				WriteHuffmanTable( out, 0x11, STD_AC_CHROMINANCE_BITS, STD_AC_CHROMINANCE_VALUES );
+			}
+
+			HuffmanEncoder[] dcEncoders = { new HuffmanEncoder( STD_DC_LUMINANCE_BITS, STD_DC_VALUES ), new HuffmanEncoder( STD_DC_CHROMINANCE_BITS, STD_DC_VALUES ) };
+			HuffmanEncoder[] acEncoders = { new HuffmanEncoder( STD_AC_LUMINANCE_BITS, STD_AC_LUMINANCE_VALUES ), new HuffmanEncoder( STD_AC_CHROMINANCE_BITS, STD_AC_CHROMINANCE_VALUES ) };
+
+			// SOS
+			WriteMarker( out, 0xDA, 4 + components.length * 2 );
+			out.write( components.length );
+			for( int i = 0; i < components.length; i++ )
+			{
+				out.write( components[i].id );
+				out.write( i == 0 ? 0x00 : 0x11 );
+			}
+
+			out.write( 0 );
+			out.write( 63 );
+			out.write( 0 );
+
+			// Entropy coded data
+			BitWriter writer = new BitWriter( out );
+			int[] block = new int[64];
+			for( int i = 0; i < predictions.length; i++ )
+				predictions[i] = 0;
+
+			for( int mcuY = 0; mcuY < dstMcusY; mcuY++ )
+			{
+				for( int mcuX = 0; mcuX < dstMcusX; mcuX++ )
+				{
+					for( int i = 0; i < components.length; i++ )
+					{
+						Component component = components[i];
+						int dstH = transpose ? component.v : component.h;
+						int dstV = transpose ? component.h : component.v;
+						int dstBlocksPerLine = dstMcusX * dstH;
+						int dstBlocksPerColumn = dstMcusY * dstV;
+						HuffmanEncoder dcEncoder = dcEncoders[i == 0 ? 0 : 1];
+						HuffmanEncoder acEncoder = acEncoders[i == 0 ? 0 : 1];
+
+						for( int v = 0; v < dstV; v++ )
+						{
+							for( int h = 0; h < dstH; h++ )
+							{
+								int dstBlockX = mcuX * dstH + h;
+								int dstBlockY = mcuY * dstV + v;
+								int x = flipX ? ( dstBlocksPerLine - 1 - dstBlockX ) : dstBlockX;
+								int y = flipY ? ( dstBlocksPerColumn - 1 - dstBlockY ) : dstBlockY;
+								int srcBlockX = transpose ? y : x;
+								int srcBlockY = transpose ? x : y;
+
+								int srcOffset = ( srcBlockY * component.blocksPerLine + srcBlockX ) * 64;
+								short[] coefficients = component.coefficients;
+								for( int k = 0; k < 64; k++ )
+									block[k] = srcSigns[k] * coefficients[srcOffset + srcIndices[k]];
+
+								predictions[i] = EncodeBlock( writer, block, predictions[i], dcEncoder, acEncoder );
+							}
+						}
+					}
+				}
+			}
+
+			writer.Flush();
+
+			out.write( 0xFF );
+			out.write( 0xD9 );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		return true;
+	}
+
+	// Returns the new DC prediction
+	private static int EncodeBlock( BitWriter writer, int[] block, int prediction, HuffmanEncoder dcEncoder, HuffmanEncoder acEncoder ) throws IOException
+	{
+		int dc = block[0];
+		int diff = dc - prediction;
+		int size = GetBitLength( diff );
+		writer.WriteBits( dcEncoder.codes[size], dcEncoder.lengths[size] );
+		if( size > 0 )
+			writer.WriteBits( diff < 0 ? diff - 1 : diff, size );
+
+		int run = 0;
+		for( int k = 1; k < 64; k++ )
+		{
+			int value = block[ZIGZAG[k]];
+			if( value == 0 )
+			{
+				run++;
+				continue;
+			}
+
+			while( run > 15 )
+			{
+				writer.WriteBits( acEncoder.codes[0xF0], acEncoder.lengths[0xF0] ); // ZRL
+				run -= 16;
+			}
+
+			size = GetBitLength( value );
+			int symbol = ( run << 4 ) | size;
+			writer.WriteBits( acEncoder.codes[symbol], acEncoder.lengths[symbol] );
+			writer.WriteBits( value < 0 ? value - 1 : value, size );
+			run = 0;
+		}
+
+		if( run > 0 )
+			writer.WriteBits( acEncoder.codes[0x00], acEncoder.lengths[0x00] ); // EOB
+
+		return dc;
+	}
+
+	// Sets the EXIF orientation tag (if exists) of an APP1 segment to normal. segment[offset] is the first byte after the segment length
+	private static void ResetExifOrientation( byte[] segment, int offset, int end )
+	{
+		if( end - offset < 14 || segment[offset] != 'E' || segment[offset + 1] != 'x' || segment[offset + 2] != 'i' || segment[offset + 3] != 'f' || segment[offset + 4] != 0 || segment[offset + 5] != 0 )
+			return;
+
+		int tiffStart = offset + 6;
+		boolean littleEndian = segment[tiffStart] == 'I';
+		long ifdOffset = ReadUInt32( segment, tiffStart + 4, littleEndian );
+		if( ifdOffset < 8 || tiffStart + ifdOffset + 2 > end )
+			return;
+
+		int ifdStart = tiffStart + (int) ifdOffset;
+		int entryCount = ReadUInt16( segment, ifdStart, littleEndian );
+		for( int i = 0; i < entryCount; i++ )
+		{
+			int entry = ifdStart + 2 + i * 12;
+			if( entry + 12 > end )
+				break;
+
+			if( ReadUInt16( segment, entry, littleEndian ) == 0x0112 && ReadUInt16( segment, entry + 2, littleEndian ) == 3 )
+			{
+				// SHORT values are left aligned in the value field
+				segment[entry + 8] = (byte) ( littleEndian ? 1 : 0 );
+				segment[entry + 9] = (byte) ( littleEndian ? 0 : 1 );
+				break;
+			}
+		}
+	}
+
+	private static void WriteHuffmanTable( OutputStream out, int tableClassAndIndex, int[] bits, int[] values ) throws IOException
+	{
+		WriteMarker( out, 0xC4, 17 + values.length );
+		out.write( tableClassAndIndex );
+		for( int bit : bits )
+			out.write( bit );
+		for( int value : values )
+			out.write( value );
+	}
+
+	// Writes a marker and the length of its payload (excluding the length field itself)
+	private static void WriteMarker( OutputStream out, int marker, int payloadLength ) throws IOException
+	{
+		out.write( 0xFF );
+		out.write( marker );
+		WriteUInt16( out, payloadLength + 2 );
+	}
+
+	private static void WriteUInt16( OutputStream out, int value ) throws IOException
+	{
+		out.write( ( value >> 8 ) & 0xFF );
+		out.write( value & 0xFF );
+	}
+
+	private static int ReadUInt16( byte[] data, int offset )
+	{
+		return ReadUInt16( data, offset, false );
+	}
+
+	private static int ReadUInt16( byte[] data, int offset, boolean littleEndian )
+	{
+		if( littleEndian )
+			return ( data[offset] & 0xFF ) | ( ( data[offset + 1] & 0xFF ) << 8 );
+		else
+			return ( ( data[offset] & 0xFF ) << 8 ) | ( data[offset + 1] & 0xFF );
+	}
+
+	private static long ReadUInt32( byte[] data, int offset, boolean littleEndian )
+	{
+		if( littleEndian )
+			return ( ReadUInt16( data, offset, true ) | ( (long) ReadUInt16( data, offset + 2, true ) << 16 ) );
+		else
+			return ( ( (long) ReadUInt16( data, offset, false ) << 16 ) | ReadUInt16( data, offset + 2, false ) );
+	}
+
+	private static int Extend( int value, int size )
+	{
+		return ( size > 0 && value < ( 1 << ( size - 1 ) ) ) ? value - ( 1 << size ) + 1 : value;
+	}
+
+	private static int GetBitLength( int value )
+	{
+		return 32 - Integer.numberOfLeadingZeros( value < 0 ? -value : value );
+	}
+
+	private static int ZigzagIndexOf( int naturalIndex )
+	{
+		for( int k = 0; k < 64; k++ )
+		{
+			if( ZIGZAG[k] == naturalIndex )
+				return k;
+		}
+
+		return 0;
+	}
+
+	private static byte[] ReadFile( final String path ) throws IOException
+	{
+		File file = new File( path );
+		long length = file.length();
+		if( length <= 0L || length > Integer.MAX_VALUE )
+			throw new IOException( "Invalid file length: " + length );
+
+		byte[] result = new byte[(int) length];
+		InputStream in = new FileInputStream( file );
+		try
+		{
+			int offset = 0;
+			while( offset < result.length )
+			{
+				int read = in.read( result, offset, result.length - offset );
+				if( read < 0 )
+					throw new IOException( "Unexpected end of file: " + path );
+
+				offset += read;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return result;
+	}
+}
\ No newline at end of file
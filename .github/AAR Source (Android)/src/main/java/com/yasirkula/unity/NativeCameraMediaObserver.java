@@ -0,0 +1,103 @@
+package com.yasirkula.unity;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+// Records the ids of the media that are inserted into a MediaStore table while the camera app is open, so that the copy of the captured
+// media in the Gallery can be found without querying the whole table. Notifications may arrive after the camera app returns (or not at
+// all, e.g. if the app was killed in the meantime), so callers should fall back to a limited query when no ids were recorded
+public class NativeCameraMediaObserver extends ContentObserver
+{
+	private final ContentResolver contentResolver;
+	private final long lastExistingId; // Media with ids at or below this value existed before the capture
+	private final ArrayList<Long> insertedIds = new ArrayList<Long>( 2 );
+	private boolean isRegistered = false;
+
+	public NativeCameraMediaObserver( Context context, Uri contentUri, long lastExistingId )
+	{
+		super( new Handler( Looper.getMainLooper() ) );
+
+		this.contentResolver = context.getContentResolver();
+		this.lastExistingId = lastExistingId;
+
+		try
+		{
+			contentResolver.registerContentObserver( contentUri, true, this );
+			isRegistered = true;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+		}
+	}
+
+	@Override
+	public void onChange( boolean selfChange )
+	{
+		onChange( selfChange, null );
+	}
+
+	@Override
+	public void onChange( boolean selfChange, Uri uri )
+	{
+		if( uri == null )
+			return;
+
+		long id;
+		try
+		{
+			id = ContentUris.parseId( uri );
+		}
+		catch( Exception e )
+		{
+			return;
+		}
+
+		if( id > lastExistingId )
+		{
+			synchronized( insertedIds )
+			{
+				if( !insertedIds.contains( id ) )
+					insertedIds.add( id );
+			}
+		}
+	}
+
+	// Stops observing and returns the ids of the inserted media, newest first
+	public long[] Stop()
+	{
+		if( isRegistered )
+		{
+			isRegistered = false;
+
+			try
+			{
+				contentResolver.unregisterContentObserver( this );
+			}
+			catch( Exception e )
+			{
+				Log.e( "Unity", "Exception:", e );
+			}
+		}
+
+		synchronized( insertedIds )
+		{
+			Collections.sort( insertedIds, Collections.<Long>reverseOrder() );
+
+			long[] result = new long[insertedIds.size()];
+			for( int i = 0; i < result.length; i++ )
+				result[i] = insertedIds.get( i );
+
+			return result;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,313 @@
+package com.yasirkula.unity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Rewrites MP4/MOV videos whose 'moov' box comes after the media data ('mdat') so that 'moov' comes first ("faststart"), which allows
+// the video to be played or processed progressively before the whole file is downloaded/read. Only 'moov' is loaded into memory: its
+// chunk offset tables (stco/co64) are patched to account for the moved media data and the rest of the file is copied as is via
+// FileChannel.transferTo. Nothing is re-encoded. Doesn't depend on Android APIs
+public class NativeCameraMp4FastStart
+{
+	private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_CONTAINER_DEPTH = 8;
+	private static final long MAX_TRANSFER_SIZE = 8L * 1024L * 1024L; // Per FileChannel.transferTo call
+
+	// Writes the faststart version of the video at srcPath to dstPath (must be a different file). Returns false without creating dstPath
+	// if the video is already faststart, is fragmented or isn't an MP4/MOV file. Throws if the video is corrupted or can't be written
+	public static boolean Process( final String srcPath, final String dstPath ) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile( srcPath, "r" );
+		try
+		{
+			long fileLength = file.length();
+			long firstMdatPosition = -1L, moovPosition = -1L, moovSize = 0L;
+
+			byte[] header = new byte[16];
+			long position = 0L;
+			while( position + 8L <= fileLength )
+			{
+				file.seek( position );
+				file.readFully( header, 0, 8 );
+
+				long size = NativeCameraImageHeader.GetBoxSize( file, header, position, fileLength );
+				if( size <= 0L || position + size > fileLength )
+					throw new IOException( "Invalid box size at: " + position );
+
+				if( NativeCameraImageHeader.IsType( header, 4, "moov" ) )
+				{
+					if( moovPosition >= 0L )
+						return false; // Multiple 'moov' boxes aren't valid
+
+					moovPosition = position;
+					moovSize = size;
+				}
+				else if( NativeCameraImageHeader.IsType( header, 4, "mdat" ) )
+				{
+					if( firstMdatPosition < 0L )
+						firstMdatPosition = position;
+				}
+				else if( NativeCameraImageHeader.IsType( header, 4, "moof" ) )
+					return false; // Fragmented videos are streamable already
+
+				position += size;
+			}
+
+			if( moovPosition < 0L || firstMdatPosition < 0L || moovPosition < firstMdatPosition )
+				return false;
+
+			if( moovSize > MAX_MOOV_SIZE )
+				throw new IOException( "moov is too large: " + moovSize );
+
+			byte[] moov = new byte[(int) moovSize];
+			file.seek( moovPosition );
+			file.readFully( moov );
+
+			moov = RelocateMoov( moov, firstMdatPosition, moovPosition );
+
+			FileInputStream input = new FileInputStream( srcPath );
+			FileOutputStream output = new FileOutputStream( dstPath );
+			try
+			{
+				FileChannel inputChannel = input.getChannel();
+				FileChannel outputChannel = output.getChannel();
+
+				Transfer( inputChannel, 0L, firstMdatPosition, outputChannel );
+
+				ByteBuffer moovBuffer = ByteBuffer.wrap( moov );
+				while( moovBuffer.hasRemaining() )
+					outputChannel.write( moovBuffer );
+
+				Transfer( inputChannel, firstMdatPosition, moovPosition - firstMdatPosition, outputChannel );
+				Transfer( inputChannel, moovPosition + moovSize, fileLength - moovPosition - moovSize, outputChannel );
+			}
+			finally
+			{
+				try
+				{
+					input.close();
+				}
+				catch( Exception e )
+				{
+				}
+
+				output.close();
+			}
+
+			return true;
+		}
+		finally
+		{
+			try
+			{
+				file.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	// Returns the 'moov' box (whose original position is moovPosition) with its chunk offsets updated for when it's moved in front of the
+	// first 'mdat'. The boxes between the first 'mdat' and 'moov' are shifted forward by moov's size. 32-bit chunk offsets that would
+	// overflow after the shift are upgraded to 64-bit offsets first, which makes 'moov' larger and thus also shifts the boxes after 'moov'
+	static byte[] RelocateMoov( byte[] moov, final long firstMdatPosition, final long moovPosition ) throws IOException
+	{
+		long moovSize = moov.length;
+		if( !PatchChunkOffsets( moov, 0, moov.length, firstMdatPosition, moovPosition, moovSize, moov.length, true, 0 ) )
+			moov = UpgradeChunkOffsets( moov, 0, moov.length, 0 );
+
+		PatchChunkOffsets( moov, 0, moov.length, firstMdatPosition, moovPosition, moovSize, moov.length, false, 0 );
+		return moov;
+	}
+
+	// Updates the chunk offsets for the new layout where 'moov' (whose size changes from moovSize to newMoovSize) is moved in front of the
+	// first 'mdat': offsets in [firstMdatPosition, moovPosition) are shifted by newMoovSize and offsets after the old 'moov' are shifted
+	// by the difference of the sizes. Offsets before the first 'mdat' aren't affected. If checkOnly is true, the offsets aren't modified
+	// and false is returned if a 32-bit offset would overflow
+	private static boolean PatchChunkOffsets( byte[] data, int start, int end, long firstMdatPosition, long moovPosition, long moovSize, long newMoovSize, boolean checkOnly, int depth ) throws IOException
+	{
+		if( depth > MAX_CONTAINER_DEPTH )
+			throw new IOException( "Too many nested boxes" );
+
+		int position = start;
+		while( position + 8 <= end )
+		{
+			int headerSize = GetHeaderSize( data, position );
+			long size = GetBoxSize( data, position, end );
+			int boxEnd = position + (int) size;
+
+			if( IsContainer( data, position ) )
+			{
+				if( !PatchChunkOffsets( data, position + headerSize, boxEnd, firstMdatPosition, moovPosition, moovSize, newMoovSize, checkOnly, depth + 1 ) )
+					return false;
+			}
+			else if( NativeCameraImageHeader.IsType( data, position + 4, "stco" ) || NativeCameraImageHeader.IsType( data, position + 4, "co64" ) )
+			{
+				boolean is64Bit = NativeCameraImageHeader.IsType( data, position + 4, "co64" );
+				int entrySize = is64Bit ? 8 : 4;
+				int tableStart = position + headerSize + 8; // Skip version, flags and entry count
+				long entryCount = ( tableStart <= boxEnd ) ? NativeCameraImageHeader.ReadUInt32( data, tableStart - 4, false ) : -1L;
+				if( entryCount < 0L || entryCount > ( boxEnd - tableStart ) / entrySize )
+					throw new IOException( "Invalid chunk offset table" );
+
+				for( int i = 0, entry = tableStart; i < entryCount; i++, entry += entrySize )
+				{
+					long offset = is64Bit ? ReadUInt64( data, entry ) : NativeCameraImageHeader.ReadUInt32( data, entry, false );
+					if( offset >= firstMdatPosition && offset < moovPosition )
+						offset += newMoovSize;
+					else if( offset >= moovPosition + moovSize )
+						offset += newMoovSize - moovSize;
+					else
+						continue;
+
+					if( checkOnly )
+					{
+						if( !is64Bit && offset > 0xFFFFFFFFL )
+							return false;
+					}
+					else if( is64Bit )
+					{
+						WriteUInt32( data, entry, offset >>> 32 );
+						WriteUInt32( data, entry + 4, offset );
+					}
+					else
+						WriteUInt32( data, entry, offset );
+				}
+			}
+
+			position = boxEnd;
+		}
+
+		return true;
+	}
+
+	// Returns a copy of the box(es) in data[start, end) where 'stco' boxes are converted to 'co64' boxes and the sizes of their parent
+	// boxes are updated accordingly
+	private static byte[] UpgradeChunkOffsets( byte[] data, int start, int end, int depth ) throws IOException
+	{
+		if( depth > MAX_CONTAINER_DEPTH )
+			throw new IOException( "Too many nested boxes" );
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream( end - start + 1024 );
+		int position = start;
+		while( position + 8 <= end )
+		{
+			int headerSize = GetHeaderSize( data, position );
+			long size = GetBoxSize( data, position, end );
+			int boxEnd = position + (int) size;
+
+			if( IsContainer( data, position ) )
+			{
+				byte[] content = UpgradeChunkOffsets( data, position + headerSize, boxEnd, depth + 1 );
+				WriteBoxHeader( result, data, position, headerSize, headerSize + content.length );
+				result.write( content );
+			}
+			else if( NativeCameraImageHeader.IsType( data, position + 4, "stco" ) )
+			{
+				int tableStart = position + headerSize + 8;
+				long entryCount = ( tableStart <= boxEnd ) ? NativeCameraImageHeader.ReadUInt32( data, tableStart - 4, false ) : -1L;
+				if( entryCount < 0L || entryCount > ( boxEnd - tableStart ) / 4 )
+					throw new IOException( "Invalid chunk offset table" );
+
+				byte[] content = new byte[8 + (int) entryCount * 8];
+				System.arraycopy( data, position + headerSize, content, 0, 8 ); // Version, flags and entry count
+				for( int i = 0; i < entryCount; i++ )
+					WriteUInt32( content, 12 + i * 8, NativeCameraImageHeader.ReadUInt32( data, tableStart + i * 4, false ) ); // High 32 bits are 0
+
+				byte[] boxHeader = new byte[8];
+				WriteUInt32( boxHeader, 0, 8 + content.length );
+				boxHeader[4] = 'c';
+				boxHeader[5] = 'o';
+				boxHeader[6] = '6';
+				boxHeader[7] = '4';
+				result.write( boxHeader );
+				result.write( content );
+			}
+			else
+				result.write( data, position, (int) size );
+
+			position = boxEnd;
+		}
+
+		return result.toByteArray();
+	}
+
+	private static void WriteBoxHeader( ByteArrayOutputStream output, byte[] data, int position, int headerSize, long size )
+	{
+		byte[] header = new byte[headerSize];
+		System.arraycopy( data, position, header, 0, headerSize );
+
+		if( headerSize == 16 )
+		{
+			WriteUInt32( header, 8, size >>> 32 );
+			WriteUInt32( header, 12, size );
+		}
+		else
+			WriteUInt32( header, 0, size );
+
+		output.write( header, 0, headerSize );
+	}
+
+	// Only the containers on the path to the chunk offset tables are traversed
+	private static boolean IsContainer( byte[] data, int position )
+	{
+		return NativeCameraImageHeader.IsType( data, position + 4, "moov" ) || NativeCameraImageHeader.IsType( data, position + 4, "trak" ) || NativeCameraImageHeader.IsType( data, position + 4, "mdia" ) ||
+				NativeCameraImageHeader.IsType( data, position + 4, "minf" ) || NativeCameraImageHeader.IsType( data, position + 4, "stbl" );
+	}
+
+	private static int GetHeaderSize( byte[] data, int position )
+	{
+		return ( NativeCameraImageHeader.ReadUInt32( data, position, false ) == 1L ) ? 16 : 8;
+	}
+
+	private static long GetBoxSize( byte[] data, int position, int end ) throws IOException
+	{
+		long size = NativeCameraImageHeader.ReadUInt32( data, position, false );
+		if( size == 1L )
+		{
+			if( position + 16 > end )
+				throw new IOException( "Invalid box size" );
+
+			size = ReadUInt64( data, position + 8 );
+		}
+		else if( size == 0L )
+			size = end - position;
+
+		if( size < GetHeaderSize( data, position ) || position + size > end )
+			throw new IOException( "Invalid box size" );
+
+		return size;
+	}
+
+	private static void Transfer( FileChannel input, long position, long count, FileChannel output ) throws IOException
+	{
+		while( count > 0L )
+		{
+			long transferred = input.transferTo( position, Math.min( count, MAX_TRANSFER_SIZE ), output );
+			if( transferred <= 0L )
+				throw new IOException( "Unexpected end of file" );
+
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	private static long ReadUInt64( byte[] data, int offset )
+	{
+		return ( NativeCameraImageHeader.ReadUInt32( data, offset, false ) << 32 ) | NativeCameraImageHeader.ReadUInt32( data, offset + 4, false );
+	}
+
+	private static void WriteUInt32( byte[] data, int offset, long value )
+	{
+		data[offset] = (byte) ( value >>> 24 );
+		data[offset + 1] = (byte) ( value >>> 16 );
+		data[offset + 2] = (byte) ( value >>> 8 );
+		data[offset + 3] = (byte) value;
+	}
+}
\ No newline at end of file
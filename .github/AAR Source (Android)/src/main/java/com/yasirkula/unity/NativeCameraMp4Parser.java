@@ -0,0 +1,320 @@
+package com.yasirkula.unity;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+// Extracts the properties of MP4/MOV (ISO-BMFF) videos by walking the 'moov' box. Only the small boxes that contain the requested
+// information (mvhd, tkhd, mdhd, hdlr, stsd, stts, stss) are read, the others (including the media data and the large sample tables)
+// are skipped without being read. This is much faster than MediaMetadataRetriever, which creates a demuxer (and in some cases a decoder)
+// for the video. Doesn't depend on Android APIs
+public class NativeCameraMp4Parser
+{
+	private static final int MAX_LEAF_BOX_SIZE = 64 * 1024; // Larger mvhd/tkhd/mdhd/hdlr/stsd boxes are considered corrupted
+	private static final int MAX_CONTAINER_DEPTH = 8;
+
+	public final int width; // Dimensions of the encoded frames, i.e. rotation isn't applied
+	public final int height;
+	public final long duration; // Milliseconds
+	public final int rotation; // Clockwise degrees (0, 90, 180 or 270), calculated from the video track's transformation matrix
+	public final float frameRate; // Average frames per second
+	public final String codec; // Sample entry type of the video track, e.g. "avc1" (H.264), "hvc1"/"hev1" (H.265), "av01", "vp09"
+	public final long bitrate; // Average bits per second of the whole file
+	public final boolean hasAudio;
+	public final long keyframeCount;
+
+	private NativeCameraMp4Parser( int width, int height, long duration, int rotation, float frameRate, String codec, long bitrate, boolean hasAudio, long keyframeCount )
+	{
+		this.width = width;
+		this.height = height;
+		this.duration = duration;
+		this.rotation = rotation;
+		this.frameRate = frameRate;
+		this.codec = codec;
+		this.bitrate = bitrate;
+		this.hasAudio = hasAudio;
+		this.keyframeCount = keyframeCount;
+	}
+
+	private static class Track
+	{
+		public String handlerType = "";
+		public int width, height; // From tkhd, overridden by the sample entry's dimensions
+		public int rotation;
+		public long timescale, duration; // From mdhd
+		public String codec = "";
+		public long sampleCount;
+		public long keyframeCount = -1L; // -1: there is no stss box, i.e. all samples are keyframes
+	}
+
+	// Returns null if the file isn't an MP4/MOV video, is fragmented (its samples aren't listed in 'moov') or is corrupted
+	public static NativeCameraMp4Parser Parse( final String path )
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile( path, "r" );
+
+			byte[] header = new byte[16];
+			long fileLength = file.length();
+			long position = 0L;
+			while( position + 8L <= fileLength )
+			{
+				file.seek( position );
+				file.readFully( header, 0, 8 );
+
+				// The first box of QuickTime files isn't necessarily 'ftyp'
+				if( position == 0L && !IsTopLevelBox( header ) )
+					return null;
+
+				long size = NativeCameraImageHeader.GetBoxSize( file, header, position, fileLength );
+				if( size <= 0L || position + size > fileLength )
+					return null;
+
+				if( NativeCameraImageHeader.IsType( header, 4, "moov" ) )
+					return ParseMovie( file, position + GetHeaderSize( header ), position + size, fileLength );
+
+				position += size;
+			}
+
+			return null;
+		}
+		catch( Exception e )
+		{
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if( file != null )
+					file.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	private static NativeCameraMp4Parser ParseMovie( RandomAccessFile file, long start, long end, long fileLength ) throws IOException
+	{
+		long movieTimescale = 0L, movieDuration = 0L;
+		ArrayList<Track> tracks = new ArrayList<Track>( 2 );
+
+		byte[] header = new byte[16];
+		long position = start;
+		while( position + 8L <= end )
+		{
+			file.seek( position );
+			file.readFully( header, 0, 8 );
+
+			long size = NativeCameraImageHeader.GetBoxSize( file, header, position, end );
+			if( size <= 0L || position + size > end )
+				return null;
+
+			long contentStart = position + GetHeaderSize( header );
+			if( NativeCameraImageHeader.IsType( header, 4, "mvhd" ) )
+			{
+				byte[] mvhd = ReadBox( file, contentStart, position + size, 32 );
+				if( mvhd[0] == 1 )
+				{
+					movieTimescale = NativeCameraImageHeader.ReadUInt32( mvhd, 20, false );
+					movieDuration = ReadUInt64( mvhd, 24 );
+				}
+				else
+				{
+					movieTimescale = NativeCameraImageHeader.ReadUInt32( mvhd, 12, false );
+					movieDuration = NativeCameraImageHeader.ReadUInt32( mvhd, 16, false );
+				}
+			}
+			else if( NativeCameraImageHeader.IsType( header, 4, "trak" ) )
+			{
+				Track track = new Track();
+				ParseTrackBoxes( file, contentStart, position + size, track, 0 );
+				tracks.add( track );
+			}
+
+			position += size;
+		}
+
+		Track videoTrack = null;
+		boolean hasAudio = false;
+		for( Track track : tracks )
+		{
+			if( videoTrack == null && track.handlerType.equals( "vide" ) )
+				videoTrack = track;
+			else if( track.handlerType.equals( "soun" ) )
+				hasAudio = true;
+		}
+
+		if( videoTrack == null || videoTrack.sampleCount <= 0L || videoTrack.width <= 0 || videoTrack.height <= 0 )
+			return null;
+
+		long duration = ( movieTimescale > 0L ) ? movieDuration * 1000L / movieTimescale : 0L;
+		long trackDuration = ( videoTrack.timescale > 0L ) ? videoTrack.duration * 1000L / videoTrack.timescale : 0L;
+		if( duration <= 0L )
+			duration = trackDuration;
+		if( duration <= 0L )
+			return null;
+
+		float frameRate = ( trackDuration > 0L ) ? videoTrack.sampleCount * 1000f / trackDuration : 0f;
+		long bitrate = fileLength * 8L * 1000L / duration;
+		long keyframeCount = ( videoTrack.keyframeCount >= 0L ) ? videoTrack.keyframeCount : videoTrack.sampleCount;
+
+		return new NativeCameraMp4Parser( videoTrack.width, videoTrack.height, duration, videoTrack.rotation, frameRate, videoTrack.codec, bitrate, hasAudio, keyframeCount );
+	}
+
+	// Walks the boxes inside 'trak' and its mdia/minf/stbl containers
+	private static void ParseTrackBoxes( RandomAccessFile file, long start, long end, Track track, int depth ) throws IOException
+	{
+		if( depth > MAX_CONTAINER_DEPTH )
+			throw new IOException( "Too many nested boxes" );
+
+		byte[] header = new byte[16];
+		long position = start;
+		while( position + 8L <= end )
+		{
+			file.seek( position );
+			file.readFully( header, 0, 8 );
+
+			long size = NativeCameraImageHeader.GetBoxSize( file, header, position, end );
+			if( size <= 0L || position + size > end )
+				throw new IOException( "Invalid box size" );
+
+			long contentStart = position + GetHeaderSize( header );
+			long contentEnd = position + size;
+			if( NativeCameraImageHeader.IsType( header, 4, "mdia" ) || NativeCameraImageHeader.IsType( header, 4, "minf" ) || NativeCameraImageHeader.IsType( header, 4, "stbl" ) )
+				ParseTrackBoxes( file, contentStart, contentEnd, track, depth + 1 );
+			else if( NativeCameraImageHeader.IsType( header, 4, "tkhd" ) )
+				ParseTrackHeader( ReadBox( file, contentStart, contentEnd, 84 ), track );
+			else if( NativeCameraImageHeader.IsType( header, 4, "mdhd" ) )
+			{
+				byte[] mdhd = ReadBox( file, contentStart, contentEnd, 24 );
+				if( mdhd[0] == 1 && mdhd.length >= 32 )
+				{
+					track.timescale = NativeCameraImageHeader.ReadUInt32( mdhd, 20, false );
+					track.duration = ReadUInt64( mdhd, 24 );
+				}
+				else
+				{
+					track.timescale = NativeCameraImageHeader.ReadUInt32( mdhd, 12, false );
+					track.duration = NativeCameraImageHeader.ReadUInt32( mdhd, 16, false );
+				}
+			}
+			else if( NativeCameraImageHeader.IsType( header, 4, "hdlr" ) )
+				track.handlerType = new String( ReadBox( file, contentStart, contentEnd, 12 ), 8, 4, "US-ASCII" );
+			else if( NativeCameraImageHeader.IsType( header, 4, "stsd" ) )
+			{
+				byte[] stsd = ReadBox( file, contentStart, contentEnd, 16 );
+				if( NativeCameraImageHeader.ReadUInt32( stsd, 4, false ) > 0L )
+				{
+					track.codec = new String( stsd, 12, 4, "US-ASCII" ).trim();
+
+					// VisualSampleEntry's width and height follow the 8-byte entry header, 8 bytes of SampleEntry fields and 16 predefined bytes
+					if( track.handlerType.equals( "vide" ) && stsd.length >= 44 )
+					{
+						int width = NativeCameraImageHeader.ReadUInt16( stsd, 40, false );
+						int height = NativeCameraImageHeader.ReadUInt16( stsd, 42, false );
+						if( width > 0 && height > 0 )
+						{
+							track.width = width;
+							track.height = height;
+						}
+					}
+				}
+			}
+			else if( NativeCameraImageHeader.IsType( header, 4, "stts" ) )
+				track.sampleCount = CountSamples( file, contentStart, contentEnd );
+			else if( NativeCameraImageHeader.IsType( header, 4, "stss" ) )
+			{
+				// Only the entry count is needed, the sync sample table itself isn't read
+				byte[] stss = new byte[8];
+				if( contentEnd - contentStart < 8L )
+					throw new IOException( "Invalid stss box" );
+
+				file.seek( contentStart );
+				file.readFully( stss );
+				track.keyframeCount = NativeCameraImageHeader.ReadUInt32( stss, 4, false );
+			}
+
+			position += size;
+		}
+	}
+
+	private static void ParseTrackHeader( byte[] tkhd, Track track )
+	{
+		// Version 1 has 64-bit creation time, modification time and duration fields
+		int matrixOffset = ( tkhd[0] == 1 ) ? 52 : 40;
+		if( tkhd.length < matrixOffset + 44 )
+			return;
+
+		// Matrix is { a, b, u, c, d, v, x, y, w } where a, b, c and d are 16.16 fixed-point numbers
+		int a = (int) NativeCameraImageHeader.ReadUInt32( tkhd, matrixOffset, false );
+		int b = (int) NativeCameraImageHeader.ReadUInt32( tkhd, matrixOffset + 4, false );
+		if( a != 0 || b != 0 )
+		{
+			int degrees = (int) Math.round( Math.toDegrees( Math.atan2( b, a ) ) / 90.0 ) * 90;
+			track.rotation = ( degrees + 360 ) % 360;
+		}
+
+		// Dimensions are 16.16 fixed-point numbers
+		track.width = (int) ( NativeCameraImageHeader.ReadUInt32( tkhd, matrixOffset + 36, false ) >> 16 );
+		track.height = (int) ( NativeCameraImageHeader.ReadUInt32( tkhd, matrixOffset + 40, false ) >> 16 );
+	}
+
+	// Returns the total number of samples in the 'stts' (time-to-sample) table, which is read in chunks since it can be large
+	private static long CountSamples( RandomAccessFile file, long start, long end ) throws IOException
+	{
+		if( end - start < 8L )
+			throw new IOException( "Invalid stts box" );
+
+		byte[] buffer = new byte[8 * 1024];
+		file.seek( start );
+		file.readFully( buffer, 0, 8 );
+
+		long entryCount = Math.min( NativeCameraImageHeader.ReadUInt32( buffer, 4, false ), ( end - start - 8L ) / 8L );
+		long sampleCount = 0L;
+		while( entryCount > 0L )
+		{
+			int entries = (int) Math.min( entryCount, buffer.length / 8 );
+			file.readFully( buffer, 0, entries * 8 );
+
+			for( int i = 0; i < entries; i++ )
+				sampleCount += NativeCameraImageHeader.ReadUInt32( buffer, i * 8, false );
+
+			entryCount -= entries;
+		}
+
+		return sampleCount;
+	}
+
+	// Reads the box's contents. Throws if the contents are shorter than minLength or longer than MAX_LEAF_BOX_SIZE
+	private static byte[] ReadBox( RandomAccessFile file, long start, long end, int minLength ) throws IOException
+	{
+		long length = end - start;
+		if( length < minLength || length > MAX_LEAF_BOX_SIZE )
+			throw new IOException( "Invalid box size" );
+
+		byte[] result = new byte[(int) length];
+		file.seek( start );
+		file.readFully( result );
+		return result;
+	}
+
+	// Box header is 16 bytes if the 32-bit size field is 1 (i.e. a 64-bit size follows the type), 8 bytes otherwise
+	private static int GetHeaderSize( byte[] header )
+	{
+		return ( NativeCameraImageHeader.ReadUInt32( header, 0, false ) == 1L ) ? 16 : 8;
+	}
+
+	private static boolean IsTopLevelBox( byte[] header )
+	{
+		return NativeCameraImageHeader.IsType( header, 4, "ftyp" ) || NativeCameraImageHeader.IsType( header, 4, "moov" ) || NativeCameraImageHeader.IsType( header, 4, "mdat" ) ||
+				NativeCameraImageHeader.IsType( header, 4, "wide" ) || NativeCameraImageHeader.IsType( header, 4, "free" ) || NativeCameraImageHeader.IsType( header, 4, "skip" );
+	}
+
+	private static long ReadUInt64( byte[] data, int offset )
+	{
+		return ( NativeCameraImageHeader.ReadUInt32( data, offset, false ) << 32 ) | NativeCameraImageHeader.ReadUInt32( data, offset + 4, false );
+	}
+}
\ No newline at end of file
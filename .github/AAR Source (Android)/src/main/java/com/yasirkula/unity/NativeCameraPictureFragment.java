@@ -22,13 +22,14 @@ public class NativeCameraPictureFragment extends Fragment
 {
 	private static final int CAMERA_PICTURE_CODE = 554776;
 
-	private static final String IMAGE_NAME = "IMG_camera.jpg";
+	private static final String IMAGE_NAME = "IMG_camera";
 	public static final String DEFAULT_CAMERA_ID = "UNCP_DEF_CAMERA";
 	public static final String AUTHORITY_ID = "UNCP_AUTHORITY";
 
 	private final NativeCameraMediaReceiver mediaReceiver;
 	private String fileTargetPath;
 	private int lastImageId = Integer.MAX_VALUE;
+	private NativeCameraMediaObserver mediaObserver;
 
 	public NativeCameraPictureFragment()
 	{
@@ -54,13 +55,11 @@ public class NativeCameraPictureFragment extends Fragment
 			int defaultCamera = getArguments().getInt( DEFAULT_CAMERA_ID );
 			String authority = getArguments().getString( AUTHORITY_ID );
 
-			File photoFile = new File( getActivity().getCacheDir(), IMAGE_NAME );
+			// Each capture gets a unique file so that a previous capture's image isn't overwritten while it's still in use
+			File photoFile = new File( NativeCameraUtils.GetCaptureStore( getActivity() ).GetNewFilePath( IMAGE_NAME, ".jpg" ) );
 			try
 			{
-				if( photoFile.exists() )
-					NativeCameraUtils.ClearFileContents( photoFile );
-				else
-					photoFile.createNewFile();
+				photoFile.createNewFile();
 			}
 			catch( Exception e )
 			{
@@ -72,33 +71,9 @@ public class NativeCameraPictureFragment extends Fragment
 			fileTargetPath = photoFile.getAbsolutePath();
 
 			// Credit: https://stackoverflow.com/a/8555925/2373034
-			// Get the id of the newest image in the Gallery
-			Cursor imageCursor = null;
-			try
-			{
-				imageCursor = getActivity().getContentResolver().query( MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-						new String[] { MediaStore.Images.Media._ID }, null, null, MediaStore.Images.Media._ID + " DESC" );
-				if( imageCursor != null )
-				{
-					if( imageCursor.moveToFirst() )
-						lastImageId = imageCursor.getInt( imageCursor.getColumnIndex( MediaStore.Images.Media._ID ) );
-					else if( imageCursor.getCount() <= 0 )
-					{
-						// If there are currently no images in the Gallery, after the image is captured, querying the Gallery with
-						// "_ID > lastImageId" will return the newly captured image since its ID will always be greater than Integer.MIN_VALUE
-						lastImageId = Integer.MIN_VALUE;
-					}
-				}
-			}
-			catch( Exception e )
-			{
-				Log.e( "Unity", "Exception:", e );
-			}
-			finally
-			{
-				if( imageCursor != null )
-					imageCursor.close();
-			}
+			// Get the id of the newest image in the Gallery and record the images that are added to the Gallery during the capture
+			lastImageId = NativeCameraUtils.GetNewestMediaId( getActivity(), MediaStore.Images.Media.EXTERNAL_CONTENT_URI );
+			mediaObserver = new NativeCameraMediaObserver( getActivity(), MediaStore.Images.Media.EXTERNAL_CONTENT_URI, lastImageId );
 
 			Intent intent = new Intent( MediaStore.ACTION_IMAGE_CAPTURE );
 			NativeCameraUtils.SetOutputUri( getActivity(), intent, authority, photoFile );
@@ -127,12 +102,23 @@ public class NativeCameraPictureFragment extends Fragment
 		}
 	}
 
+	@Override
+	public void onDestroy()
+	{
+		if( mediaObserver != null )
+			mediaObserver.Stop();
+
+		super.onDestroy();
+	}
+
 	@Override
 	public void onActivityResult( int requestCode, int resultCode, Intent data )
 	{
 		if( requestCode != CAMERA_PICTURE_CODE )
 			return;
 
+		long[] insertedImageIds = ( mediaObserver != null ) ? mediaObserver.Stop() : null;
+
 		File result = null;
 		if( resultCode == Activity.RESULT_OK )
 		{
@@ -146,8 +132,7 @@ public class NativeCameraPictureFragment extends Fragment
 				try
 				{
 					final String[] imageColumns = { MediaStore.Images.Media.DATA, MediaStore.Images.Media.SIZE, MediaStore.Images.Media._ID };
-					imageCursor = getActivity().getContentResolver().query( MediaStore.Images.Media.EXTERNAL_CONTENT_URI, imageColumns,
-							MediaStore.Images.Media._ID + ">?", new String[] { "" + lastImageId }, MediaStore.Images.Media._ID + " DESC" );
+					imageCursor = NativeCameraUtils.QueryNewMedia( getActivity(), MediaStore.Images.Media.EXTERNAL_CONTENT_URI, imageColumns, insertedImageIds, lastImageId, 1 );
 					if( imageCursor != null && imageCursor.moveToNext() )
 					{
 						String path = imageCursor.getString( imageCursor.getColumnIndex( MediaStore.Images.Media.DATA ) );
@@ -172,7 +157,8 @@ public class NativeCameraPictureFragment extends Fragment
 									contentUri = null;
 								}
 
-								NativeCameraUtils.CopyFile( getActivity(), new File( path ), result, contentUri );
+								// The Gallery item is deleted afterwards unless KeepGalleryReferences is true, so it can be moved instead of copied
+								NativeCameraUtils.CopyFile( getActivity(), new File( path ), result, contentUri, !NativeCamera.KeepGalleryReferences );
 							}
 							else
 							{
@@ -209,6 +195,14 @@ public class NativeCameraPictureFragment extends Fragment
 			}
 		}
 
+		if( fileTargetPath != null )
+		{
+			if( result != null && result.exists() && result.length() > 1L )
+				NativeCameraUtils.GetCaptureStore( getActivity() ).Commit( fileTargetPath );
+			else
+				NativeCameraUtils.GetCaptureStore( getActivity() ).Delete( fileTargetPath );
+		}
+
 		Log.d( "Unity", "NativeCameraPictureFragment.onActivityResult: " + ( ( result == null ) ? "null" : ( ( result.exists() ? result.length() : -1 ) + " " + result.getAbsolutePath() ) ) );
 		if( mediaReceiver != null )
 			mediaReceiver.OnMediaReceived( ( result != null && result.exists() && result.length() > 1L ) ? result.getAbsolutePath() : "" );
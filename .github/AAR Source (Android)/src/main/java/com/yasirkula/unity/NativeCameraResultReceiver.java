@@ -0,0 +1,7 @@
+package com.yasirkula.unity;
+
+// Receives the result of an asynchronous NativeCamera call (see NativeCameraTaskQueue). Called on a worker thread
+public interface NativeCameraResultReceiver
+{
+	void OnResultReceived( String result );
+}
\ No newline at end of file
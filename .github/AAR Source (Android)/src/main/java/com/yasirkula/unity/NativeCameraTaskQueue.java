@@ -0,0 +1,160 @@
+package com.yasirkula.unity;
+
+import android.util.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs asynchronous NativeCamera calls on Java-owned worker threads, so that Unity doesn't have to attach a JNI thread per call.
+// CPU-heavy tasks (decoding/encoding) and I/O-bound tasks (reading metadata) have separate lanes with their own thread limits, so
+// that quick metadata queries don't wait behind long decodes. Within a lane, tasks with higher priority run first (e.g. images that
+// are visible on screen) and tasks with the same priority run in the order they were queued
+public class NativeCameraTaskQueue
+{
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_HIGH = 2; // e.g. media that is currently visible on screen
+
+	private static final long IDLE_THREAD_TIMEOUT = 10L; // Seconds
+
+	private static class Task implements Runnable, Comparable<Task>
+	{
+		private final Runnable runnable;
+		private final NativeCameraResultReceiver receiver;
+		private final NativeCameraCancellationToken cancellationToken;
+		private final int priority;
+		private final long sequenceNumber;
+
+		public Task( Runnable runnable, NativeCameraResultReceiver receiver, NativeCameraCancellationToken cancellationToken, int priority, long sequenceNumber )
+		{
+			this.runnable = runnable;
+			this.receiver = receiver;
+			this.cancellationToken = cancellationToken;
+			this.priority = priority;
+			this.sequenceNumber = sequenceNumber;
+		}
+
+		@Override
+		public void run()
+		{
+			// Tasks that are cancelled while waiting in the queue are skipped altogether
+			if( cancellationToken != null && cancellationToken.IsCancelled() )
+			{
+				receiver.OnResultReceived( "" );
+				return;
+			}
+
+			runnable.run();
+		}
+
+		@Override
+		public int compareTo( Task other )
+		{
+			if( priority != other.priority )
+				return priority > other.priority ? -1 : 1;
+
+			return sequenceNumber < other.sequenceNumber ? -1 : ( sequenceNumber == other.sequenceNumber ? 0 : 1 );
+		}
+	}
+
+	public interface Function
+	{
+		String Run();
+	}
+
+	private static final AtomicLong nextSequenceNumber = new AtomicLong( 0L );
+	private static ThreadPoolExecutor cpuExecutor = null;
+	private static ThreadPoolExecutor ioExecutor = null;
+	private static int cpuThreadCount = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+	private static int ioThreadCount = 2;
+
+	// Queues function and passes its result to receiver on the worker thread. If function throws, receiver gets "". If
+	// cancellationToken (can be null) is cancelled before the function starts, the function isn't run and receiver gets ""
+	public static void Enqueue( final boolean isCpuBound, final int priority, final NativeCameraCancellationToken cancellationToken, final NativeCameraResultReceiver receiver, final Function function )
+	{
+		Runnable runnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				String result;
+				try
+				{
+					result = function.Run();
+				}
+				catch( Throwable e )
+				{
+					Log.e( "Unity", "Exception:", e );
+					result = "";
+				}
+
+				receiver.OnResultReceived( result );
+			}
+		};
+
+		GetExecutor( isCpuBound ).execute( new Task( runnable, receiver, cancellationToken, priority, nextSequenceNumber.getAndIncrement() ) );
+	}
+
+	// Limits the number of threads of each lane (<=0: leave unchanged). By default, the CPU lane uses one thread less than the
+	// number of CPU cores (so that Unity's main thread isn't starved) and the I/O lane uses 2 threads
+	public static synchronized void SetMaxThreadCount( final int cpuLaneThreadCount, final int ioLaneThreadCount )
+	{
+		if( cpuLaneThreadCount > 0 )
+		{
+			cpuThreadCount = cpuLaneThreadCount;
+			if( cpuExecutor != null )
+				SetThreadCount( cpuExecutor, cpuThreadCount );
+		}
+
+		if( ioLaneThreadCount > 0 )
+		{
+			ioThreadCount = ioLaneThreadCount;
+			if( ioExecutor != null )
+				SetThreadCount( ioExecutor, ioThreadCount );
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor GetExecutor( final boolean isCpuBound )
+	{
+		if( isCpuBound )
+		{
+			if( cpuExecutor == null )
+				cpuExecutor = CreateExecutor( cpuThreadCount );
+
+			return cpuExecutor;
+		}
+		else
+		{
+			if( ioExecutor == null )
+				ioExecutor = CreateExecutor( ioThreadCount );
+
+			return ioExecutor;
+		}
+	}
+
+	// With an unbounded queue, ThreadPoolExecutor never creates more than corePoolSize threads, so both pool sizes are equal
+	private static ThreadPoolExecutor CreateExecutor( final int threadCount )
+	{
+		ThreadPoolExecutor executor = new ThreadPoolExecutor( threadCount, threadCount, IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>() );
+		executor.allowCoreThreadTimeOut( true );
+
+		return executor;
+	}
+
+	private static void SetThreadCount( final ThreadPoolExecutor executor, final int threadCount )
+	{
+		// maximumPoolSize can't be smaller than corePoolSize, so the order of these calls depends on whether the pool grows or shrinks
+		if( threadCount > executor.getMaximumPoolSize() )
+		{
+			executor.setMaximumPoolSize( threadCount );
+			executor.setCorePoolSize( threadCount );
+		}
+		else
+		{
+			executor.setCorePoolSize( threadCount );
+			executor.setMaximumPoolSize( threadCount );
+		}
+	}
+}
\ No newline at end of file
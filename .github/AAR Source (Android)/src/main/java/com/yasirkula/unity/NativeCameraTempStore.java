@@ -0,0 +1,275 @@
+package com.yasirkula.unity;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A directory of temporary files (e.g. intermediate images, captured media) with unique
+// names so that concurrent operations don't overwrite each other's files. Total size of the files is kept below a limit by deleting the
+// least recently used files. Files that are left over from previous sessions (e.g. after a crash) are deleted when the store is created
+// if they are empty or too old
+public class NativeCameraTempStore
+{
+	private static final long DEFAULT_ORPHAN_FILE_MAX_AGE = 24L * 60L * 60L * 1000L; // Milliseconds
+	private static final String CONTENT_ADDRESSED_FILE_PREFIX = "MEDIA_"; // Followed by the file's SHA-256 hash
+	private static final int SOURCE_INDEX_SIZE = 256; // Maximum number of sources whose hashes are remembered
+
+	private final File directory;
+	private final String namePrefix;
+	private final long orphanMaxAge;
+	private final AtomicInteger nextFileId = new AtomicInteger( 0 );
+
+	// Access-ordered: the first entry is the least recently used file
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>( 16, 0.75f, true );
+	private long totalSize = 0L;
+	private long maxSize;
+
+	// Source identity (e.g. uri + size + modification date) -> path of its content-addressed copy, so that a source that was already copied
+	// isn't read again. The hash -> path mapping is the file name itself (see CommitDeduplicated)
+	private final LinkedHashMap<String, String> sourcePaths = new LinkedHashMap<String, String>( 16, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<String, String> eldest )
+		{
+			return size() > SOURCE_INDEX_SIZE;
+		}
+	};
+
+	public NativeCameraTempStore( final File directory, final long maxSize )
+	{
+		this( directory, maxSize, DEFAULT_ORPHAN_FILE_MAX_AGE );
+	}
+
+	// orphanMaxAge: files that weren't modified for this many milliseconds are deleted when the store is created (<=0: only empty files
+	// are deleted, e.g. for caches that should persist between sessions)
+	public NativeCameraTempStore( final File directory, final long maxSize, final long orphanMaxAge )
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.orphanMaxAge = orphanMaxAge;
+
+		// Processes can reuse the same id counter values, so the current time is also a part of the file names
+		namePrefix = Long.toString( System.currentTimeMillis(), 36 ) + "_";
+
+		directory.mkdirs();
+		IndexExistingFiles();
+	}
+
+	// Returns a unique path for a new file inside the store. The file isn't created, call Commit after it's written so that it's
+	// counted towards the size limit. Files that are never committed are picked up (or deleted, if empty) the next time the store is created
+	public String GetNewFilePath( final String prefix, final String extension )
+	{
+		return new File( directory, prefix + "_" + namePrefix + nextFileId.getAndIncrement() + ( extension != null ? extension : "" ) ).getAbsolutePath();
+	}
+
+	// Returns the path of a file with a fixed name inside the store, e.g. for files whose names are derived from their contents or sources
+	public String GetFilePath( final String name )
+	{
+		return new File( directory, name ).getAbsolutePath();
+	}
+
+	// Registers a completely written file (or updates its size if it's already registered) and deletes the least recently used files
+	// if the size limit is exceeded. The committed file itself is never deleted here even if it's larger than the size limit
+	public synchronized void Commit( final String path )
+	{
+		File file = new File( path );
+		if( !file.exists() || !IsInStore( file ) )
+			return;
+
+		Long previousSize = files.put( file.getAbsolutePath(), file.length() );
+		if( previousSize != null )
+			totalSize -= previousSize;
+
+		totalSize += file.length();
+		Trim( file.getAbsolutePath() );
+	}
+
+	// Returns the path of a previous copy of the source, or null if the source wasn't copied before (or its copy was deleted since then)
+	public synchronized String GetDeduplicatedFilePath( final String sourceKey )
+	{
+		if( sourceKey == null )
+			return null;
+
+		String path = sourcePaths.get( sourceKey );
+		if( path == null )
+			return null;
+
+		if( !new File( path ).exists() )
+		{
+			sourcePaths.remove( sourceKey );
+			return null;
+		}
+
+		files.get( path ); // Mark as recently used
+		return path;
+	}
+
+	// Renames the completely written file at path to a name derived from its content's hash and commits it. If a file with the same content
+	// already exists, the new file is deleted and the existing file is returned instead. sourceKey (can be null) is associated with the hash
+	// so that the source can be found via GetDeduplicatedFilePath without reading it again. Returns the final path of the file
+	public synchronized String CommitDeduplicated( final String path, final String hash, final String extension, final String sourceKey )
+	{
+		File file = new File( path );
+		File target = new File( directory, CONTENT_ADDRESSED_FILE_PREFIX + hash + ( extension != null ? extension : "" ) );
+
+		if( target.exists() && target.length() == file.length() )
+		{
+			Log.d( "Unity", "Reusing identical temporary file: " + target.getAbsolutePath() );
+			file.delete();
+		}
+		else if( !file.renameTo( target ) )
+		{
+			Commit( path );
+			return path;
+		}
+
+		if( sourceKey != null )
+			sourcePaths.put( sourceKey, target.getAbsolutePath() );
+
+		Commit( target.getAbsolutePath() );
+		return target.getAbsolutePath();
+	}
+
+	// Returns the hash of a file that was saved via CommitDeduplicated, or null for other files
+	public static String GetContentHash( final File file )
+	{
+		String name = file.getName();
+		if( !name.startsWith( CONTENT_ADDRESSED_FILE_PREFIX ) )
+			return null;
+
+		int extensionIndex = name.indexOf( '.', CONTENT_ADDRESSED_FILE_PREFIX.length() );
+		String hash = name.substring( CONTENT_ADDRESSED_FILE_PREFIX.length(), extensionIndex >= 0 ? extensionIndex : name.length() );
+		if( hash.length() != 64 )
+			return null;
+
+		for( int i = 0; i < hash.length(); i++ )
+		{
+			char ch = hash.charAt( i );
+			if( ( ch < '0' || ch > '9' ) && ( ch < 'a' || ch > 'f' ) )
+				return null;
+		}
+
+		return hash;
+	}
+
+	// Marks the file as recently used, if it belongs to this store
+	public synchronized void Touch( final String path )
+	{
+		files.get( new File( path ).getAbsolutePath() );
+	}
+
+	public synchronized void Delete( final String path )
+	{
+		File file = new File( path );
+		Long size = files.remove( file.getAbsolutePath() );
+		if( size != null )
+			totalSize -= size;
+
+		if( IsInStore( file ) )
+			file.delete();
+	}
+
+	public synchronized void Clear()
+	{
+		for( String path : files.keySet() )
+			new File( path ).delete();
+
+		files.clear();
+		totalSize = 0L;
+	}
+
+	public synchronized void SetMaxSize( final long maxSize )
+	{
+		this.maxSize = maxSize;
+		Trim( null );
+	}
+
+	public synchronized long GetTotalSize()
+	{
+		return totalSize;
+	}
+
+	public boolean IsInStore( final File file )
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		return parent != null && parent.equals( directory.getAbsoluteFile() );
+	}
+
+	// Deletes the least recently used files until the size limit is satisfied (maxSize<=0: unlimited)
+	private void Trim( final String protectedPath )
+	{
+		if( maxSize <= 0L || totalSize <= maxSize )
+			return;
+
+		// Callers may delete the files themselves (e.g. Unity deletes intermediate images after reading them), forget about those files first
+		Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+		while( iterator.hasNext() )
+		{
+			Map.Entry<String, Long> entry = iterator.next();
+			if( !new File( entry.getKey() ).exists() )
+			{
+				totalSize -= entry.getValue();
+				iterator.remove();
+			}
+		}
+
+		iterator = files.entrySet().iterator();
+		while( totalSize > maxSize && iterator.hasNext() )
+		{
+			Map.Entry<String, Long> entry = iterator.next();
+			if( entry.getKey().equals( protectedPath ) )
+				continue;
+
+			Log.d( "Unity", String.format( Locale.US, "Evicting temporary file (%d bytes): %s", entry.getValue(), entry.getKey() ) );
+
+			new File( entry.getKey() ).delete();
+			totalSize -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	private void IndexExistingFiles()
+	{
+		File[] existingFiles = directory.listFiles();
+		if( existingFiles == null )
+			return;
+
+		// Oldest files are the least recently used ones
+		Arrays.sort( existingFiles, new Comparator<File>()
+		{
+			@Override
+			public int compare( File file1, File file2 )
+			{
+				long lastModified1 = file1.lastModified(), lastModified2 = file2.lastModified();
+				return lastModified1 < lastModified2 ? -1 : ( lastModified1 == lastModified2 ? 0 : 1 );
+			}
+		} );
+
+		long now = System.currentTimeMillis();
+		for( File file : existingFiles )
+		{
+			if( !file.isFile() )
+				continue;
+
+			if( file.length() == 0L || ( orphanMaxAge > 0L && now - file.lastModified() > orphanMaxAge ) )
+			{
+				Log.d( "Unity", "Deleting orphaned temporary file: " + file.getAbsolutePath() );
+				file.delete();
+			}
+			else
+			{
+				files.put( file.getAbsolutePath(), file.length() );
+				totalSize += file.length();
+			}
+		}
+
+		Trim( null );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,305 @@
+package com.yasirkula.unity;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Decodes individual tiles of (very large) images via BitmapRegionDecoder. Tiles are addressed in the image's display orientation
+// (EXIF orientation is applied to each tile) at pyramid levels where level 0 is the full resolution and each subsequent level halves
+// the image's dimensions. Region decoders are kept open across calls so that the image isn't parsed again for each tile. Decoders are
+// reference counted since tiles are decoded outside the lock: a decoder that is closed (or evicted) while tiles are being decoded from
+// it is recycled after the last of those tiles is decoded
+public class NativeCameraTileDecoder
+{
+	private static final int MAX_OPEN_DECODERS = 4;
+
+	private static class TileSource
+	{
+		public final BitmapRegionDecoder decoder;
+		public final int orientation;
+		public final int width; // Dimensions in display orientation
+		public final int height;
+		public int referenceCount = 1; // openDecoders holds a reference, as does each call that is using the decoder
+
+		public TileSource( BitmapRegionDecoder decoder, int orientation )
+		{
+			this.decoder = decoder;
+			this.orientation = orientation;
+
+			if( orientation == ExifInterface.ORIENTATION_ROTATE_90 || orientation == ExifInterface.ORIENTATION_ROTATE_270 ||
+					orientation == ExifInterface.ORIENTATION_TRANSPOSE || orientation == ExifInterface.ORIENTATION_TRANSVERSE )
+			{
+				width = decoder.getHeight();
+				height = decoder.getWidth();
+			}
+			else
+			{
+				width = decoder.getWidth();
+				height = decoder.getHeight();
+			}
+		}
+	}
+
+	private static final LinkedHashMap<String, TileSource> openDecoders = new LinkedHashMap<String, TileSource>( MAX_OPEN_DECODERS + 1, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<String, TileSource> eldest )
+		{
+			if( size() <= MAX_OPEN_DECODERS )
+				return false;
+
+			Release( eldest.getValue() );
+			return true;
+		}
+	};
+
+	// Returns "width>height" of the image in display orientation, or "" if the image can't be opened
+	public static String Open( Context context, final String path )
+	{
+		try
+		{
+			TileSource source = AcquireTileSource( context, path );
+			Release( source );
+
+			return source.width + ">" + source.height;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return "";
+		}
+	}
+
+	public static synchronized void Close( final String path )
+	{
+		TileSource source = openDecoders.remove( path );
+		if( source != null )
+			Release( source );
+	}
+
+	public static synchronized void CloseAll()
+	{
+		for( TileSource source : openDecoders.values() )
+			Release( source );
+
+		openDecoders.clear();
+	}
+
+	// Writes the tile's raw pixels (see NativeCameraUtils.WriteRawImage) to rawFilePath and returns rawFilePath, or "" on failure
+	public static String LoadTile( Context context, final String path, final int tileSize, final int level, final int tileX, final int tileY, final String rawFilePath )
+	{
+		Bitmap tile = null;
+		FileOutputStream out = null;
+
+		try
+		{
+			tile = DecodeTile( context, path, tileSize, level, tileX, tileY );
+
+			out = new FileOutputStream( rawFilePath );
+			NativeCameraUtils.WriteRawImage( tile, out.getChannel() );
+
+			return rawFilePath;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			NativeCameraUtils.DeleteFileSilently( rawFilePath );
+
+			return "";
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( tile );
+
+			try
+			{
+				if( out != null )
+					out.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	// Same as NativeCameraUtils.LoadImageAtPathToBuffer but for a single tile
+	public static int LoadTileToBuffer( Context context, final String path, final int tileSize, final int level, final int tileX, final int tileY, final ByteBuffer buffer )
+	{
+		Bitmap tile = null;
+
+		try
+		{
+			tile = DecodeTile( context, path, tileSize, level, tileX, tileY );
+
+			int rawImageSize = NativeCameraUtils.GetRawImageSize( tile );
+			if( buffer.remaining() < rawImageSize )
+			{
+				Log.w( "Unity", "ByteBuffer doesn't have enough space for the tile: " + buffer.remaining() + " < " + rawImageSize );
+				return -rawImageSize;
+			}
+
+			ByteOrder byteOrder = buffer.order();
+			buffer.order( ByteOrder.LITTLE_ENDIAN );
+			try
+			{
+				NativeCameraUtils.WriteRawImage( tile, buffer, null );
+			}
+			finally
+			{
+				buffer.order( byteOrder );
+			}
+
+			return rawImageSize;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return 0;
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( tile );
+		}
+	}
+
+	// Returns the image's open decoder (opening it if necessary) with an additional reference, which must be released via Release
+	private static synchronized TileSource AcquireTileSource( Context context, final String path ) throws IOException
+	{
+		TileSource source = openDecoders.get( path );
+		if( source == null || source.decoder.isRecycled() )
+		{
+			BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance( path, false );
+			if( decoder == null )
+				throw new IOException( "Couldn't create BitmapRegionDecoder for: " + path );
+
+			source = new TileSource( decoder, NativeCameraUtils.GetImageOrientation( context, path ) );
+			openDecoders.put( path, source );
+		}
+
+		source.referenceCount++;
+		return source;
+	}
+
+	private static synchronized void Release( final TileSource source )
+	{
+		if( --source.referenceCount == 0 )
+			source.decoder.recycle();
+	}
+
+	private static Bitmap DecodeTile( Context context, final String path, final int tileSize, final int level, final int tileX, final int tileY ) throws IOException
+	{
+		TileSource source = AcquireTileSource( context, path );
+		try
+		{
+			return DecodeTile( source, path, tileSize, level, tileX, tileY );
+		}
+		finally
+		{
+			Release( source );
+		}
+	}
+
+	private static Bitmap DecodeTile( final TileSource source, final String path, final int tileSize, final int level, final int tileX, final int tileY ) throws IOException
+	{
+		if( tileSize <= 0 || level < 0 || level > 30 || tileX < 0 || tileY < 0 )
+			throw new IllegalArgumentException( "Invalid tile: " + tileX + "x" + tileY + " (size: " + tileSize + ", level: " + level + ")" );
+
+		// Tile's bounds in full resolution display orientation
+		int sampleSize = 1 << level;
+		long left = (long) tileX * tileSize * sampleSize;
+		long top = (long) tileY * tileSize * sampleSize;
+		if( left >= source.width || top >= source.height )
+			throw new IllegalArgumentException( "Tile " + tileX + "x" + tileY + " is outside the image at level " + level );
+
+		int x0 = (int) left;
+		int y0 = (int) top;
+		int x1 = (int) Math.min( left + (long) tileSize * sampleSize, source.width );
+		int y1 = (int) Math.min( top + (long) tileSize * sampleSize, source.height );
+
+		// Convert the bounds to the stored image's orientation
+		int sourceWidth = source.decoder.getWidth();
+		int sourceHeight = source.decoder.getHeight();
+		Rect region;
+		switch( source.orientation )
+		{
+			case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+				region = new Rect( sourceWidth - x1, y0, sourceWidth - x0, y1 );
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_180:
+				region = new Rect( sourceWidth - x1, sourceHeight - y1, sourceWidth - x0, sourceHeight - y0 );
+				break;
+			case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+				region = new Rect( x0, sourceHeight - y1, x1, sourceHeight - y0 );
+				break;
+			case ExifInterface.ORIENTATION_TRANSPOSE:
+				region = new Rect( y0, x0, y1, x1 );
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_90:
+				region = new Rect( y0, sourceHeight - x1, y1, sourceHeight - x0 );
+				break;
+			case ExifInterface.ORIENTATION_TRANSVERSE:
+				region = new Rect( sourceWidth - y1, sourceHeight - x1, sourceWidth - y0, sourceHeight - x0 );
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_270:
+				region = new Rect( sourceWidth - y1, x0, sourceWidth - y0, x1 );
+				break;
+			default:
+				region = new Rect( x0, y0, x1, y1 );
+				break;
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inMutable = true;
+		options.inBitmap = NativeCameraBitmapPool.GetDirty( ( region.width() + sampleSize - 1 ) / sampleSize, ( region.height() + sampleSize - 1 ) / sampleSize, Bitmap.Config.ARGB_8888 );
+
+		Bitmap tile;
+		try
+		{
+			tile = source.decoder.decodeRegion( region, options );
+		}
+		catch( IllegalArgumentException e )
+		{
+			if( options.inBitmap == null )
+				throw e;
+
+			NativeCameraBitmapPool.Put( options.inBitmap );
+			options.inBitmap = null;
+			tile = source.decoder.decodeRegion( region, options );
+		}
+
+		if( options.inBitmap != null && tile != options.inBitmap )
+			NativeCameraBitmapPool.Put( options.inBitmap );
+
+		if( tile == null )
+			throw new IOException( "Couldn't decode tile " + tileX + "x" + tileY + " at level " + level + ": " + path );
+
+		if( source.orientation != ExifInterface.ORIENTATION_NORMAL && source.orientation != ExifInterface.ORIENTATION_UNDEFINED )
+		{
+			try
+			{
+				Bitmap transformedTile = NativeCameraUtils.ApplyImageOrientation( tile, source.orientation );
+				NativeCameraBitmapPool.Put( tile );
+				tile = transformedTile;
+			}
+			catch( RuntimeException e )
+			{
+				NativeCameraBitmapPool.Put( tile );
+				throw e;
+			}
+		}
+
+		return tile;
+	}
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.yasirkula.unity;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.content.ClipData;
 import android.content.ContentResolver;
 import android.content.ContentUris;
@@ -9,19 +10,29 @@ import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.media.ExifInterface;
 import android.media.MediaMetadataRetriever;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
+import android.system.Os;
 import android.util.Log;
 import android.util.Size;
 import android.webkit.MimeTypeMap;
@@ -35,7 +46,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by yasirkula on 30.04.2018.
@@ -43,10 +67,132 @@ import java.util.Locale;
 
 public class NativeCameraUtils
 {
+	public static final int RAW_IMAGE_HEADER_SIZE = 20;
+	public static final int RAW_IMAGE_FORMAT_GRAYSCALE8 = 1;
+	public static final int RAW_IMAGE_FORMAT_RGB565 = 2;
+	public static final int RAW_IMAGE_FORMAT_RGB24 = 3;
+	public static final int RAW_IMAGE_FORMAT_RGBA32 = 4;
+	private static final int RAW_IMAGE_WRITE_BUFFER_SIZE = 256 * 1024;
+	private static final int DECODE_BAND_HEIGHT = 256; // Height of the bands (in decoded pixels) when an image is decoded in bands to stay within the memory budget
+
+	public static final int ENCODE_FORMAT_AUTO = 0; // PNG if the image has transparent pixels, JPEG otherwise
+	public static final int ENCODE_FORMAT_JPEG = 1;
+	public static final int ENCODE_FORMAT_PNG = 2;
+	public static final int ENCODE_FORMAT_WEBP_LOSSY = 3;
+	public static final int ENCODE_FORMAT_WEBP_LOSSLESS = 4; // Falls back to lossy WebP on Android 10 and earlier
+
+	// MIME type codes returned by GetImagePropertiesArray
+	public static final int MIME_TYPE_UNKNOWN = 0;
+	public static final int MIME_TYPE_JPEG = 1;
+	public static final int MIME_TYPE_PNG = 2;
+	public static final int MIME_TYPE_GIF = 3;
+	public static final int MIME_TYPE_BMP = 4;
+	public static final int MIME_TYPE_WEBP = 5;
+	public static final int MIME_TYPE_HEIF = 6;
+	public static final int MIME_TYPE_AVIF = 7;
+
+	public static final String FILE_DESCRIPTOR_PREFIX = "fd:"; // See GetFileDescriptorFromURI
+
+	public static final int IMAGE_PROPERTIES_LENGTH = 4; // width, height, MIME type code, orientation
+	public static final int VIDEO_PROPERTIES_LENGTH = 4; // width, height, duration, rotation
+
+	private static final int COPY_BUFFER_SIZE = 256 * 1024; // Used when FileChannel.transferTo isn't possible
+	private static final int COPY_BUFFER_POOL_SIZE = 4;
+	private static final long COPY_TRANSFER_CHUNK_SIZE = 8L * 1024L * 1024L; // Cancellation is checked after each chunk
+
+	private static final int METADATA_CACHE_SIZE = 64; // Maximum number of files whose metadata is cached
+
+	// Metadata of a file that is reused as long as the file's size and last modification time don't change
+	private static class FileMetadata
+	{
+		public final long fileSize;
+		public final long lastModified;
+
+		public volatile NativeCameraImageHeader imageHeader = null;
+		public volatile boolean isImageHeaderParsed = false;
+		public volatile BitmapFactory.Options imageMetadata = null;
+		public volatile int imageOrientation = -1; // -1: not calculated yet
+		public volatile long[] videoProperties = null;
+
+		public FileMetadata( long fileSize, long lastModified )
+		{
+			this.fileSize = fileSize;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private static final LinkedHashMap<String, FileMetadata> metadataCache = new LinkedHashMap<String, FileMetadata>( 16, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<String, FileMetadata> eldest )
+		{
+			return size() > METADATA_CACHE_SIZE;
+		}
+	};
+
+	private static ThreadPoolExecutor batchExecutor = null;
+	private static final ArrayList<byte[]> copyBufferPool = new ArrayList<byte[]>( COPY_BUFFER_POOL_SIZE );
+	private static NativeCameraTempStore tempStore = null;
+	private static NativeCameraTempStore captureStore = null;
+	private static NativeCameraTempStore videoThumbnailCache = null;
+
+	private static final String TEMP_STORE_DIRECTORY = "NativeCamera";
+	private static final String CAPTURE_STORE_DIRECTORY = "NativeCameraCaptures";
+	private static final String VIDEO_THUMBNAIL_CACHE_DIRECTORY = "NativeCameraThumbnails";
+	private static final String[] LEGACY_TEMP_FILE_PREFIXES = new String[] { "IMG_camera.", "VID_camera.", "VID_copy." }; // Fixed file names used by older versions of the plugin
+
 	private static String authority = null;
 	private static String secondaryStoragePath = null;
 	private static int isXiaomiOrMIUI = 0; // 1: true, -1: false
 
+	// Intermediate files (e.g. raw images) are stored here with unique names (see NativeCameraTempStore)
+	public static synchronized NativeCameraTempStore GetTempStore( Context context )
+	{
+		if( tempStore == null )
+		{
+			File cacheDir = context.getCacheDir();
+			tempStore = new NativeCameraTempStore( new File( cacheDir, TEMP_STORE_DIRECTORY ), NativeCamera.TemporaryFileCacheSize );
+
+			File[] legacyFiles = cacheDir.listFiles();
+			if( legacyFiles != null )
+			{
+				for( File file : legacyFiles )
+				{
+					for( String prefix : LEGACY_TEMP_FILE_PREFIXES )
+					{
+						if( file.getName().startsWith( prefix ) )
+						{
+							file.delete();
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		return tempStore;
+	}
+
+	// Captured photos and videos (and copies of captured media that aren't accessible via File API) are stored here with unique names. Unlike the temporary files, these aren't deleted to satisfy a size
+	// limit or when they get old since Unity may still be using them; they are deleted via Delete or NativeCamera.ClearTemporaryFiles
+	public static synchronized NativeCameraTempStore GetCaptureStore( Context context )
+	{
+		if( captureStore == null )
+			captureStore = new NativeCameraTempStore( new File( context.getCacheDir(), CAPTURE_STORE_DIRECTORY ), 0L, 0L );
+
+		return captureStore;
+	}
+
+	// Generated video thumbnails are stored here with names derived from their sources and generation parameters. Unlike the temporary
+	// files, these persist between sessions
+	public static synchronized NativeCameraTempStore GetVideoThumbnailCache( Context context )
+	{
+		if( videoThumbnailCache == null )
+			videoThumbnailCache = new NativeCameraTempStore( new File( context.getCacheDir(), VIDEO_THUMBNAIL_CACHE_DIRECTORY ), NativeCamera.VideoThumbnailCacheSize, 0L );
+
+		return videoThumbnailCache;
+	}
+
 	public static String GetAuthority( Context context )
 	{
 		if( authority == null )
@@ -158,6 +304,80 @@ public class NativeCameraUtils
 	}
 
 	@TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+	// Returns the id of the newest media in the MediaStore table, Integer.MIN_VALUE if the table is empty or 0 if it can't be queried
+	public static int GetNewestMediaId( Context context, Uri contentUri )
+	{
+		Cursor cursor = null;
+		try
+		{
+			cursor = QueryNewestMedia( context, contentUri, new String[] { MediaStore.MediaColumns._ID }, null, null, 1 );
+			if( cursor != null )
+			{
+				if( cursor.moveToFirst() )
+					return cursor.getInt( cursor.getColumnIndex( MediaStore.MediaColumns._ID ) );
+				else if( cursor.getCount() <= 0 )
+				{
+					// If there are currently no media in the table, after the media is captured, querying the table with "_ID > id" will
+					// return the newly captured media since its ID will always be greater than Integer.MIN_VALUE
+					return Integer.MIN_VALUE;
+				}
+			}
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+		}
+		finally
+		{
+			if( cursor != null )
+				cursor.close();
+		}
+
+		return 0;
+	}
+
+	// Queries the media that were inserted into the MediaStore table during a capture, newest first. If NativeCameraMediaObserver recorded
+	// the inserted media, only those rows are queried. Otherwise, the media with ids greater than lastExistingId are queried
+	public static Cursor QueryNewMedia( Context context, Uri contentUri, String[] projection, long[] insertedIds, long lastExistingId, int limit )
+	{
+		if( insertedIds != null && insertedIds.length > 0 )
+		{
+			StringBuilder selection = new StringBuilder( MediaStore.MediaColumns._ID ).append( " IN (" );
+			String[] selectionArgs = new String[insertedIds.length];
+			for( int i = 0; i < insertedIds.length; i++ )
+			{
+				selection.append( i > 0 ? ",?" : "?" );
+				selectionArgs[i] = "" + insertedIds[i];
+			}
+
+			return QueryNewestMedia( context, contentUri, projection, selection.append( ")" ).toString(), selectionArgs, limit );
+		}
+
+		return QueryNewestMedia( context, contentUri, projection, MediaStore.MediaColumns._ID + ">?", new String[] { "" + lastExistingId }, limit );
+	}
+
+	// Queries at most limit rows of the MediaStore table, newest first. Without a limit, MediaStore returns a cursor over the whole table
+	// which is slow on devices with a large Gallery
+	public static Cursor QueryNewestMedia( Context context, Uri contentUri, String[] projection, String selection, String[] selectionArgs, int limit )
+	{
+		ContentResolver resolver = context.getContentResolver();
+
+		// MediaStore supports query arguments on Android 11 and later, LIMIT in sort order is rejected there but works on older versions
+		if( Build.VERSION.SDK_INT >= 30 )
+		{
+			Bundle queryArgs = new Bundle();
+			queryArgs.putString( ContentResolver.QUERY_ARG_SQL_SELECTION, selection );
+			queryArgs.putStringArray( ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs );
+			queryArgs.putStringArray( ContentResolver.QUERY_ARG_SORT_COLUMNS, new String[] { MediaStore.MediaColumns._ID } );
+			queryArgs.putInt( ContentResolver.QUERY_ARG_SORT_DIRECTION, ContentResolver.QUERY_SORT_DIRECTION_DESCENDING );
+			queryArgs.putInt( ContentResolver.QUERY_ARG_LIMIT, limit );
+
+			return resolver.query( contentUri, projection, queryArgs, null );
+		}
+
+		return resolver.query( contentUri, projection, selection, selectionArgs, MediaStore.MediaColumns._ID + " DESC LIMIT " + limit );
+	}
+
 	public static void SetOutputUri( Context context, Intent intent, String authority, File output )
 	{
 		Uri uri;
@@ -200,14 +420,30 @@ public class NativeCameraUtils
 		}
 	}
 
-	// Credit: https://stackoverflow.com/a/9293885/2373034
 	public static void CopyFile( Context context, File src, File dst, Uri rawUri )
 	{
+		CopyFile( context, src, dst, rawUri, false );
+	}
+
+	// If allowMove is true (i.e. the caller is going to delete src anyway) and src is on the same volume as dst, src is hard linked or
+	// moved to dst so that no data is copied at all. Otherwise, the data is copied via FileChannel.transferTo. src is never linked
+	// otherwise since the two files would share their contents, i.e. modifying one would modify the other. The copy's throughput is logged
+	// Credit: https://stackoverflow.com/a/9293885/2373034
+	public static void CopyFile( Context context, File src, File dst, Uri rawUri, boolean allowMove )
+	{
+		long startTime = SystemClock.elapsedRealtime();
+
 		try
 		{
 			if( !src.exists() )
 				return;
 
+			if( TryLinkOrMoveFile( src, dst, allowMove ) )
+			{
+				Log.d( "Unity", "Linked or moved " + src.getAbsolutePath() + " to " + dst.getAbsolutePath() + " without copying its data" );
+				return;
+			}
+
 			if( dst.exists() )
 				ClearFileContents( dst );
 
@@ -217,10 +453,7 @@ public class NativeCameraUtils
 				OutputStream out = new FileOutputStream( dst );
 				try
 				{
-					byte[] buf = new byte[1024];
-					int len;
-					while( ( len = in.read( buf ) ) > 0 )
-						out.write( buf, 0, len );
+					LogCopyThroughput( src.getAbsolutePath(), CopyStream( in, out, null ), startTime );
 				}
 				finally
 				{
@@ -248,12 +481,9 @@ public class NativeCameraUtils
 					OutputStream output = null;
 					try
 					{
+						startTime = SystemClock.elapsedRealtime();
 						output = new FileOutputStream( dst, false );
-
-						byte[] buf = new byte[4096];
-						int len;
-						while( ( len = input.read( buf ) ) > 0 )
-							output.write( buf, 0, len );
+						LogCopyThroughput( rawUri.toString(), CopyStream( input, output, null ), startTime );
 					}
 					finally
 					{
@@ -272,6 +502,241 @@ public class NativeCameraUtils
 		}
 	}
 
+	private static void LogCopyThroughput( final String source, final long copiedBytes, final long startTime )
+	{
+		long elapsedMillis = Math.max( 1L, SystemClock.elapsedRealtime() - startTime );
+		Log.d( "Unity", String.format( Locale.US, "Copied %d bytes from %s in %d ms (%d bytes/s)", copiedBytes, source, elapsedMillis, copiedBytes * 1000L / elapsedMillis ) );
+	}
+
+	private static boolean TryLinkOrMoveFile( File src, File dst, boolean allowMove )
+	{
+		if( !allowMove )
+			return false;
+
+		// Both fail immediately (EXDEV) if src and dst are on different volumes, which is usually the case for Gallery items
+		if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP )
+		{
+			try
+			{
+				dst.delete();
+				Os.link( src.getAbsolutePath(), dst.getAbsolutePath() );
+				return true;
+			}
+			catch( Exception e )
+			{
+			}
+		}
+
+		return src.renameTo( dst );
+	}
+
+	private static long CopyStream( InputStream input, OutputStream output, final NativeCameraCancellationToken cancellationToken ) throws IOException
+	{
+		return CopyStream( input, output, cancellationToken, null );
+	}
+
+	// Copies the rest of input to output. If both are files (streams returned by ContentResolver.openInputStream usually are), the data
+	// is copied by the kernel via FileChannel.transferTo without passing through Java. Otherwise, a large pooled buffer is used.
+	// If digest isn't null, the copied data is also hashed (the data has to pass through Java for that, so transferTo isn't used).
+	// Returns the number of copied bytes. cancellationToken (can be null) is checked after each chunk
+	private static long CopyStream( InputStream input, OutputStream output, final NativeCameraCancellationToken cancellationToken, final MessageDigest digest ) throws IOException
+	{
+		long copiedBytes = 0L;
+		boolean isCopied = false;
+
+		if( digest == null && input instanceof FileInputStream && output instanceof FileOutputStream )
+		{
+			FileChannel inChannel = ( (FileInputStream) input ).getChannel();
+			FileChannel outChannel = ( (FileOutputStream) output ).getChannel();
+
+			try
+			{
+				long position = inChannel.position();
+				long transferredBytes;
+				while( ( transferredBytes = inChannel.transferTo( position + copiedBytes, COPY_TRANSFER_CHUNK_SIZE, outChannel ) ) > 0L )
+				{
+					copiedBytes += transferredBytes;
+					NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+				}
+
+				inChannel.position( position + copiedBytes );
+				isCopied = true;
+			}
+			catch( IOException e )
+			{
+				// transferTo doesn't work with pipes, fall back to a buffered copy if nothing was copied yet
+				if( copiedBytes > 0L )
+					throw e;
+			}
+
+			// transferTo returns 0 for channels that it can't read from (and also for empty files), make sure that it isn't the former
+			if( copiedBytes == 0L )
+				isCopied = false;
+		}
+
+		if( !isCopied )
+		{
+			byte[] buffer = ObtainCopyBuffer();
+			try
+			{
+				int length;
+				while( ( length = input.read( buffer ) ) > 0 )
+				{
+					output.write( buffer, 0, length );
+					if( digest != null )
+						digest.update( buffer, 0, length );
+
+					copiedBytes += length;
+
+					NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+				}
+			}
+			finally
+			{
+				ReleaseCopyBuffer( buffer );
+			}
+		}
+
+		return copiedBytes;
+	}
+
+	private static byte[] ObtainCopyBuffer()
+	{
+		synchronized( copyBufferPool )
+		{
+			if( copyBufferPool.size() > 0 )
+				return copyBufferPool.remove( copyBufferPool.size() - 1 );
+		}
+
+		return new byte[COPY_BUFFER_SIZE];
+	}
+
+	private static void ReleaseCopyBuffer( final byte[] buffer )
+	{
+		synchronized( copyBufferPool )
+		{
+			if( copyBufferPool.size() < COPY_BUFFER_POOL_SIZE )
+				copyBufferPool.add( buffer );
+		}
+	}
+
+	// Copies src to the capture store under its content hash (see NativeCamera.DeduplicateCopies). If src was copied before and hasn't
+	// changed since then, or if a file with identical content is already in the store, the existing copy is returned. rawUri is used if
+	// src can't be accessed via File API. The copy is returned to Unity as a capture, so it isn't stored in the size limited temporary file
+	// store where it could be deleted while Unity is still using it. Returns null on failure
+	public static String CopyFileDeduplicated( Context context, File src, Uri rawUri, String extension )
+	{
+		NativeCameraTempStore store = GetCaptureStore( context );
+		String sourceKey = src.exists() ? ( src.getAbsolutePath() + ">" + src.length() + ">" + src.lastModified() ) : null;
+		String previousCopy = store.GetDeduplicatedFilePath( sourceKey );
+		if( previousCopy != null )
+		{
+			Log.d( "Unity", "Reusing previous copy of " + src.getAbsolutePath() + ": " + previousCopy );
+			return previousCopy;
+		}
+
+		File tempFile = new File( store.GetNewFilePath( "VID_copy", extension ) );
+		InputStream input = null;
+		OutputStream output = null;
+		try
+		{
+			try
+			{
+				input = new FileInputStream( src );
+			}
+			catch( Exception e )
+			{
+				// Try to read the file via contentResolver (can happen e.g. on Android 10 where raw file system access is restricted)
+				if( rawUri == null )
+					throw e;
+
+				input = context.getContentResolver().openInputStream( rawUri );
+				if( input == null )
+					return null;
+			}
+
+			MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			output = new FileOutputStream( tempFile, false );
+			CopyStream( input, output, null, digest );
+
+			output.close();
+			output = null;
+
+			return store.CommitDeduplicated( tempFile.getAbsolutePath(), ToHexString( digest.digest() ), extension, sourceKey );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			tempFile.delete();
+
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if( input != null )
+					input.close();
+				if( output != null )
+					output.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	// Returns the SHA-256 hash of the file as a lowercase hex string, or "" on failure. Instant for the files that were copied while
+	// NativeCamera.DeduplicateCopies was enabled since their names contain their hashes
+	public static String GetFileHash( final String path )
+	{
+		File file = new File( path );
+		String hash = NativeCameraTempStore.GetContentHash( file );
+		if( hash != null )
+			return hash;
+
+		InputStream input = null;
+		byte[] buffer = ObtainCopyBuffer();
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			input = new FileInputStream( file );
+
+			int length;
+			while( ( length = input.read( buffer ) ) > 0 )
+				digest.update( buffer, 0, length );
+
+			return ToHexString( digest.digest() );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return "";
+		}
+		finally
+		{
+			ReleaseCopyBuffer( buffer );
+
+			try
+			{
+				if( input != null )
+					input.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	private static String ToHexString( final byte[] bytes )
+	{
+		StringBuilder result = new StringBuilder( bytes.length * 2 );
+		for( byte b : bytes )
+			result.append( String.format( Locale.US, "%02x", b & 0xFF ) );
+
+		return result.toString();
+	}
+
 	public static boolean IsPermissionDefinedInManifest( Context context, String permission )
 	{
 		try
@@ -294,10 +759,44 @@ public class NativeCameraUtils
 	}
 
 	public static String GetPathFromURIOrCopyFile( Context context, Uri uri, String defaultPath )
+	{
+		return GetPathFromURIOrCopyFile( context, uri, defaultPath, null );
+	}
+
+	// If the file has to be copied, cancellationToken is checked after each copied chunk. Returns null if it is cancelled
+	public static String GetPathFromURIOrCopyFile( Context context, Uri uri, String defaultPath, final NativeCameraCancellationToken cancellationToken )
+	{
+		if( uri == null )
+			return null;
+
+		String path = GetAccessiblePathFromURI( context, uri, defaultPath );
+		if( path != null )
+			return path;
+
+		return CopyFileFromURI( context, uri, cancellationToken );
+	}
+
+	// Same as GetPathFromURIOrCopyFile but instead of copying the file, returns a file descriptor to it (see GetFileDescriptorFromURI).
+	// Falls back to copying the file if a seekable file descriptor can't be opened
+	public static String GetPathFromURIOrFileDescriptor( Context context, Uri uri, String defaultPath )
 	{
 		if( uri == null )
 			return null;
 
+		String path = GetAccessiblePathFromURI( context, uri, defaultPath );
+		if( path != null && new File( path ).length() > 0L )
+			return path;
+
+		String fileDescriptor = GetFileDescriptorFromURI( context, uri );
+		if( fileDescriptor != null )
+			return fileDescriptor;
+
+		return GetPathFromURIOrCopyFile( context, uri, defaultPath );
+	}
+
+	// Returns null if the uri's file path couldn't be determined or the file isn't accessible via File API
+	private static String GetAccessiblePathFromURI( Context context, Uri uri, String defaultPath )
+	{
 		String path = GetPathFromURI( context, uri );
 		if( path == null || path.length() == 0 )
 		{
@@ -335,17 +834,33 @@ public class NativeCameraUtils
 			}
 		}
 
-		// File path couldn't be determined, copy the file to an accessible temporary location
+		return null;
+	}
+
+	private static String CopyFileFromURI( Context context, Uri uri, final NativeCameraCancellationToken cancellationToken )
+	{
+		// File path couldn't be determined, copy the file to an accessible location. The copy is returned to Unity as a capture, so it's
+		// saved to the capture store (see CopyFileDeduplicated)
 		// Credit: https://developer.android.com/training/secure-file-sharing/retrieve-info.html#RetrieveFileInfo
 		ContentResolver resolver = context.getContentResolver();
 		Cursor returnCursor = null;
 		String filename = null;
+		String sourceKey = null; // Identifies the uri's current content for DeduplicateCopies
 
 		try
 		{
 			returnCursor = resolver.query( uri, null, null, null, null );
 			if( returnCursor != null && returnCursor.moveToFirst() )
+			{
 				filename = returnCursor.getString( returnCursor.getColumnIndex( OpenableColumns.DISPLAY_NAME ) );
+
+				int sizeColumn = returnCursor.getColumnIndex( OpenableColumns.SIZE );
+				if( sizeColumn >= 0 && returnCursor.getLong( sizeColumn ) > 0L )
+				{
+					int dateModifiedColumn = returnCursor.getColumnIndex( MediaStore.MediaColumns.DATE_MODIFIED );
+					sourceKey = uri + ">" + returnCursor.getLong( sizeColumn ) + ">" + ( dateModifiedColumn >= 0 ? returnCursor.getLong( dateModifiedColumn ) : 0L );
+				}
+			}
 		}
 		catch( Exception e )
 		{
@@ -375,6 +890,17 @@ public class NativeCameraUtils
 		if( extension == null )
 			extension = ".mp4";
 
+		NativeCameraTempStore store = GetCaptureStore( context );
+		if( NativeCamera.DeduplicateCopies )
+		{
+			String previousCopy = store.GetDeduplicatedFilePath( sourceKey );
+			if( previousCopy != null )
+			{
+				Log.d( "Unity", "Reusing previous copy of " + uri + ": " + previousCopy );
+				return previousCopy;
+			}
+		}
+
 		try
 		{
 			InputStream input = resolver.openInputStream( uri );
@@ -384,21 +910,40 @@ public class NativeCameraUtils
 				return null;
 			}
 
-			File tempFile = new File( context.getCacheDir().getAbsolutePath(), "VID_copy" + extension );
+			File tempFile = new File( store.GetNewFilePath( "VID_copy", extension ) );
 			OutputStream output = null;
 			try
 			{
+				MessageDigest digest = NativeCamera.DeduplicateCopies ? MessageDigest.getInstance( "SHA-256" ) : null;
+
+				long startTime = SystemClock.elapsedRealtime();
 				output = new FileOutputStream( tempFile, false );
+				LogCopyThroughput( uri.toString(), CopyStream( input, output, cancellationToken, digest ), startTime );
+
+				output.close();
+				output = null;
 
-				byte[] buf = new byte[4096];
-				int len;
-				while( ( len = input.read( buf ) ) > 0 )
+				String path;
+				if( digest != null )
+					path = store.CommitDeduplicated( tempFile.getAbsolutePath(), ToHexString( digest.digest() ), extension, sourceKey );
+				else
 				{
-					output.write( buf, 0, len );
+					store.Commit( tempFile.getAbsolutePath() );
+					path = tempFile.getAbsolutePath();
 				}
 
-				Log.d( "Unity", "Copied media from " + uri + " to: " + tempFile.getAbsolutePath() );
-				return tempFile.getAbsolutePath();
+				Log.d( "Unity", "Copied media from " + uri + " to: " + path );
+				return path;
+			}
+			catch( CancellationException e )
+			{
+				Log.d( "Unity", "Cancelled copying media: " + uri );
+
+				output.close();
+				output = null;
+				tempFile.delete();
+
+				return null;
 			}
 			finally
 			{
@@ -416,10 +961,76 @@ public class NativeCameraUtils
 		return null;
 	}
 
-	// Credit: https://stackoverflow.com/a/36714242/2373034
-	public static String GetPathFromURI( Context context, Uri uri )
+	// Opens the uri for reading and returns its file descriptor in "fd:FD>OFFSET>LENGTH" format, so that the media can be read in place (e.g.
+	// by a native video player or uploader) instead of being copied first. The media's bytes are in range [OFFSET, OFFSET+LENGTH) of the file.
+	// The caller owns the file descriptor and must close it via CloseFileDescriptor. Returns null if the uri can't be opened or if it's
+	// backed by a pipe (which can't be read at arbitrary offsets)
+	public static String GetFileDescriptorFromURI( Context context, Uri uri )
 	{
-		if( uri == null )
+		AssetFileDescriptor assetFileDescriptor = null;
+		try
+		{
+			assetFileDescriptor = context.getContentResolver().openAssetFileDescriptor( uri, "r" );
+			if( assetFileDescriptor == null )
+				return null;
+
+			ParcelFileDescriptor parcelFileDescriptor = assetFileDescriptor.getParcelFileDescriptor();
+			long offset = assetFileDescriptor.getStartOffset();
+			long length = assetFileDescriptor.getDeclaredLength();
+			if( length < 0L )
+			{
+				long fileSize = parcelFileDescriptor.getStatSize();
+				if( fileSize < 0L )
+				{
+					Log.d( "Unity", "File descriptor of '" + uri + "' isn't seekable" );
+					return null;
+				}
+
+				length = fileSize - offset;
+			}
+
+			// Closing assetFileDescriptor afterwards doesn't close the detached file descriptor
+			int fileDescriptor = parcelFileDescriptor.detachFd();
+
+			Log.d( "Unity", "Opened file descriptor " + fileDescriptor + " for " + uri + " (" + length + " bytes)" );
+			return FILE_DESCRIPTOR_PREFIX + fileDescriptor + ">" + offset + ">" + length;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return null;
+		}
+		finally
+		{
+			if( assetFileDescriptor != null )
+			{
+				try
+				{
+					assetFileDescriptor.close();
+				}
+				catch( Exception e )
+				{
+				}
+			}
+		}
+	}
+
+	public static void CloseFileDescriptor( final int fileDescriptor )
+	{
+		try
+		{
+			ParcelFileDescriptor.adoptFd( fileDescriptor ).close();
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+		}
+	}
+
+	// Credit: https://stackoverflow.com/a/36714242/2373034
+	public static String GetPathFromURI( Context context, Uri uri )
+	{
+		if( uri == null )
 			return null;
 
 		Log.d( "Unity", "Media uri: " + uri.toString() );
@@ -585,13 +1196,78 @@ public class NativeCameraUtils
 		return null;
 	}
 
+	// Returns the cache entry of the file at path (creating it if necessary), or null if the file doesn't exist
+	private static FileMetadata GetCachedMetadata( final String path )
+	{
+		File file = new File( path );
+		long fileSize = file.length();
+		long lastModified = file.lastModified();
+		if( fileSize <= 0L && lastModified == 0L )
+			return null;
+
+		synchronized( metadataCache )
+		{
+			FileMetadata result = metadataCache.get( path );
+			if( result == null || result.fileSize != fileSize || result.lastModified != lastModified )
+			{
+				result = new FileMetadata( fileSize, lastModified );
+				metadataCache.put( path, result );
+			}
+
+			return result;
+		}
+	}
+
+	public static void ClearMetadataCache()
+	{
+		synchronized( metadataCache )
+		{
+			metadataCache.clear();
+		}
+	}
+
+	private static NativeCameraImageHeader GetImageHeader( final String path, final FileMetadata cachedMetadata )
+	{
+		if( cachedMetadata != null && cachedMetadata.isImageHeaderParsed )
+			return cachedMetadata.imageHeader;
+
+		NativeCameraImageHeader result = NativeCameraImageHeader.Parse( path );
+		if( cachedMetadata != null )
+		{
+			cachedMetadata.imageHeader = result;
+			cachedMetadata.isImageHeaderParsed = true;
+		}
+
+		return result;
+	}
+
+	// Returned object is shared by the cache, it mustn't be modified
 	private static BitmapFactory.Options GetImageMetadata( final String path )
 	{
+		FileMetadata cachedMetadata = GetCachedMetadata( path );
+		if( cachedMetadata != null && cachedMetadata.imageMetadata != null )
+			return cachedMetadata.imageMetadata;
+
 		try
 		{
 			BitmapFactory.Options result = new BitmapFactory.Options();
-			result.inJustDecodeBounds = true;
-			BitmapFactory.decodeFile( path, result );
+
+			// Parsing the header is much cheaper than a bounds decode, use BitmapFactory only for unsupported formats
+			NativeCameraImageHeader header = GetImageHeader( path, cachedMetadata );
+			if( header != null )
+			{
+				result.outWidth = header.width;
+				result.outHeight = header.height;
+				result.outMimeType = header.mimeType;
+			}
+			else
+			{
+				result.inJustDecodeBounds = true;
+				BitmapFactory.decodeFile( path, result );
+			}
+
+			if( cachedMetadata != null && result.outWidth > 0 && result.outHeight > 0 )
+				cachedMetadata.imageMetadata = result;
 
 			return result;
 		}
@@ -603,17 +1279,40 @@ public class NativeCameraUtils
 	}
 
 	// Credit: https://stackoverflow.com/a/30572852/2373034
-	private static int GetImageOrientation( Context context, final String path )
+	public static int GetImageOrientation( Context context, final String path )
 	{
-		try
+		FileMetadata cachedMetadata = GetCachedMetadata( path );
+		if( cachedMetadata != null && cachedMetadata.imageOrientation >= 0 )
+			return cachedMetadata.imageOrientation;
+
+		int result = CalculateImageOrientation( context, path );
+		if( cachedMetadata != null )
+			cachedMetadata.imageOrientation = result;
+
+		return result;
+	}
+
+	private static int CalculateImageOrientation( Context context, final String path )
+	{
+		NativeCameraImageHeader header = GetImageHeader( path, GetCachedMetadata( path ) );
+		if( header != null )
 		{
-			ExifInterface exif = new ExifInterface( path );
-			int orientationEXIF = exif.getAttributeInt( ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED );
-			if( orientationEXIF != ExifInterface.ORIENTATION_UNDEFINED )
-				return orientationEXIF;
+			// Header parser reads the same EXIF tag as ExifInterface, so opening ExifInterface would be redundant
+			if( header.orientation != NativeCameraImageHeader.ORIENTATION_UNDEFINED )
+				return header.orientation;
 		}
-		catch( Exception e )
+		else
 		{
+			try
+			{
+				ExifInterface exif = new ExifInterface( path );
+				int orientationEXIF = exif.getAttributeInt( ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED );
+				if( orientationEXIF != ExifInterface.ORIENTATION_UNDEFINED )
+					return orientationEXIF;
+			}
+			catch( Exception e )
+			{
+			}
 		}
 
 		Cursor cursor = null;
@@ -708,285 +1407,1657 @@ public class NativeCameraUtils
 	}
 
 	public static String LoadImageAtPath( Context context, String path, final String temporaryFilePath, final int maxSize )
+	{
+		return LoadImageAtPath( context, path, temporaryFilePath, maxSize, ENCODE_FORMAT_AUTO, 100 );
+	}
+
+	public static String LoadImageAtPath( Context context, String path, final String temporaryFilePath, final int maxSize, final int encodeFormat, final int quality )
+	{
+		return LoadImageAtPath( context, path, temporaryFilePath, maxSize, encodeFormat, quality, null );
+	}
+
+	// Returns "" if cancellationToken is cancelled before the image is saved. If temporaryFilePath is empty, a unique path is picked
+	public static String LoadImageAtPath( Context context, String path, String temporaryFilePath, final int maxSize, final int encodeFormat, final int quality, final NativeCameraCancellationToken cancellationToken )
 	{
 		BitmapFactory.Options metadata = GetImageMetadata( path );
 		if( metadata == null )
 			return path;
 
-		boolean shouldCreateNewBitmap = false;
-		if( metadata.outWidth > maxSize || metadata.outHeight > maxSize )
-			shouldCreateNewBitmap = true;
-
-		if( metadata.outMimeType != null && !metadata.outMimeType.equals( "image/jpeg" ) && !metadata.outMimeType.equals( "image/png" ) )
-			shouldCreateNewBitmap = true;
-
 		int orientation = GetImageOrientation( context, path );
-		if( orientation != ExifInterface.ORIENTATION_NORMAL && orientation != ExifInterface.ORIENTATION_UNDEFINED )
-			shouldCreateNewBitmap = true;
+		if( !ShouldCreateNewBitmap( metadata, orientation, maxSize ) )
+			return path;
 
-		if( shouldCreateNewBitmap )
-		{
-			Bitmap bitmap = null;
-			FileOutputStream out = null;
+		if( temporaryFilePath == null || temporaryFilePath.length() == 0 )
+			temporaryFilePath = GetTempStore( context ).GetNewFilePath( "IMG", ".tmp" );
 
+		// If only the orientation needs to be corrected, rearrange the JPEG's DCT coefficients instead of decoding and re-encoding it
+		if( ( encodeFormat == ENCODE_FORMAT_AUTO || encodeFormat == ENCODE_FORMAT_JPEG ) && CanTransformJpegLosslessly( path, metadata, orientation, maxSize, NativeCamera.DecodeMemoryBudget ) )
+		{
 			try
 			{
-				// Credit: https://developer.android.com/topic/performance/graphics/load-bitmap.html
-				int sampleSize = 1;
-				int halfHeight = metadata.outHeight / 2;
-				int halfWidth = metadata.outWidth / 2;
-				while( ( halfHeight / sampleSize ) >= maxSize || ( halfWidth / sampleSize ) >= maxSize )
-					sampleSize *= 2;
-
-				BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inSampleSize = sampleSize;
-				options.inJustDecodeBounds = false;
-				bitmap = BitmapFactory.decodeFile( path, options );
-
-				float scaleX = 1f, scaleY = 1f;
-				if( bitmap.getWidth() > maxSize )
-					scaleX = maxSize / (float) bitmap.getWidth();
-				if( bitmap.getHeight() > maxSize )
-					scaleY = maxSize / (float) bitmap.getHeight();
-
-				// Create a new bitmap if it should be scaled down or if its orientation is wrong
-				float scale = scaleX < scaleY ? scaleX : scaleY;
-				if( scale < 1f || ( orientation != ExifInterface.ORIENTATION_NORMAL && orientation != ExifInterface.ORIENTATION_UNDEFINED ) )
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+				if( NativeCameraJpegTransform.Transform( path, temporaryFilePath, orientation, NativeCamera.TrimLosslessJpegEdges ) )
 				{
-					Matrix transformationMatrix = GetImageOrientationCorrectionMatrix( orientation, scale );
-					Bitmap transformedBitmap = Bitmap.createBitmap( bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), transformationMatrix, true );
-					if( transformedBitmap != bitmap )
-					{
-						bitmap.recycle();
-						bitmap = transformedBitmap;
-					}
+					GetTempStore( context ).Commit( temporaryFilePath );
+					return temporaryFilePath;
 				}
-
-				out = new FileOutputStream( temporaryFilePath );
-				if( metadata.outMimeType == null || !metadata.outMimeType.equals( "image/jpeg" ) )
-					bitmap.compress( Bitmap.CompressFormat.PNG, 100, out );
-				else
-					bitmap.compress( Bitmap.CompressFormat.JPEG, 100, out );
-
-				path = temporaryFilePath;
 			}
-			catch( Exception e )
+			catch( CancellationException e )
 			{
-				Log.e( "Unity", "Exception:", e );
-
-				try
-				{
-					File temporaryFile = new File( temporaryFilePath );
-					if( temporaryFile.exists() )
-						temporaryFile.delete();
-				}
-				catch( Exception e2 )
-				{
-				}
+				Log.d( "Unity", "Cancelled loading image: " + path );
+				return "";
 			}
-			finally
+			catch( OutOfMemoryError e )
 			{
-				if( bitmap != null )
-					bitmap.recycle();
-
-				try
-				{
-					if( out != null )
-						out.close();
-				}
-				catch( Exception e )
-				{
-				}
+				Log.w( "Unity", "Not enough memory to correct the image's orientation losslessly, decoding it instead: " + path );
+			}
+			catch( Exception e )
+			{
+				Log.e( "Unity", "Exception:", e );
 			}
 		}
 
-		return path;
-	}
-
-	public static String GetImageProperties( Context context, final String path )
-	{
-		BitmapFactory.Options metadata = GetImageMetadata( path );
-		if( metadata == null )
-			return "";
-
-		int width = metadata.outWidth;
-		int height = metadata.outHeight;
-
-		String mimeType = metadata.outMimeType;
-		if( mimeType == null )
-			mimeType = "";
-
-		int orientationUnity;
-		int orientation = GetImageOrientation( context, path );
-		if( orientation == ExifInterface.ORIENTATION_UNDEFINED )
-			orientationUnity = -1;
-		else if( orientation == ExifInterface.ORIENTATION_NORMAL )
-			orientationUnity = 0;
-		else if( orientation == ExifInterface.ORIENTATION_ROTATE_90 )
-			orientationUnity = 1;
-		else if( orientation == ExifInterface.ORIENTATION_ROTATE_180 )
-			orientationUnity = 2;
-		else if( orientation == ExifInterface.ORIENTATION_ROTATE_270 )
-			orientationUnity = 3;
-		else if( orientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL )
-			orientationUnity = 4;
-		else if( orientation == ExifInterface.ORIENTATION_TRANSPOSE )
-			orientationUnity = 5;
-		else if( orientation == ExifInterface.ORIENTATION_FLIP_VERTICAL )
-			orientationUnity = 6;
-		else if( orientation == ExifInterface.ORIENTATION_TRANSVERSE )
-			orientationUnity = 7;
-		else
-			orientationUnity = -1;
-
-		if( orientation == ExifInterface.ORIENTATION_ROTATE_90 || orientation == ExifInterface.ORIENTATION_ROTATE_270 ||
-				orientation == ExifInterface.ORIENTATION_TRANSPOSE || orientation == ExifInterface.ORIENTATION_TRANSVERSE )
-		{
-			int temp = width;
-			width = height;
-			height = temp;
-		}
-
-		return width + ">" + height + ">" + mimeType + ">" + orientationUnity;
-	}
+		Bitmap bitmap = null;
+		FileOutputStream out = null;
 
-	@TargetApi( Build.VERSION_CODES.JELLY_BEAN_MR1 )
-	public static String GetVideoProperties( Context context, final String path )
-	{
-		MediaMetadataRetriever metadataRetriever = new MediaMetadataRetriever();
 		try
 		{
-			metadataRetriever.setDataSource( path );
+			bitmap = DecodeImage( path, metadata, orientation, maxSize, NativeCamera.DecodeMemoryBudget, cancellationToken );
 
-			String width = metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH );
-			String height = metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT );
-			String duration = metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_DURATION );
-			String rotation = "0";
-			if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 )
-				rotation = metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION );
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			out = new FileOutputStream( temporaryFilePath );
+			CompressBitmap( bitmap, encodeFormat, quality, out );
 
-			if( width == null )
-				width = "0";
-			if( height == null )
-				height = "0";
-			if( duration == null )
-				duration = "0";
-			if( rotation == null )
-				rotation = "0";
+			GetTempStore( context ).Commit( temporaryFilePath );
+			path = temporaryFilePath;
+		}
+		catch( CancellationException e )
+		{
+			Log.d( "Unity", "Cancelled loading image: " + path );
+			DeleteFileSilently( temporaryFilePath );
 
-			return width + ">" + height + ">" + duration + ">" + rotation;
+			path = "";
 		}
 		catch( Exception e )
 		{
 			Log.e( "Unity", "Exception:", e );
-			return "";
+			DeleteFileSilently( temporaryFilePath );
 		}
 		finally
 		{
+			NativeCameraBitmapPool.Put( bitmap );
+
 			try
 			{
-				metadataRetriever.release();
+				if( out != null )
+					out.close();
 			}
 			catch( Exception e )
 			{
 			}
 		}
+
+		return path;
 	}
 
-	@TargetApi( Build.VERSION_CODES.Q )
-	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final boolean saveAsJpeg, int maxSize, double captureTime )
+	// Loads the images in parallel using up to one thread per CPU core (fewer if that many decoded images wouldn't fit in memory).
+	// Each result is what LoadImageAtPath returns for that image or, if raw is true, the path of its raw image (see LoadImageAtPathRaw;
+	// all images are decoded to raw images in this case, even if they could be loaded as is). Results are "" for the images that
+	// couldn't be loaded (e.g. due to OutOfMemoryError)
+	public static String[] LoadImagesAtPaths( final Context context, final String[] paths, final String[] outputPaths, final int maxSize, final boolean raw )
 	{
-		Bitmap bitmap = null;
-		FileOutputStream out = null;
+		return LoadImagesAtPaths( context, paths, outputPaths, maxSize, raw, false );
+	}
 
-		try
+	// If raw and generateMipmaps are true, the full mip chain is appended to each raw image (see WriteRawImage) so that Unity doesn't
+	// have to generate the mipmaps on the main thread
+	public static String[] LoadImagesAtPaths( final Context context, final String[] paths, final String[] outputPaths, final int maxSize, final boolean raw, final boolean generateMipmaps )
+	{
+		final String[] results = new String[paths.length];
+		final AtomicInteger nextIndex = new AtomicInteger( 0 );
+		Runnable worker = new Runnable()
 		{
-			if( captureTime < 0.0 && maxSize <= 1024 )
-			{
-				try
-				{
-					if( Build.VERSION.SDK_INT < Build.VERSION_CODES.Q )
-						bitmap = ThumbnailUtils.createVideoThumbnail( path, maxSize > 512 ? MediaStore.Video.Thumbnails.FULL_SCREEN_KIND : MediaStore.Video.Thumbnails.MINI_KIND );
-					else
-						bitmap = ThumbnailUtils.createVideoThumbnail( new File( path ), maxSize > 512 ? new Size( 1024, 786 ) : new Size( 512, 384 ), null );
-				}
-				catch( Exception e )
-				{
-					Log.e( "Unity", "Exception:", e );
-				}
-			}
-
-			if( bitmap == null )
+			@Override
+			public void run()
 			{
-				MediaMetadataRetriever metadataRetriever = new MediaMetadataRetriever();
-				try
-				{
-					metadataRetriever.setDataSource( path );
-
-					try
-					{
-						int width = Integer.parseInt( metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH ) );
-						int height = Integer.parseInt( metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT ) );
-						if( maxSize > width && maxSize > height )
-							maxSize = width > height ? width : height;
-					}
-					catch( Exception e )
-					{
-					}
-
-					if( captureTime < 0.0 )
-						captureTime = 0.0;
-					else
-					{
-						try
-						{
-							double duration = Long.parseLong( metadataRetriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_DURATION ) ) / 1000.0;
-							if( captureTime > duration )
-								captureTime = duration;
-						}
-						catch( Exception e )
-						{
-						}
-					}
-
-					long frameTime = (long) ( captureTime * 1000000.0 );
-					if( Build.VERSION.SDK_INT < 27 )
-						bitmap = metadataRetriever.getFrameAtTime( frameTime, MediaMetadataRetriever.OPTION_CLOSEST_SYNC );
-					else
-						bitmap = metadataRetriever.getScaledFrameAtTime( frameTime, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, maxSize, maxSize );
-				}
-				finally
+				int index;
+				while( ( index = nextIndex.getAndIncrement() ) < paths.length )
 				{
 					try
 					{
-						metadataRetriever.release();
+						if( raw )
+							results[index] = LoadImageAtPathRaw( context, paths[index], outputPaths[index], maxSize, generateMipmaps, false, NativeCamera.DecodeMemoryBudget, null, true );
+						else
+							results[index] = LoadImageAtPath( context, paths[index], outputPaths[index], maxSize );
 					}
-					catch( Exception e )
+					catch( Throwable e )
 					{
+						Log.e( "Unity", "Exception:", e );
+						results[index] = "";
 					}
 				}
 			}
+		};
 
-			if( bitmap == null )
-				return "";
+		RunOnWorkerThreads( worker, GetBatchThreadCount( context, paths, maxSize ) );
+		return results;
+	}
 
-			out = new FileOutputStream( savePath );
-			if( saveAsJpeg )
-				bitmap.compress( Bitmap.CompressFormat.JPEG, 100, out );
-			else
-				bitmap.compress( Bitmap.CompressFormat.PNG, 100, out );
+	// Runs worker on threadCount threads simultaneously and waits for all of them to finish. The calling thread is one of the workers,
+	// so the work progresses even if the executor is busy with other batches
+	private static void RunOnWorkerThreads( final Runnable worker, final int threadCount )
+	{
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for( int i = 1; i < threadCount; i++ )
+			futures.add( GetBatchExecutor().submit( worker ) );
 
-			return savePath;
-		}
-		catch( Exception e )
-		{
-			Log.e( "Unity", "Exception:", e );
-			return "";
-		}
-		finally
+		worker.run();
+
+		for( Future<?> future : futures )
 		{
-			if( bitmap != null )
-				bitmap.recycle();
+			try
+			{
+				future.get();
+			}
+			catch( Exception e )
+			{
+				Log.e( "Unity", "Exception:", e );
+			}
+		}
+	}
+
+	private static int GetBatchThreadCount( final Context context, final String[] paths, final int maxSize )
+	{
+		int threadCount = Math.min( paths.length, Runtime.getRuntime().availableProcessors() );
+		if( threadCount <= 1 )
+			return 1;
+
+		// Each worker may hold the decoded image and its orientation-corrected copy at the same time
+		long maxImageSize = 0L;
+		for( String path : paths )
+		{
+			BitmapFactory.Options metadata = GetImageMetadata( path );
+			long width = ( metadata != null && metadata.outWidth > 0 ) ? Math.min( metadata.outWidth, maxSize ) : maxSize;
+			long height = ( metadata != null && metadata.outHeight > 0 ) ? Math.min( metadata.outHeight, maxSize ) : maxSize;
+			maxImageSize = Math.max( maxImageSize, width * height * 4L * 2L );
+		}
+
+		// Bitmap pixels are allocated in the Java heap before Android 8.0 and in native memory afterwards
+		long memoryBudget;
+		if( Build.VERSION.SDK_INT < Build.VERSION_CODES.O )
+		{
+			Runtime runtime = Runtime.getRuntime();
+			memoryBudget = ( runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() ) ) / 2L;
+		}
+		else
+		{
+			ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+			( (ActivityManager) context.getSystemService( Context.ACTIVITY_SERVICE ) ).getMemoryInfo( memoryInfo );
+			memoryBudget = ( memoryInfo.availMem - memoryInfo.threshold ) / 4L;
+		}
+
+		if( maxImageSize > 0L )
+			threadCount = (int) Math.max( 1L, Math.min( threadCount, memoryBudget / maxImageSize ) );
+
+		return threadCount;
+	}
+
+	private static synchronized ThreadPoolExecutor GetBatchExecutor()
+	{
+		if( batchExecutor == null )
+		{
+			int threadCount = Runtime.getRuntime().availableProcessors();
+			batchExecutor = new ThreadPoolExecutor( threadCount, threadCount, 10L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>() );
+			batchExecutor.allowCoreThreadTimeOut( true );
+		}
+
+		return batchExecutor;
+	}
+
+	// Same as LoadImageAtPath but instead of re-encoding the processed image as PNG/JPEG, its raw pixels are written to rawFilePath
+	// so that they can be passed to Texture2D.LoadRawTextureData without a second decode. Returns path if the image doesn't need processing
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize )
+	{
+		return LoadImageAtPathRaw( context, path, rawFilePath, maxSize, false );
+	}
+
+	public static String LoadImageAtPathRaw( Context context, String path, final String rawFilePath, final int maxSize, final boolean generateMipmaps )
+	{
+		return LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps, false, NativeCamera.DecodeMemoryBudget, null );
+	}
+
+	// If generateMipmaps is true, the full mip chain is appended to the raw image (see WriteRawImage) and the image is always processed
+	// so that Unity doesn't have to decode it and generate its mipmaps on the main thread. If grayscale is true, only the luminance is
+	// stored. memoryBudget overrides NativeCamera.DecodeMemoryBudget for this call (see DecodeImage). Returns "" if cancellationToken
+	// is cancelled before the raw image is saved. If rawFilePath is empty, a unique path is picked.
+	// Exception: if the image is a JPEG that only needs its orientation corrected (and grayscale is false), the JPEG is rotated losslessly
+	// instead and the returned path is a new JPEG file with ".jpg" extension (rawFilePath isn't used). This is much faster than decoding
+	// the image and writing its raw pixels, and the rotated JPEG is a fraction of the raw image's size
+	public static String LoadImageAtPathRaw( Context context, String path, String rawFilePath, final int maxSize, final boolean generateMipmaps, final boolean grayscale, final long memoryBudget, final NativeCameraCancellationToken cancellationToken )
+	{
+		return LoadImageAtPathRaw( context, path, rawFilePath, maxSize, generateMipmaps, grayscale, memoryBudget, cancellationToken, false );
+	}
+
+	// If forceRaw is true, the result is always a raw image (or "" on failure), i.e. the image is processed even if it could be loaded as is
+	// and JPEGs aren't rotated losslessly. Used by LoadImagesAtPaths so that each image is decoded exactly once on the worker threads
+	private static String LoadImageAtPathRaw( Context context, String path, String rawFilePath, final int maxSize, final boolean generateMipmaps, final boolean grayscale, final long memoryBudget, final NativeCameraCancellationToken cancellationToken, final boolean forceRaw )
+	{
+		BitmapFactory.Options metadata = GetImageMetadata( path );
+		if( metadata == null )
+			return forceRaw ? "" : path;
+
+		int orientation = GetImageOrientation( context, path );
+		if( !forceRaw && !generateMipmaps && !grayscale && !ShouldCreateNewBitmap( metadata, orientation, maxSize ) )
+			return path;
+
+		if( !forceRaw && !grayscale && CanTransformJpegLosslessly( path, metadata, orientation, maxSize, memoryBudget ) )
+		{
+			String jpegFilePath = GetTempStore( context ).GetNewFilePath( "IMG", ".jpg" );
+
+			try
+			{
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+				if( NativeCameraJpegTransform.Transform( path, jpegFilePath, orientation, NativeCamera.TrimLosslessJpegEdges ) )
+				{
+					GetTempStore( context ).Commit( jpegFilePath );
+					return jpegFilePath;
+				}
+			}
+			catch( CancellationException e )
+			{
+				Log.d( "Unity", "Cancelled loading image: " + path );
+				return "";
+			}
+			catch( OutOfMemoryError e )
+			{
+				Log.w( "Unity", "Not enough memory to correct the image's orientation losslessly, decoding it instead: " + path );
+			}
+			catch( Exception e )
+			{
+				Log.e( "Unity", "Exception:", e );
+			}
+
+			DeleteFileSilently( jpegFilePath );
+		}
+
+		if( rawFilePath == null || rawFilePath.length() == 0 )
+			rawFilePath = GetTempStore( context ).GetNewFilePath( "IMG", ".raw" );
+
+		Bitmap bitmap = null;
+		FileOutputStream out = null;
+
+		try
+		{
+			bitmap = DecodeImage( path, metadata, orientation, maxSize, memoryBudget, cancellationToken );
+			RemoveAlphaIfOpaque( bitmap );
+
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			out = new FileOutputStream( rawFilePath );
+			WriteRawImage( bitmap, out.getChannel(), GetRawImageFormat( bitmap, grayscale ), generateMipmaps );
+
+			GetTempStore( context ).Commit( rawFilePath );
+			path = rawFilePath;
+		}
+		catch( CancellationException e )
+		{
+			Log.d( "Unity", "Cancelled loading image: " + path );
+			DeleteFileSilently( rawFilePath );
+
+			path = "";
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			DeleteFileSilently( rawFilePath );
+
+			if( forceRaw )
+				path = "";
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( bitmap );
+
+			try
+			{
+				if( out != null )
+					out.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+
+		return path;
+	}
+
+	// Decodes the image and saves it as an ETC2 compressed KTX file (ETC2 RGBA8 if the image has transparent pixels, ETC2 RGB8 otherwise)
+	// that can be uploaded to the GPU without decompression. fastCompression trades a little quality for a few times faster encoding.
+	// Returns ktxFilePath on success, "" on failure. If ktxFilePath is empty, a unique path is picked
+	public static String LoadImageAtPathETC2( Context context, final String path, String ktxFilePath, final int maxSize, final boolean fastCompression )
+	{
+		BitmapFactory.Options metadata = GetImageMetadata( path );
+		if( metadata == null )
+			return "";
+
+		if( ktxFilePath == null || ktxFilePath.length() == 0 )
+			ktxFilePath = GetTempStore( context ).GetNewFilePath( "IMG", ".ktx" );
+
+		Bitmap bitmap = null;
+		FileOutputStream out = null;
+
+		try
+		{
+			bitmap = DecodeImage( path, metadata, GetImageOrientation( context, path ), maxSize );
+			RemoveAlphaIfOpaque( bitmap );
+
+			byte[] blocks = EncodeETC2( bitmap, fastCompression );
+
+			out = new FileOutputStream( ktxFilePath );
+			out.write( NativeCameraETC2Encoder.CreateKTXHeader( bitmap.getWidth(), bitmap.getHeight(), bitmap.hasAlpha() ) );
+			out.write( blocks );
+
+			GetTempStore( context ).Commit( ktxFilePath );
+			return ktxFilePath;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			DeleteFileSilently( ktxFilePath );
+
+			return "";
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( bitmap );
+
+			try
+			{
+				if( out != null )
+					out.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	// Block rows are distributed among one worker per CPU core. Like raw images, the blocks are ordered bottom to top
+	private static byte[] EncodeETC2( final Bitmap bitmap, final boolean fast )
+	{
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		final boolean hasAlpha = bitmap.hasAlpha();
+		final int blockRowSize = ( ( width + 3 ) / 4 ) * NativeCameraETC2Encoder.GetBlockSize( hasAlpha );
+		final int blockRowCount = ( height + 3 ) / 4;
+		final byte[] result = new byte[NativeCameraETC2Encoder.GetEncodedSize( width, height, hasAlpha )];
+
+		final AtomicInteger nextBlockRow = new AtomicInteger( 0 );
+		Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				NativeCameraETC2Encoder.Workspace workspace = new NativeCameraETC2Encoder.Workspace();
+				int[] pixels = new int[width * 4];
+
+				int blockRow;
+				while( ( blockRow = nextBlockRow.getAndIncrement() ) < blockRowCount )
+				{
+					// Rows past the top of the texture repeat the topmost row
+					for( int y = 0; y < 4; y++ )
+						bitmap.getPixels( pixels, y * width, width, 0, height - 1 - Math.min( blockRow * 4 + y, height - 1 ), width, 1 );
+
+					NativeCameraETC2Encoder.EncodeBlockRow( pixels, width, hasAlpha, fast, workspace, result, blockRow * blockRowSize );
+				}
+			}
+		};
+
+		RunOnWorkerThreads( worker, Math.min( blockRowCount, Runtime.getRuntime().availableProcessors() ) );
+		return result;
+	}
+
+	// Decodes the image and writes its raw pixels (in the same layout as LoadImageAtPathRaw) to the direct ByteBuffer, starting from its current position.
+	// Returns the number of bytes written, 0 on failure or the negated number of bytes required if buffer doesn't have enough space
+	public static int LoadImageAtPathToBuffer( Context context, final String path, final ByteBuffer buffer, final int maxSize )
+	{
+		BitmapFactory.Options metadata = GetImageMetadata( path );
+		if( metadata == null )
+			return 0;
+
+		Bitmap bitmap = null;
+
+		try
+		{
+			bitmap = DecodeImage( path, metadata, GetImageOrientation( context, path ), maxSize );
+			RemoveAlphaIfOpaque( bitmap );
+
+			int rawImageSize = GetRawImageSize( bitmap );
+			if( buffer.remaining() < rawImageSize )
+			{
+				Log.w( "Unity", "ByteBuffer doesn't have enough space for the raw image: " + buffer.remaining() + " < " + rawImageSize );
+				return -rawImageSize;
+			}
+
+			ByteOrder byteOrder = buffer.order();
+			buffer.order( ByteOrder.LITTLE_ENDIAN );
+			try
+			{
+				WriteRawImage( bitmap, buffer, null );
+			}
+			finally
+			{
+				buffer.order( byteOrder );
+			}
+
+			return rawImageSize;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return 0;
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( bitmap );
+		}
+	}
+
+	private static boolean ShouldCreateNewBitmap( final BitmapFactory.Options metadata, final int orientation, final int maxSize )
+	{
+		if( metadata.outWidth > maxSize || metadata.outHeight > maxSize )
+			return true;
+
+		if( metadata.outMimeType != null && !metadata.outMimeType.equals( "image/jpeg" ) && !metadata.outMimeType.equals( "image/png" ) )
+			return true;
+
+		return orientation != ExifInterface.ORIENTATION_NORMAL && orientation != ExifInterface.ORIENTATION_UNDEFINED;
+	}
+
+	// Returns true if the image is a JPEG whose orientation can be corrected with NativeCameraJpegTransform without scaling it and if the
+	// transform's peak memory usage fits in memoryBudget (if positive) and in the free heap. The transform may still fail, e.g. for
+	// progressive JPEGs, in which case the image should be decoded instead
+	private static boolean CanTransformJpegLosslessly( final String path, final BitmapFactory.Options metadata, final int orientation, final int maxSize, final long memoryBudget )
+	{
+		if( orientation == ExifInterface.ORIENTATION_NORMAL || orientation == ExifInterface.ORIENTATION_UNDEFINED )
+			return false;
+
+		if( !"image/jpeg".equals( metadata.outMimeType ) || metadata.outWidth > maxSize || metadata.outHeight > maxSize )
+			return false;
+
+		long peakMemory = NativeCameraJpegTransform.GetPeakMemory( metadata.outWidth, metadata.outHeight, new File( path ).length() );
+		if( memoryBudget > 0L && peakMemory > memoryBudget )
+			return false;
+
+		Runtime runtime = Runtime.getRuntime();
+		return peakMemory <= runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+	}
+
+	private static Bitmap DecodeImage( final String path, final BitmapFactory.Options metadata, final int orientation, final int maxSize ) throws IOException
+	{
+		return DecodeImage( path, metadata, orientation, maxSize, NativeCamera.DecodeMemoryBudget, null );
+	}
+
+	// Decodes the image at path, scales it down to maxSize and corrects its orientation. The power-of-two part of the scaling is done by
+	// the decoder (inSampleSize), so the full resolution image is never in memory. If the image needs to be scaled further or its
+	// orientation needs to be corrected, it is decoded in bands that are drawn directly into the final bitmap (see DecodeImageInBands),
+	// so the peak memory usage is a single bitmap plus a band. Formats that BitmapRegionDecoder doesn't support are scaled via
+	// inDensity/inTargetDensity and rotated into a second bitmap instead (see GetDecodePeakMemory).
+	// If memoryBudget is positive, the decode is planned from the image's metadata so that the peak memory usage stays within memoryBudget
+	// bytes: opaque images are decoded as RGB_565 and then the image is sampled further down until it fits. Throws CancellationException
+	// if cancellationToken is cancelled
+	private static Bitmap DecodeImage( final String path, final BitmapFactory.Options metadata, final int orientation, final int maxSize, final long memoryBudget, final NativeCameraCancellationToken cancellationToken ) throws IOException
+	{
+		int width = metadata.outWidth;
+		int height = metadata.outHeight;
+
+		// Credit: https://developer.android.com/topic/performance/graphics/load-bitmap.html
+		int sampleSize = 1;
+		int halfHeight = height / 2;
+		int halfWidth = width / 2;
+		while( ( halfHeight / sampleSize ) >= maxSize || ( halfWidth / sampleSize ) >= maxSize )
+			sampleSize *= 2;
+
+		boolean isOrientationCorrected = orientation != ExifInterface.ORIENTATION_NORMAL && orientation != ExifInterface.ORIENTATION_UNDEFINED;
+		boolean canDecodeInBands = "image/jpeg".equals( metadata.outMimeType ) || "image/png".equals( metadata.outMimeType ) || "image/webp".equals( metadata.outMimeType ) ||
+				( "image/heif".equals( metadata.outMimeType ) && Build.VERSION.SDK_INT >= 28 );
+
+		// Decoding in bands only helps if the decoded bitmap would otherwise be scaled or rotated into a second bitmap
+		boolean decodeInBands = canDecodeInBands && ( isOrientationCorrected || GetDecodedSize( width, height, sampleSize, maxSize )[2] > maxSize );
+		Bitmap.Config config = Bitmap.Config.ARGB_8888;
+		if( memoryBudget > 0L )
+		{
+			boolean isOpaque = "image/jpeg".equals( metadata.outMimeType );
+
+			long peakMemory;
+			while( ( peakMemory = GetDecodePeakMemory( width, height, sampleSize, maxSize, config, isOrientationCorrected, decodeInBands ) ) > memoryBudget )
+			{
+				if( isOpaque && config == Bitmap.Config.ARGB_8888 )
+					config = Bitmap.Config.RGB_565;
+				else if( width / sampleSize > 1 || height / sampleSize > 1 )
+				{
+					sampleSize *= 2;
+					decodeInBands = canDecodeInBands && ( isOrientationCorrected || GetDecodedSize( width, height, sampleSize, maxSize )[2] > maxSize );
+				}
+				else
+					break;
+			}
+
+			if( peakMemory > memoryBudget )
+				Log.w( "Unity", "Image can't be decoded within the memory budget: " + peakMemory + " > " + memoryBudget );
+		}
+
+		if( decodeInBands )
+		{
+			try
+			{
+				return DecodeImageInBands( path, metadata, orientation, maxSize, sampleSize, config, cancellationToken );
+			}
+			catch( IOException e )
+			{
+				// E.g. BitmapRegionDecoder doesn't support progressive JPEGs on some devices
+				Log.w( "Unity", "Couldn't decode image in bands, decoding it as a whole: " + e );
+			}
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = config;
+
+		int[] decodedSize = GetDecodedSize( width, height, sampleSize, maxSize );
+		if( decodedSize[2] > maxSize )
+		{
+			options.inScaled = true;
+			options.inDensity = decodedSize[2];
+			options.inTargetDensity = maxSize;
+		}
+		else
+			options.inScaled = false;
+
+		options.inMutable = true;
+		options.inBitmap = NativeCameraBitmapPool.GetDirty( decodedSize[0], decodedSize[1], config );
+
+		Bitmap bitmap;
+		if( cancellationToken != null )
+			cancellationToken.RegisterDecode( options );
+
+		try
+		{
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			bitmap = BitmapFactory.decodeFile( path, options );
+		}
+		catch( IllegalArgumentException e )
+		{
+			if( options.inBitmap == null )
+				throw e;
+
+			// Pooled bitmap couldn't be reused (e.g. decoded image requires a different Bitmap.Config), decode into a new bitmap
+			NativeCameraBitmapPool.Put( options.inBitmap );
+			options.inBitmap = null;
+			bitmap = BitmapFactory.decodeFile( path, options );
+		}
+		finally
+		{
+			if( cancellationToken != null )
+				cancellationToken.UnregisterDecode( options );
+		}
+
+		if( options.inBitmap != null && bitmap != options.inBitmap )
+			NativeCameraBitmapPool.Put( options.inBitmap );
+
+		if( bitmap == null )
+		{
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			throw new IOException( "Couldn't decode image: " + path );
+		}
+
+		if( isOrientationCorrected )
+		{
+			try
+			{
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+				Bitmap transformedBitmap = ApplyImageOrientation( bitmap, orientation );
+				NativeCameraBitmapPool.Put( bitmap );
+				bitmap = transformedBitmap;
+			}
+			catch( RuntimeException e )
+			{
+				NativeCameraBitmapPool.Put( bitmap );
+				throw e;
+			}
+		}
+
+		return bitmap;
+	}
+
+	// Returns { width, height, longest side } of the image after sampling it with sampleSize and { width, height } after scaling it
+	// down to maxSize (the latter two are equal to the former if no scaling is needed)
+	private static int[] GetDecodedSize( final int width, final int height, final int sampleSize, final int maxSize )
+	{
+		// Decoders round the sampled dimensions differently (e.g. JPEG rounds up, PNG rounds down), assume the larger one so that
+		// the scaled bitmap never exceeds maxSize
+		int sampledWidth = ( width + sampleSize - 1 ) / sampleSize;
+		int sampledHeight = ( height + sampleSize - 1 ) / sampleSize;
+		int sampledLongestSide = Math.max( sampledWidth, sampledHeight );
+		if( sampledLongestSide <= maxSize )
+			return new int[] { sampledWidth, sampledHeight, sampledLongestSide, sampledWidth, sampledHeight };
+
+		// Same rounding as BitmapFactory
+		float scale = maxSize / (float) sampledLongestSide;
+		return new int[] { (int) ( sampledWidth * scale + 0.5f ), (int) ( sampledHeight * scale + 0.5f ), sampledLongestSide, sampledWidth, sampledHeight };
+	}
+
+	// Estimates the bitmap memory allocated while decoding the image with the given parameters
+	private static long GetDecodePeakMemory( final int width, final int height, final int sampleSize, final int maxSize, final Bitmap.Config config, final boolean isOrientationCorrected, final boolean decodeInBands )
+	{
+		int bytesPerPixel = ( config == Bitmap.Config.RGB_565 ) ? 2 : 4;
+		int[] decodedSize = GetDecodedSize( width, height, sampleSize, maxSize );
+		long decodedBytes = (long) decodedSize[0] * decodedSize[1] * bytesPerPixel;
+		long sampledBytes = (long) decodedSize[3] * decodedSize[4] * bytesPerPixel;
+
+		if( decodeInBands ) // Destination bitmap + a single band
+			return decodedBytes + (long) decodedSize[3] * Math.min( DECODE_BAND_HEIGHT, decodedSize[4] ) * bytesPerPixel;
+
+		// BitmapFactory decodes the sampled image into a temporary bitmap before scaling it down to the target density
+		long peakMemory = decodedBytes;
+		if( sampledBytes != decodedBytes )
+			peakMemory += sampledBytes;
+		if( isOrientationCorrected )
+			peakMemory = Math.max( peakMemory, decodedBytes * 2L );
+
+		return peakMemory;
+	}
+
+	// Decodes the image in horizontal bands with BitmapRegionDecoder and draws each band directly into the scaled and orientation-corrected
+	// destination bitmap, so that the whole sampled image is never in memory at once
+	private static Bitmap DecodeImageInBands( final String path, final BitmapFactory.Options metadata, final int orientation, final int maxSize, final int sampleSize, final Bitmap.Config config, final NativeCameraCancellationToken cancellationToken ) throws IOException
+	{
+		int[] decodedSize = GetDecodedSize( metadata.outWidth, metadata.outHeight, sampleSize, maxSize );
+		float scale = decodedSize[0] / (float) decodedSize[3];
+
+		Matrix transformationMatrix = GetImageOrientationCorrectionMatrix( orientation, scale );
+		RectF bounds = new RectF( 0f, 0f, decodedSize[3], decodedSize[4] );
+		transformationMatrix.mapRect( bounds );
+		transformationMatrix.postTranslate( -bounds.left, -bounds.top );
+
+		BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance( path, false );
+		if( decoder == null )
+			throw new IOException( "Couldn't create BitmapRegionDecoder for: " + path );
+
+		Bitmap result = null;
+		Bitmap band = null;
+		try
+		{
+			result = NativeCameraBitmapPool.Get( Math.round( bounds.width() ), Math.round( bounds.height() ), config );
+			Canvas canvas = new Canvas( result );
+			Paint paint = new Paint( Paint.FILTER_BITMAP_FLAG );
+
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inSampleSize = sampleSize;
+			options.inPreferredConfig = config;
+			options.inMutable = true;
+
+			// The band bitmap is reused for all bands. BitmapRegionDecoder doesn't resize the reused bitmap for the shorter last band
+			// but the leftover rows at its bottom fall outside the destination bitmap, so they aren't drawn
+			band = NativeCameraBitmapPool.GetDirty( decodedSize[3], DECODE_BAND_HEIGHT, config );
+			int bandHeight = DECODE_BAND_HEIGHT * sampleSize;
+			for( int y = 0; y < metadata.outHeight; y += bandHeight )
+			{
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+
+				Rect region = new Rect( 0, y, metadata.outWidth, Math.min( y + bandHeight, metadata.outHeight ) );
+
+				options.inBitmap = band;
+				try
+				{
+					band = decoder.decodeRegion( region, options );
+				}
+				catch( IllegalArgumentException e )
+				{
+					if( options.inBitmap == null )
+						throw e;
+
+					NativeCameraBitmapPool.Put( options.inBitmap );
+					options.inBitmap = null;
+					band = null;
+					band = decoder.decodeRegion( region, options );
+				}
+
+				if( options.inBitmap != null && band != options.inBitmap )
+					NativeCameraBitmapPool.Put( options.inBitmap );
+
+				if( band == null )
+					throw new IOException( "Couldn't decode image: " + path );
+
+				Matrix bandMatrix = new Matrix( transformationMatrix );
+				bandMatrix.preTranslate( 0f, y / sampleSize );
+				canvas.drawBitmap( band, bandMatrix, paint );
+			}
+
+			result.setHasAlpha( band.hasAlpha() );
+			return result;
+		}
+		catch( IOException e )
+		{
+			NativeCameraBitmapPool.Put( result );
+			throw e;
+		}
+		catch( RuntimeException e )
+		{
+			NativeCameraBitmapPool.Put( result );
+			throw e;
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( band );
+			decoder.recycle();
+		}
+	}
+
+	// Draws the bitmap into a (pooled) bitmap of the rotated size. Unlike Bitmap.createBitmap, there is no intermediate
+	// allocation so the peak memory usage is exactly the source bitmap plus the destination bitmap
+	public static Bitmap ApplyImageOrientation( final Bitmap bitmap, final int orientation )
+	{
+		Matrix transformationMatrix = GetImageOrientationCorrectionMatrix( orientation, 1f );
+		RectF bounds = new RectF( 0f, 0f, bitmap.getWidth(), bitmap.getHeight() );
+		transformationMatrix.mapRect( bounds );
+		transformationMatrix.postTranslate( -bounds.left, -bounds.top );
+
+		Bitmap.Config config = bitmap.getConfig();
+		if( config == null )
+			config = Bitmap.Config.ARGB_8888;
+
+		Bitmap result = NativeCameraBitmapPool.Get( Math.round( bounds.width() ), Math.round( bounds.height() ), config );
+		new Canvas( result ).drawBitmap( bitmap, transformationMatrix, new Paint( Paint.FILTER_BITMAP_FLAG ) );
+		result.setHasAlpha( bitmap.hasAlpha() );
+
+		return result;
+	}
+
+	// Encodes the bitmap with the specified ENCODE_FORMAT_* and quality (0-100, ignored by PNG)
+	public static void CompressBitmap( final Bitmap bitmap, final int encodeFormat, final int quality, final OutputStream out ) throws IOException
+	{
+		Bitmap.CompressFormat format;
+		switch( encodeFormat )
+		{
+			case ENCODE_FORMAT_JPEG:
+				format = Bitmap.CompressFormat.JPEG;
+				break;
+			case ENCODE_FORMAT_PNG:
+				format = Bitmap.CompressFormat.PNG;
+				break;
+			case ENCODE_FORMAT_WEBP_LOSSY:
+				format = ( Build.VERSION.SDK_INT >= 30 ) ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+				break;
+			case ENCODE_FORMAT_WEBP_LOSSLESS:
+				format = ( Build.VERSION.SDK_INT >= 30 ) ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+				break;
+			default:
+				RemoveAlphaIfOpaque( bitmap );
+				format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+				break;
+		}
+
+		if( !bitmap.compress( format, Math.max( 0, Math.min( 100, quality ) ), out ) )
+			throw new IOException( "Couldn't encode bitmap as " + format );
+	}
+
+	// Decoders mark most bitmaps as having alpha even if all of their pixels are opaque (e.g. PNGs with an unused alpha channel).
+	// Clearing the flag lets them be encoded as JPEG/RGB24 instead of PNG/RGBA32
+	public static void RemoveAlphaIfOpaque( final Bitmap bitmap )
+	{
+		if( !bitmap.hasAlpha() || bitmap.getConfig() == Bitmap.Config.ALPHA_8 )
+			return;
+
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] row = new int[width];
+		for( int y = 0; y < height; y++ )
+		{
+			bitmap.getPixels( row, 0, width, 0, y, width, 1 );
+			for( int x = 0; x < width; x++ )
+			{
+				if( ( row[x] >>> 24 ) != 0xFF )
+					return;
+			}
+		}
+
+		if( bitmap.isMutable() )
+			bitmap.setHasAlpha( false );
+	}
+
+	// Grayscale images store only the luminance (alpha is discarded). RGB_565 bitmaps (see DecodeImage) are stored as is
+	private static int GetRawImageFormat( final Bitmap bitmap, final boolean grayscale )
+	{
+		if( grayscale )
+			return RAW_IMAGE_FORMAT_GRAYSCALE8;
+		if( bitmap.getConfig() == Bitmap.Config.RGB_565 )
+			return RAW_IMAGE_FORMAT_RGB565;
+
+		return bitmap.hasAlpha() ? RAW_IMAGE_FORMAT_RGBA32 : RAW_IMAGE_FORMAT_RGB24;
+	}
+
+	public static int GetRawImageSize( final Bitmap bitmap )
+	{
+		return GetRawImageSize( bitmap, GetRawImageFormat( bitmap, false ), false );
+	}
+
+	public static int GetRawImageSize( final Bitmap bitmap, final int format, final boolean generateMipmaps )
+	{
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int pixelCount = width * height;
+		if( generateMipmaps )
+		{
+			for( int i = 1; i < GetMipCount( width, height ); i++ )
+				pixelCount += Math.max( 1, width >> i ) * Math.max( 1, height >> i );
+		}
+
+		return RAW_IMAGE_HEADER_SIZE + pixelCount * format;
+	}
+
+	// Number of mip levels in a full mip chain, down to 1x1 (same as Unity)
+	private static int GetMipCount( final int width, final int height )
+	{
+		return 32 - Integer.numberOfLeadingZeros( Math.max( width, height ) );
+	}
+
+	public static void WriteRawImage( final Bitmap bitmap, final FileChannel channel ) throws IOException
+	{
+		WriteRawImage( bitmap, channel, GetRawImageFormat( bitmap, false ), false );
+	}
+
+	public static void WriteRawImage( final Bitmap bitmap, final FileChannel channel, final int format, final boolean generateMipmaps ) throws IOException
+	{
+		int rowStride = bitmap.getWidth() * format;
+		ByteBuffer buffer = ByteBuffer.allocateDirect( Math.max( rowStride, RAW_IMAGE_WRITE_BUFFER_SIZE - RAW_IMAGE_WRITE_BUFFER_SIZE % rowStride ) );
+		buffer.order( ByteOrder.LITTLE_ENDIAN );
+
+		WriteRawImage( bitmap, buffer, channel, format, generateMipmaps );
+	}
+
+	public static void WriteRawImage( final Bitmap bitmap, final ByteBuffer buffer, final FileChannel channel ) throws IOException
+	{
+		WriteRawImage( bitmap, buffer, channel, GetRawImageFormat( bitmap, false ), false );
+	}
+
+	// Raw image layout: 20 bytes header (width, height, format, row stride, mip count as little endian ints) followed by tightly packed
+	// Grayscale8/RGB565/RGB24/RGBA32 rows (format stores bytes per pixel). Rows are written bottom to top since that is what Unity expects.
+	// If mip count is greater than 1, the smaller mip levels follow the image in the same layout, so the pixel data can be passed to
+	// Texture2D.LoadRawTextureData as is. If channel isn't null, buffer is used as a scratch buffer and flushed to channel whenever it fills up
+	public static void WriteRawImage( final Bitmap bitmap, final ByteBuffer buffer, final FileChannel channel, final int format, final boolean generateMipmaps ) throws IOException
+	{
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int mipCount = generateMipmaps ? GetMipCount( width, height ) : 1;
+
+		buffer.putInt( width ).putInt( height ).putInt( format ).putInt( width * format ).putInt( mipCount );
+
+		// Bitmap.getPixels returns un-premultiplied colors, unlike copyPixelsToBuffer
+		int[] rowPixels = new int[width];
+		for( int y = height - 1; y >= 0; y-- )
+		{
+			bitmap.getPixels( rowPixels, 0, width, 0, y, width, 1 );
+			WriteRawImageRow( rowPixels, 0, width, format, buffer, channel );
+		}
+
+		// Each mip level is downsampled from the previous one with a 2x2 box filter. The first one is downsampled from the bitmap
+		// two rows at a time so that the image isn't copied to the Java heap as a whole
+		int[] mipPixels = null;
+		int mipWidth = width, mipHeight = height;
+		for( int i = 1; i < mipCount; i++ )
+		{
+			int[] sourcePixels = mipPixels;
+			int sourceWidth = mipWidth, sourceHeight = mipHeight;
+			mipWidth = Math.max( 1, sourceWidth >> 1 );
+			mipHeight = Math.max( 1, sourceHeight >> 1 );
+			mipPixels = new int[mipWidth * mipHeight];
+
+			if( sourcePixels == null )
+			{
+				int[] sourceRows = new int[width * 2];
+				for( int y = 0; y < mipHeight; y++ )
+				{
+					bitmap.getPixels( sourceRows, 0, width, 0, y * 2, width, 1 );
+					bitmap.getPixels( sourceRows, width, width, 0, Math.min( y * 2 + 1, sourceHeight - 1 ), width, 1 );
+					DownsampleRow( sourceRows, 0, width, sourceWidth, mipPixels, y * mipWidth, mipWidth );
+				}
+			}
+			else
+			{
+				for( int y = 0; y < mipHeight; y++ )
+					DownsampleRow( sourcePixels, y * 2 * sourceWidth, Math.min( y * 2 + 1, sourceHeight - 1 ) * sourceWidth, sourceWidth, mipPixels, y * mipWidth, mipWidth );
+			}
+
+			for( int y = mipHeight - 1; y >= 0; y-- )
+				WriteRawImageRow( mipPixels, y * mipWidth, mipWidth, format, buffer, channel );
+		}
+
+		if( channel != null )
+			FlushBuffer( buffer, channel );
+	}
+
+	private static void WriteRawImageRow( final int[] pixels, final int offset, final int width, final int format, final ByteBuffer buffer, final FileChannel channel ) throws IOException
+	{
+		if( channel != null && buffer.remaining() < width * format )
+			FlushBuffer( buffer, channel );
+
+		if( format == RAW_IMAGE_FORMAT_RGBA32 )
+		{
+			for( int x = offset, end = offset + width; x < end; x++ )
+			{
+				int pixel = pixels[x];
+				buffer.putInt( ( pixel & 0xFF00FF00 ) | ( ( pixel >> 16 ) & 0xFF ) | ( ( pixel & 0xFF ) << 16 ) ); // ARGB -> ABGR (RGBA in little endian)
+			}
+		}
+		else if( format == RAW_IMAGE_FORMAT_RGB24 )
+		{
+			for( int x = offset, end = offset + width; x < end; x++ )
+			{
+				int pixel = pixels[x];
+				buffer.put( (byte) ( pixel >> 16 ) ).put( (byte) ( pixel >> 8 ) ).put( (byte) pixel );
+			}
+		}
+		else if( format == RAW_IMAGE_FORMAT_RGB565 )
+		{
+			for( int x = offset, end = offset + width; x < end; x++ )
+			{
+				int pixel = pixels[x];
+				buffer.putShort( (short) ( ( ( pixel >> 8 ) & 0xF800 ) | ( ( pixel >> 5 ) & 0x07E0 ) | ( ( pixel >> 3 ) & 0x001F ) ) );
+			}
+		}
+		else
+		{
+			for( int x = offset, end = offset + width; x < end; x++ )
+			{
+				int pixel = pixels[x];
+				buffer.put( (byte) ( ( ( ( pixel >> 16 ) & 0xFF ) * 77 + ( ( pixel >> 8 ) & 0xFF ) * 150 + ( pixel & 0xFF ) * 29 + 128 ) >> 8 ) ); // Rec. 601 luma
+			}
+		}
+	}
+
+	// Averages each 2x2 block of the two source rows into a destination pixel. Colors are weighted by their alpha so that the colors of
+	// fully transparent pixels don't bleed into their neighbours
+	private static void DownsampleRow( final int[] source, final int row0, final int row1, final int sourceWidth, final int[] destination, final int destinationOffset, final int destinationWidth )
+	{
+		for( int x = 0; x < destinationWidth; x++ )
+		{
+			int x0 = x * 2;
+			int x1 = Math.min( x0 + 1, sourceWidth - 1 );
+			int p0 = source[row0 + x0], p1 = source[row0 + x1], p2 = source[row1 + x0], p3 = source[row1 + x1];
+
+			int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+			int alphaSum = a0 + a1 + a2 + a3;
+			int r, g, b;
+			if( alphaSum == 0 )
+			{
+				r = ( ( ( p0 >> 16 ) & 0xFF ) + ( ( p1 >> 16 ) & 0xFF ) + ( ( p2 >> 16 ) & 0xFF ) + ( ( p3 >> 16 ) & 0xFF ) + 2 ) >> 2;
+				g = ( ( ( p0 >> 8 ) & 0xFF ) + ( ( p1 >> 8 ) & 0xFF ) + ( ( p2 >> 8 ) & 0xFF ) + ( ( p3 >> 8 ) & 0xFF ) + 2 ) >> 2;
+				b = ( ( p0 & 0xFF ) + ( p1 & 0xFF ) + ( p2 & 0xFF ) + ( p3 & 0xFF ) + 2 ) >> 2;
+			}
+			else
+			{
+				int halfAlphaSum = alphaSum >> 1;
+				r = ( ( ( p0 >> 16 ) & 0xFF ) * a0 + ( ( p1 >> 16 ) & 0xFF ) * a1 + ( ( p2 >> 16 ) & 0xFF ) * a2 + ( ( p3 >> 16 ) & 0xFF ) * a3 + halfAlphaSum ) / alphaSum;
+				g = ( ( ( p0 >> 8 ) & 0xFF ) * a0 + ( ( p1 >> 8 ) & 0xFF ) * a1 + ( ( p2 >> 8 ) & 0xFF ) * a2 + ( ( p3 >> 8 ) & 0xFF ) * a3 + halfAlphaSum ) / alphaSum;
+				b = ( ( p0 & 0xFF ) * a0 + ( p1 & 0xFF ) * a1 + ( p2 & 0xFF ) * a2 + ( p3 & 0xFF ) * a3 + halfAlphaSum ) / alphaSum;
+			}
+
+			destination[destinationOffset + x] = ( ( ( alphaSum + 2 ) >> 2 ) << 24 ) | ( r << 16 ) | ( g << 8 ) | b;
+		}
+	}
+
+	private static void FlushBuffer( final ByteBuffer buffer, final FileChannel channel ) throws IOException
+	{
+		buffer.flip();
+		while( buffer.hasRemaining() )
+			channel.write( buffer );
+
+		buffer.clear();
+	}
+
+	public static void DeleteFileSilently( final String path )
+	{
+		try
+		{
+			File file = new File( path );
+			if( file.exists() )
+				file.delete();
+		}
+		catch( Exception e )
+		{
+		}
+	}
+
+	public static String GetImageProperties( Context context, final String path )
+	{
+		int[] properties = new int[IMAGE_PROPERTIES_LENGTH];
+		String mimeType = CalculateImageProperties( context, path, properties, 0 );
+		if( mimeType == null )
+			return "";
+
+		return properties[0] + ">" + properties[1] + ">" + mimeType + ">" + properties[3];
+	}
+
+	// Same as GetImageProperties but the properties are returned as { width, height, MIME type code (MIME_TYPE_*), orientation }.
+	// If the image can't be read, the array is { 0, 0, MIME_TYPE_UNKNOWN, -1 }
+	public static int[] GetImagePropertiesArray( Context context, final String path )
+	{
+		int[] result = new int[IMAGE_PROPERTIES_LENGTH];
+		CalculateImageProperties( context, path, result, 0 );
+		return result;
+	}
+
+	// Returns the properties of all images in a single flat array, i.e. image i's properties start at index i * IMAGE_PROPERTIES_LENGTH
+	public static int[] GetImagePropertiesBatch( Context context, final String[] paths )
+	{
+		int[] result = new int[paths.length * IMAGE_PROPERTIES_LENGTH];
+		for( int i = 0; i < paths.length; i++ )
+			CalculateImageProperties( context, paths[i], result, i * IMAGE_PROPERTIES_LENGTH );
+
+		return result;
+	}
+
+	// Writes the image's properties to result starting from offset and returns its MIME type ("" if unknown), or null if the image
+	// can't be read. Width and height are in the image's display orientation, orientation is in NativeCamera.ImageOrientation format (Unity)
+	private static String CalculateImageProperties( Context context, final String path, final int[] result, final int offset )
+	{
+		result[offset] = 0;
+		result[offset + 1] = 0;
+		result[offset + 2] = MIME_TYPE_UNKNOWN;
+		result[offset + 3] = -1;
+
+		BitmapFactory.Options metadata = GetImageMetadata( path );
+		if( metadata == null )
+			return null;
+
+		int width = metadata.outWidth;
+		int height = metadata.outHeight;
+
+		String mimeType = metadata.outMimeType;
+		if( mimeType == null )
+			mimeType = "";
+
+		int orientationUnity;
+		int orientation = GetImageOrientation( context, path );
+		if( orientation == ExifInterface.ORIENTATION_UNDEFINED )
+			orientationUnity = -1;
+		else if( orientation == ExifInterface.ORIENTATION_NORMAL )
+			orientationUnity = 0;
+		else if( orientation == ExifInterface.ORIENTATION_ROTATE_90 )
+			orientationUnity = 1;
+		else if( orientation == ExifInterface.ORIENTATION_ROTATE_180 )
+			orientationUnity = 2;
+		else if( orientation == ExifInterface.ORIENTATION_ROTATE_270 )
+			orientationUnity = 3;
+		else if( orientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL )
+			orientationUnity = 4;
+		else if( orientation == ExifInterface.ORIENTATION_TRANSPOSE )
+			orientationUnity = 5;
+		else if( orientation == ExifInterface.ORIENTATION_FLIP_VERTICAL )
+			orientationUnity = 6;
+		else if( orientation == ExifInterface.ORIENTATION_TRANSVERSE )
+			orientationUnity = 7;
+		else
+			orientationUnity = -1;
+
+		if( orientation == ExifInterface.ORIENTATION_ROTATE_90 || orientation == ExifInterface.ORIENTATION_ROTATE_270 ||
+				orientation == ExifInterface.ORIENTATION_TRANSPOSE || orientation == ExifInterface.ORIENTATION_TRANSVERSE )
+		{
+			int temp = width;
+			width = height;
+			height = temp;
+		}
+
+		result[offset] = width;
+		result[offset + 1] = height;
+		result[offset + 2] = GetMimeTypeCode( mimeType );
+		result[offset + 3] = orientationUnity;
+
+		return mimeType;
+	}
+
+	private static int GetMimeTypeCode( final String mimeType )
+	{
+		if( mimeType.equals( "image/jpeg" ) )
+			return MIME_TYPE_JPEG;
+		if( mimeType.equals( "image/png" ) )
+			return MIME_TYPE_PNG;
+		if( mimeType.equals( "image/gif" ) )
+			return MIME_TYPE_GIF;
+		if( mimeType.equals( "image/bmp" ) || mimeType.equals( "image/x-ms-bmp" ) )
+			return MIME_TYPE_BMP;
+		if( mimeType.equals( "image/webp" ) )
+			return MIME_TYPE_WEBP;
+		if( mimeType.equals( "image/heif" ) || mimeType.equals( "image/heic" ) )
+			return MIME_TYPE_HEIF;
+		if( mimeType.equals( "image/avif" ) )
+			return MIME_TYPE_AVIF;
+
+		return MIME_TYPE_UNKNOWN;
+	}
+
+	@TargetApi( Build.VERSION_CODES.JELLY_BEAN_MR1 )
+	public static String GetVideoProperties( Context context, final String path )
+	{
+		long[] properties = GetVideoPropertiesInternal( path );
+		if( properties == null )
+			return "";
+
+		return properties[0] + ">" + properties[1] + ">" + properties[2] + ">" + properties[3];
+	}
+
+	// Same as GetVideoProperties but the properties are returned as { width, height, duration, rotation }. If the video can't be read,
+	// all values are 0
+	public static long[] GetVideoPropertiesArray( Context context, final String path )
+	{
+		long[] properties = GetVideoPropertiesInternal( path );
+		return ( properties != null ) ? properties.clone() : new long[VIDEO_PROPERTIES_LENGTH];
+	}
+
+	// Returns the properties of all videos in a single flat array, i.e. video i's properties start at index i * VIDEO_PROPERTIES_LENGTH
+	public static long[] GetVideoPropertiesBatch( Context context, final String[] paths )
+	{
+		long[] result = new long[paths.length * VIDEO_PROPERTIES_LENGTH];
+		for( int i = 0; i < paths.length; i++ )
+		{
+			long[] properties = GetVideoPropertiesInternal( paths[i] );
+			if( properties != null )
+				System.arraycopy( properties, 0, result, i * VIDEO_PROPERTIES_LENGTH, VIDEO_PROPERTIES_LENGTH );
+		}
+
+		return result;
+	}
+
+	// Returned array is shared with the metadata cache, it mustn't be modified
+	private static long[] GetVideoPropertiesInternal( final String path )
+	{
+		FileMetadata cachedMetadata = GetCachedMetadata( path );
+		if( cachedMetadata != null && cachedMetadata.videoProperties != null )
+			return cachedMetadata.videoProperties;
+
+		long[] result = CalculateVideoProperties( path );
+		if( cachedMetadata != null && result != null )
+			cachedMetadata.videoProperties = result;
+
+		return result;
+	}
+
+	// Returns { width, height, duration, rotation } or null on failure. MP4/MOV videos' properties are read directly from their 'moov' box,
+	// MediaMetadataRetriever is used for the other containers
+	private static long[] CalculateVideoProperties( final String path )
+	{
+		NativeCameraMp4Parser mp4 = NativeCameraMp4Parser.Parse( path );
+		if( mp4 != null )
+			return new long[] { mp4.width, mp4.height, mp4.duration, mp4.rotation };
+
+		NativeCameraVideoSession session;
+		try
+		{
+			session = NativeCameraVideoSession.Open( path );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return null;
+		}
+
+		try
+		{
+			return session.GetProperties();
+		}
+		finally
+		{
+			session.Close();
+		}
+	}
+
+	// Moves the 'moov' box of the MP4/MOV video to the front of the file in place (see NativeCameraMp4FastStart). Returns false if the video
+	// didn't need it or couldn't be processed, the file is left untouched in that case
+	public static boolean MakeVideoFastStart( Context context, final String path )
+	{
+		File file = new File( path );
+		File tempFile = new File( path + ".faststart" );
+		try
+		{
+			if( !NativeCameraMp4FastStart.Process( path, tempFile.getAbsolutePath() ) )
+				return false;
+
+			if( !tempFile.renameTo( file ) )
+			{
+				Log.e( "Unity", "Couldn't replace video with its faststart version: " + path );
+				return false;
+			}
+
+			// File size changes if the chunk offsets had to be upgraded to 64-bit (Commit ignores the files that don't belong to the store)
+			GetCaptureStore( context ).Commit( path );
+			GetTempStore( context ).Commit( path );
+			return true;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return false;
+		}
+		finally
+		{
+			if( tempFile.exists() )
+				tempFile.delete();
+		}
+	}
+
+	// Returns "width>height>duration>rotation>frameRate>codec>bitrate>hasAudio>keyframeCount" (see NativeCameraMp4Parser) or "" on failure.
+	// For non-MP4/MOV videos, the values are read via MediaMetadataRetriever: codec is empty, keyframeCount is -1 (unknown) and frameRate
+	// is 0 (unknown) prior to Android 9
+	public static String GetVideoDetails( Context context, final String path )
+	{
+		NativeCameraMp4Parser mp4 = NativeCameraMp4Parser.Parse( path );
+		if( mp4 != null )
+			return String.format( Locale.US, "%d>%d>%d>%d>%.3f>%s>%d>%d>%d", mp4.width, mp4.height, mp4.duration, mp4.rotation, mp4.frameRate, mp4.codec, mp4.bitrate, mp4.hasAudio ? 1 : 0, mp4.keyframeCount );
+
+		NativeCameraVideoSession session;
+		try
+		{
+			session = NativeCameraVideoSession.Open( path );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return "";
+		}
+
+		try
+		{
+			long[] properties = session.GetProperties();
+			if( properties == null )
+				return "";
+
+			float frameRate = 0f;
+			if( Build.VERSION.SDK_INT >= 28 && properties[2] > 0L )
+				frameRate = ParseLong( session.ExtractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_FRAME_COUNT ) ) * 1000f / properties[2];
+
+			long bitrate = ParseLong( session.ExtractMetadata( MediaMetadataRetriever.METADATA_KEY_BITRATE ) );
+			boolean hasAudio = "yes".equals( session.ExtractMetadata( MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO ) );
+
+			return String.format( Locale.US, "%d>%d>%d>%d>%.3f>>%d>%d>-1", properties[0], properties[1], properties[2], properties[3], frameRate, bitrate, hasAudio ? 1 : 0 );
+		}
+		finally
+		{
+			session.Close();
+		}
+	}
+
+	// Returns 0 if value is null or not a valid number
+	static long ParseLong( final String value )
+	{
+		if( value == null )
+			return 0L;
+
+		try
+		{
+			return Long.parseLong( value.trim() );
+		}
+		catch( NumberFormatException e )
+		{
+			return 0L;
+		}
+	}
+
+	@TargetApi( Build.VERSION_CODES.Q )
+	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final boolean saveAsJpeg, int maxSize, double captureTime )
+	{
+		return GetVideoThumbnail( context, path, savePath, saveAsJpeg ? ENCODE_FORMAT_JPEG : ENCODE_FORMAT_PNG, 100, maxSize, captureTime );
+	}
+
+	public static String GetVideoThumbnail( Context context, final String path, final String savePath, final int encodeFormat, final int quality, int maxSize, double captureTime )
+	{
+		return GetVideoThumbnail( context, path, savePath, encodeFormat, quality, maxSize, captureTime, null );
+	}
+
+	// Frame extraction itself can't be interrupted, cancellationToken is checked before and after it. If savePath is empty, a unique
+	// path is picked
+	public static String GetVideoThumbnail( Context context, final String path, String savePath, final int encodeFormat, final int quality, int maxSize, double captureTime, final NativeCameraCancellationToken cancellationToken )
+	{
+		return GetVideoThumbnail( context, path, null, savePath, encodeFormat, quality, maxSize, captureTime, cancellationToken );
+	}
+
+	// Same as GetVideoThumbnail but the frame is extracted from an already open session (see NativeCamera.OpenVideoSession)
+	public static String GetVideoThumbnail( Context context, final NativeCameraVideoSession session, String savePath, final int encodeFormat, final int quality, int maxSize, double captureTime, final NativeCameraCancellationToken cancellationToken )
+	{
+		return GetVideoThumbnail( context, null, session, savePath, encodeFormat, quality, maxSize, captureTime, cancellationToken );
+	}
+
+	// If session is null, a session for path is obtained from the pool and closed afterwards. Thumbnails of paths are cached on disk (see
+	// NativeCamera.VideoThumbnailCacheSize): if savePath is empty, the cached file's path is returned, otherwise it is copied to savePath
+	private static String GetVideoThumbnail( Context context, final String path, final NativeCameraVideoSession session, String savePath, final int encodeFormat, final int quality, int maxSize, double captureTime, final NativeCameraCancellationToken cancellationToken )
+	{
+		String cachePath = ( path != null && NativeCamera.VideoThumbnailCacheSize > 0L ) ? GetVideoThumbnailCachePath( context, path, encodeFormat, quality, maxSize, captureTime ) : null;
+		if( cachePath != null )
+		{
+			File cachedThumbnail = new File( cachePath );
+			if( cachedThumbnail.length() > 0L )
+			{
+				Log.d( "Unity", "Using cached thumbnail: " + cachePath );
+
+				GetVideoThumbnailCache( context ).Touch( cachePath );
+				cachedThumbnail.setLastModified( System.currentTimeMillis() ); // Least recently used order is restored from the modification dates in the next session
+
+				return ( savePath == null || savePath.length() == 0 ) ? cachePath : CopyVideoThumbnail( context, cachePath, savePath );
+			}
+		}
+
+		// Cached thumbnails are written to a unique file first and then renamed, so that partially written thumbnails are never served
+		String thumbnailPath;
+		if( cachePath != null )
+			thumbnailPath = GetVideoThumbnailCache( context ).GetNewFilePath( "THUMB", ".part" );
+		else if( savePath == null || savePath.length() == 0 )
+			thumbnailPath = GetTempStore( context ).GetNewFilePath( "THUMB", ".tmp" );
+		else
+			thumbnailPath = savePath;
+
+		Bitmap bitmap = null;
+		FileOutputStream out = null;
+
+		try
+		{
+			if( session == null && captureTime < 0.0 && maxSize <= 1024 )
+			{
+				try
+				{
+					if( Build.VERSION.SDK_INT < Build.VERSION_CODES.Q )
+						bitmap = ThumbnailUtils.createVideoThumbnail( path, maxSize > 512 ? MediaStore.Video.Thumbnails.FULL_SCREEN_KIND : MediaStore.Video.Thumbnails.MINI_KIND );
+					else
+						bitmap = ThumbnailUtils.createVideoThumbnail( new File( path ), maxSize > 512 ? new Size( 1024, 786 ) : new Size( 512, 384 ), null );
+				}
+				catch( Exception e )
+				{
+					Log.e( "Unity", "Exception:", e );
+				}
+			}
+
+			if( bitmap == null )
+			{
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+
+				NativeCameraVideoSession frameSession = ( session != null ) ? session : NativeCameraVideoSession.Open( path );
+				try
+				{
+					long[] properties = frameSession.GetProperties();
+					if( properties != null )
+					{
+						if( properties[0] > 0L && properties[1] > 0L && maxSize > properties[0] && maxSize > properties[1] )
+							maxSize = (int) Math.max( properties[0], properties[1] );
+
+						if( captureTime > properties[2] / 1000.0 && properties[2] > 0L )
+							captureTime = properties[2] / 1000.0;
+					}
+
+					if( captureTime < 0.0 )
+						captureTime = 0.0;
+
+					bitmap = frameSession.GetFrame( (long) ( captureTime * 1000000.0 ), maxSize, maxSize, false );
+				}
+				finally
+				{
+					if( frameSession != session )
+						frameSession.Close();
+				}
+			}
+
+			if( bitmap == null )
+				return "";
+
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			out = new FileOutputStream( thumbnailPath );
+			CompressBitmap( bitmap, encodeFormat, quality, out );
+
+			if( cachePath != null )
+			{
+				out.close();
+				out = null;
+
+				if( !new File( thumbnailPath ).renameTo( new File( cachePath ) ) )
+					throw new IOException( "Couldn't move thumbnail to: " + cachePath );
+
+				GetVideoThumbnailCache( context ).Commit( cachePath );
+				return ( savePath == null || savePath.length() == 0 ) ? cachePath : CopyVideoThumbnail( context, cachePath, savePath );
+			}
+
+			GetTempStore( context ).Commit( thumbnailPath );
+			return thumbnailPath;
+		}
+		catch( CancellationException e )
+		{
+			Log.d( "Unity", "Cancelled generating thumbnail: " + ( ( path != null ) ? path : "video session" ) );
+			return "";
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return "";
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( bitmap );
+
+			try
+			{
+				if( out != null )
+					out.close();
+			}
+			catch( Exception e )
+			{
+			}
+
+			if( cachePath != null )
+				DeleteFileSilently( thumbnailPath ); // No-op if it was renamed successfully
+		}
+	}
+
+	// Returns the path of the video's cached thumbnail for the specified generation parameters (the file may not exist) or null on failure.
+	// The video's size and modification date are a part of the key, so modified videos don't use stale thumbnails
+	private static String GetVideoThumbnailCachePath( Context context, final String path, final int encodeFormat, final int quality, final int maxSize, final double captureTime )
+	{
+		File file = new File( path );
+		if( !file.isFile() )
+			return null;
+
+		try
+		{
+			String key = String.format( Locale.US, "%s>%d>%d>%f>%d>%d>%d", file.getAbsolutePath(), file.length(), file.lastModified(), captureTime, maxSize, encodeFormat, quality );
+			String hash = ToHexString( MessageDigest.getInstance( "SHA-256" ).digest( key.getBytes( "UTF-8" ) ) );
+			return GetVideoThumbnailCache( context ).GetFilePath( "THUMB_" + hash.substring( 0, 40 ) + ".thumb" );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return null;
+		}
+	}
+
+	// Copies the cached thumbnail to savePath. The data is copied instead of hard linked since the caller may overwrite savePath later on.
+	// Returns savePath or "" on failure
+	private static String CopyVideoThumbnail( Context context, final String cachePath, final String savePath )
+	{
+		InputStream input = null;
+		OutputStream output = null;
+		try
+		{
+			input = new FileInputStream( cachePath );
+			output = new FileOutputStream( savePath );
+			CopyStream( input, output, null );
+
+			GetTempStore( context ).Commit( savePath );
+			return savePath;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return "";
+		}
+		finally
+		{
+			try
+			{
+				if( input != null )
+					input.close();
+			}
+			catch( Exception e )
+			{
+			}
+
+			try
+			{
+				if( output != null )
+					output.close();
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+
+	// Returns the video's average frames per second or 0 if it can't be determined
+	private static double GetVideoFrameRate( final String path, final NativeCameraVideoSession session, final long duration )
+	{
+		NativeCameraMp4Parser mp4 = NativeCameraMp4Parser.Parse( path );
+		if( mp4 != null && mp4.frameRate > 0f )
+			return mp4.frameRate;
+
+		if( Build.VERSION.SDK_INT >= 28 && duration > 0L )
+		{
+			long frameCount = ParseLong( session.ExtractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_FRAME_COUNT ) );
+			if( frameCount > 0L )
+				return frameCount * 1000.0 / duration;
+		}
+
+		return 0.0;
+	}
+
+	// Extracts multiple frames from the video with a single MediaMetadataRetriever and packs them into one raw image (see WriteRawImage) in a
+	// grid, so that a scrubbing UI doesn't need a separate thumbnail (and a separate demuxer setup and PNG encode) for each frame. If
+	// captureTimes (in seconds) is null or empty, frameCount evenly spaced frames are extracted. Each frame fits in maxFrameSize x maxFrameSize
+	// and the whole atlas fits in maxAtlasSize x maxAtlasSize (<=0: unlimited). Returns "atlasPath>frameCount" followed by ">x>y>width>height>time"
+	// for each frame (in pixels with top-left origin, time in milliseconds) or "" on failure. If atlasPath is empty, a unique path is picked.
+	// Unlike thumbnails, atlas frames aren't snapped to the nearest keyframe (otherwise neighbouring frames would mostly be duplicates of the
+	// same keyframe). Instead, the capture times are snapped to the video's frame grid and each frame's reported time is the snapped time,
+	// i.e. the presentation time of the frame that is shown (assuming a constant frame rate)
+	public static String GetVideoFrameAtlas( Context context, final String path, String atlasPath, int frameCount, final double[] captureTimes, final int maxFrameSize, final int maxAtlasSize, final NativeCameraCancellationToken cancellationToken )
+	{
+		if( captureTimes != null && captureTimes.length > 0 )
+			frameCount = captureTimes.length;
+
+		if( frameCount <= 0 )
+			return "";
+
+		if( atlasPath == null || atlasPath.length() == 0 )
+			atlasPath = GetTempStore( context ).GetNewFilePath( "ATLAS", ".raw" );
+
+		NativeCameraVideoSession session = null;
+		Bitmap atlas = null;
+		FileOutputStream out = null;
+
+		try
+		{
+			session = NativeCameraVideoSession.Open( path );
+
+			long[] properties = session.GetProperties();
+			if( properties == null || properties[0] <= 0L || properties[1] <= 0L )
+				return "";
+
+			// Extracted frames are already rotated, so the frame size is calculated from the video's display size
+			int videoWidth = (int) properties[0];
+			int videoHeight = (int) properties[1];
+			long duration = properties[2];
+			long rotation = properties[3];
+
+			if( rotation == 90L || rotation == 270L || rotation == -90L )
+			{
+				int temp = videoWidth;
+				videoWidth = videoHeight;
+				videoHeight = temp;
+			}
+
+			double frameRate = GetVideoFrameRate( path, session, duration );
+			long lastFrameIndex = Math.max( 0L, (long) Math.ceil( duration * frameRate / 1000.0 ) - 1L );
+
+			int columns = (int) Math.ceil( Math.sqrt( frameCount ) );
+			int rows = ( frameCount + columns - 1 ) / columns;
+
+			float scale = Math.min( 1f, (float) maxFrameSize / Math.max( videoWidth, videoHeight ) );
+			if( maxAtlasSize > 0 )
+				scale = Math.min( scale, Math.min( (float) maxAtlasSize / ( columns * videoWidth ), (float) maxAtlasSize / ( rows * videoHeight ) ) );
+
+			int frameWidth = Math.max( 1, (int) ( videoWidth * scale ) );
+			int frameHeight = Math.max( 1, (int) ( videoHeight * scale ) );
+
+			atlas = NativeCameraBitmapPool.Get( columns * frameWidth, rows * frameHeight, Bitmap.Config.ARGB_8888 );
+			Canvas canvas = new Canvas( atlas );
+			Paint paint = new Paint( Paint.FILTER_BITMAP_FLAG );
+			Rect frameRect = new Rect();
+
+			StringBuilder frameRects = new StringBuilder( 32 * frameCount );
+			for( int i = 0; i < frameCount; i++ )
+			{
+				NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+
+				long frameTimeUs;
+				if( captureTimes != null && captureTimes.length > 0 )
+					frameTimeUs = Math.max( 0L, Math.min( duration * 1000L, (long) ( captureTimes[i] * 1000000.0 ) ) );
+				else
+					frameTimeUs = duration * 1000L * ( 2L * i + 1L ) / ( 2L * frameCount ); // Middle of each of the frameCount equal segments
+
+				if( frameRate > 0.0 )
+				{
+					long frameIndex = Math.min( lastFrameIndex, Math.round( frameTimeUs * frameRate / 1000000.0 ) );
+					frameTimeUs = Math.round( frameIndex * 1000000.0 / frameRate );
+				}
+
+				long frameTime = Math.round( frameTimeUs / 1000.0 );
+
+				int x = ( i % columns ) * frameWidth;
+				int y = ( i / columns ) * frameHeight;
+
+				Bitmap frame = session.GetFrame( frameTimeUs, frameWidth, frameHeight, true );
+				if( frame != null )
+				{
+					frameRect.set( x, y, x + frameWidth, y + frameHeight );
+					canvas.drawBitmap( frame, null, frameRect, paint );
+					NativeCameraBitmapPool.Put( frame );
+				}
+
+				frameRects.append( '>' ).append( x ).append( '>' ).append( y ).append( '>' ).append( frameWidth ).append( '>' ).append( frameHeight ).append( '>' ).append( frameTime );
+			}
+
+			RemoveAlphaIfOpaque( atlas );
+
+			NativeCameraCancellationToken.ThrowIfCancelled( cancellationToken );
+			out = new FileOutputStream( atlasPath );
+			WriteRawImage( atlas, out.getChannel(), GetRawImageFormat( atlas, false ), false );
+			GetTempStore( context ).Commit( atlasPath );
+
+			return atlasPath + ">" + frameCount + frameRects;
+		}
+		catch( CancellationException e )
+		{
+			Log.d( "Unity", "Cancelled generating frame atlas: " + path );
+			DeleteFileSilently( atlasPath );
+
+			return "";
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			DeleteFileSilently( atlasPath );
+
+			return "";
+		}
+		finally
+		{
+			NativeCameraBitmapPool.Put( atlas );
+
+			if( session != null )
+				session.Close();
 
 			try
 			{
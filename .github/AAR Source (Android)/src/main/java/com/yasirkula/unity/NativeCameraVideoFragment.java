@@ -3,6 +3,7 @@ package com.yasirkula.unity;
 import android.app.Activity;
 import android.app.Fragment;
 import android.content.ActivityNotFoundException;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
@@ -30,12 +31,16 @@ public class NativeCameraVideoFragment extends Fragment
 	public static final String QUALITY_ID = "UNCV_QUALITY";
 	public static final String MAX_DURATION_ID = "UNCV_DURATION";
 	public static final String MAX_SIZE_ID = "UNCV_SIZE";
+	public static final String FILE_DESCRIPTOR_ID = "UNCV_FD";
+
+	private static final int NEW_VIDEOS_QUERY_LIMIT = 8;
 
 	public static boolean provideExtraOutputOnAndroidQ = true;
 
 	private final NativeCameraMediaReceiver mediaReceiver;
 	private String fileTargetPath;
 	private int lastVideoId = Integer.MAX_VALUE;
+	private NativeCameraMediaObserver mediaObserver;
 
 	public NativeCameraVideoFragment()
 	{
@@ -65,33 +70,9 @@ public class NativeCameraVideoFragment extends Fragment
 			long maxSize = getArguments().getLong( MAX_SIZE_ID );
 
 			// Credit: https://stackoverflow.com/a/8555925/2373034
-			// Get the id of the newest video in the Gallery
-			Cursor videoCursor = null;
-			try
-			{
-				videoCursor = getActivity().getContentResolver().query( MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-						new String[] { MediaStore.Video.Media._ID }, null, null, MediaStore.Video.Media._ID + " DESC" );
-				if( videoCursor != null )
-				{
-					if( videoCursor.moveToFirst() )
-						lastVideoId = videoCursor.getInt( videoCursor.getColumnIndex( MediaStore.Video.Media._ID ) );
-					else if( videoCursor.getCount() <= 0 )
-					{
-						// If there are currently no videos in the Gallery, after the video is captured, querying the Gallery with
-						// "_ID > lastVideoId" will return the newly captured video since its ID will always be greater than Integer.MIN_VALUE
-						lastVideoId = Integer.MIN_VALUE;
-					}
-				}
-			}
-			catch( Exception e )
-			{
-				Log.e( "Unity", "Exception:", e );
-			}
-			finally
-			{
-				if( videoCursor != null )
-					videoCursor.close();
-			}
+			// Get the id of the newest video in the Gallery and record the videos that are added to the Gallery during the capture
+			lastVideoId = NativeCameraUtils.GetNewestMediaId( getActivity(), MediaStore.Video.Media.EXTERNAL_CONTENT_URI );
+			mediaObserver = new NativeCameraMediaObserver( getActivity(), MediaStore.Video.Media.EXTERNAL_CONTENT_URI, lastVideoId );
 
 			Intent intent = new Intent( MediaStore.ACTION_VIDEO_CAPTURE );
 
@@ -103,13 +84,11 @@ public class NativeCameraVideoFragment extends Fragment
 			// otherwise we can't delete the copies of the captured video on those devices
 			if( provideExtraOutputOnAndroidQ && Build.VERSION.SDK_INT >= 29 && !Environment.isExternalStorageLegacy() )
 			{
-				File videoFile = new File( getActivity().getCacheDir(), VIDEO_NAME + ".mp4" );
+				// Each capture gets a unique file so that a previous capture's video isn't overwritten while it's still in use
+				File videoFile = new File( NativeCameraUtils.GetCaptureStore( getActivity() ).GetNewFilePath( VIDEO_NAME, ".mp4" ) );
 				try
 				{
-					if( videoFile.exists() )
-						NativeCameraUtils.ClearFileContents( videoFile );
-					else
-						videoFile.createNewFile();
+					videoFile.createNewFile();
 				}
 				catch( Exception e )
 				{
@@ -155,26 +134,46 @@ public class NativeCameraVideoFragment extends Fragment
 		}
 	}
 
+	@Override
+	public void onDestroy()
+	{
+		if( mediaObserver != null )
+			mediaObserver.Stop();
+
+		super.onDestroy();
+	}
+
 	@Override
 	public void onActivityResult( int requestCode, int resultCode, Intent data )
 	{
 		if( requestCode != CAMERA_VIDEO_CODE )
 			return;
 
+		long[] insertedVideoIds = ( mediaObserver != null ) ? mediaObserver.Stop() : null;
+
 		File result = null;
+		String fileDescriptor = null; // If set, the video is read in place via this file descriptor instead of being copied
 		if( resultCode == Activity.RESULT_OK )
 		{
 			if( data != null )
 			{
-				String path = NativeCameraUtils.GetPathFromURIOrCopyFile( getActivity(), data.getData(), fileTargetPath );
-				if( path != null && path.length() > 0 )
+				String path;
+				if( getArguments() != null && getArguments().getBoolean( FILE_DESCRIPTOR_ID ) )
+					path = NativeCameraUtils.GetPathFromURIOrFileDescriptor( getActivity(), data.getData(), fileTargetPath );
+				else
+					path = NativeCameraUtils.GetPathFromURIOrCopyFile( getActivity(), data.getData(), fileTargetPath );
+
+				if( path != null && path.startsWith( NativeCameraUtils.FILE_DESCRIPTOR_PREFIX ) )
+					fileDescriptor = path;
+				else if( path != null && path.length() > 0 )
 					result = new File( path );
 			}
 
-			if( ( result == null || !result.exists() || result.length() == 0 ) && fileTargetPath != null && fileTargetPath.length() > 0 )
+			if( fileDescriptor == null && ( result == null || !result.exists() || result.length() == 0 ) && fileTargetPath != null && fileTargetPath.length() > 0 )
 				result = new File( fileTargetPath );
 
-			if( lastVideoId != 0L ) // it got reset somehow?
+			// The file descriptor may belong to the Gallery item itself, so the Gallery isn't checked for duplicates in that case
+			if( lastVideoId != 0L && fileDescriptor == null ) // it got reset somehow?
 			{
 				// Credit: https://stackoverflow.com/a/8555925/2373034
 				// Check if the video is saved to the Gallery
@@ -182,8 +181,7 @@ public class NativeCameraVideoFragment extends Fragment
 				try
 				{
 					final String[] videoColumns = { MediaStore.Video.Media.DATA, MediaStore.Video.Media.SIZE, MediaStore.Video.Media._ID };
-					videoCursor = getActivity().getContentResolver().query( MediaStore.Video.Media.EXTERNAL_CONTENT_URI, videoColumns,
-							MediaStore.Video.Media._ID + ">?", new String[] { "" + lastVideoId }, MediaStore.Video.Media._ID + " DESC" );
+					videoCursor = NativeCameraUtils.QueryNewMedia( getActivity(), MediaStore.Video.Media.EXTERNAL_CONTENT_URI, videoColumns, insertedVideoIds, lastVideoId, NEW_VIDEOS_QUERY_LIMIT );
 					while( videoCursor != null && videoCursor.moveToNext() )
 					{
 						String path = videoCursor.getString( videoCursor.getColumnIndex( MediaStore.Video.Media.DATA ) );
@@ -200,7 +198,6 @@ public class NativeCameraVideoFragment extends Fragment
 									if( extensionIndex > 0 && extensionIndex < path.length() - 1 && extensionIndex > path.lastIndexOf( File.separatorChar ) )
 										extension = path.substring( extensionIndex ).toLowerCase( Locale.US );
 
-									File copiedFile = new File( getActivity().getCacheDir(), VIDEO_NAME + extension );
 									Uri contentUri;
 									try
 									{
@@ -212,7 +209,18 @@ public class NativeCameraVideoFragment extends Fragment
 										contentUri = null;
 									}
 
-									NativeCameraUtils.CopyFile( getActivity(), new File( path ), copiedFile, contentUri );
+									File copiedFile;
+									if( NativeCamera.DeduplicateCopies )
+									{
+										String copiedPath = NativeCameraUtils.CopyFileDeduplicated( getActivity(), new File( path ), contentUri, extension );
+										copiedFile = new File( copiedPath != null ? copiedPath : "" );
+									}
+									else
+									{
+										// The Gallery item is deleted afterwards unless KeepGalleryReferences is true, so it can be moved instead of copied
+										copiedFile = new File( NativeCameraUtils.GetCaptureStore( getActivity() ).GetNewFilePath( VIDEO_NAME, extension ) );
+										NativeCameraUtils.CopyFile( getActivity(), new File( path ), copiedFile, contentUri, !NativeCamera.KeepGalleryReferences );
+									}
 
 									if( copiedFile.length() > 1L )
 									{
@@ -249,11 +257,58 @@ public class NativeCameraVideoFragment extends Fragment
 			}
 		}
 
+		// Register the returned file with the capture store (captures and copies of media are kept until they're deleted explicitly, since
+		// Unity may still be using them) and delete the unused EXTRA_OUTPUT file, if any
+		NativeCameraTempStore captureStore = NativeCameraUtils.GetCaptureStore( getActivity() );
+		if( result != null && result.exists() && result.length() > 1L )
+			captureStore.Commit( result.getAbsolutePath() );
+		if( fileTargetPath != null && ( result == null || !new File( fileTargetPath ).equals( result ) ) )
+			captureStore.Delete( fileTargetPath );
+
+		if( fileDescriptor != null )
+		{
+			Log.d( "Unity", "NativeCameraVideoFragment.onActivityResult: " + fileDescriptor );
+			if( mediaReceiver != null )
+				mediaReceiver.OnMediaReceived( fileDescriptor );
+			else
+			{
+				NativeCameraUtils.CloseFileDescriptor( Integer.parseInt( fileDescriptor.substring( NativeCameraUtils.FILE_DESCRIPTOR_PREFIX.length(), fileDescriptor.indexOf( '>' ) ) ) );
+				Log.e( "Unity", "NativeCameraVideoFragment.mediaReceiver became null in onActivityResult!" );
+			}
+
+			getFragmentManager().beginTransaction().remove( this ).commitAllowingStateLoss();
+			return;
+		}
+
 		Log.d( "Unity", "NativeCameraVideoFragment.onActivityResult: " + ( ( result == null ) ? "null" : ( ( result.exists() ? result.length() : -1 ) + " " + result.getAbsolutePath() ) ) );
-		if( mediaReceiver != null )
-			mediaReceiver.OnMediaReceived( ( result != null && result.exists() && result.length() > 1L ) ? result.getAbsolutePath() : "" );
-		else
+		final String resultPath = ( result != null && result.exists() && result.length() > 1L ) ? result.getAbsolutePath() : "";
+		if( mediaReceiver == null )
 			Log.e( "Unity", "NativeCameraVideoFragment.mediaReceiver became null in onActivityResult!" );
+		else if( NativeCamera.FastStartRecordedVideos && resultPath.length() > 0 && captureStore.IsInStore( result ) )
+		{
+			// Only our own captures and copies are rewritten (not Gallery items). Rewriting a long video takes a while,
+			// so it's done on a worker thread and the result is passed afterwards
+			final Context context = getActivity().getApplicationContext();
+			final NativeCameraMediaReceiver receiver = mediaReceiver;
+			NativeCameraTaskQueue.Enqueue( false, NativeCameraTaskQueue.PRIORITY_HIGH, null, new NativeCameraResultReceiver()
+			{
+				@Override
+				public void OnResultReceived( String value )
+				{
+					receiver.OnMediaReceived( resultPath );
+				}
+			}, new NativeCameraTaskQueue.Function()
+			{
+				@Override
+				public String Run()
+				{
+					NativeCameraUtils.MakeVideoFastStart( context, resultPath );
+					return resultPath;
+				}
+			} );
+		}
+		else
+			mediaReceiver.OnMediaReceived( resultPath );
 
 		getFragmentManager().beginTransaction().remove( this ).commitAllowingStateLoss();
 	}
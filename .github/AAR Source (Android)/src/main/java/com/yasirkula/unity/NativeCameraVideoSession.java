@@ -0,0 +1,302 @@
+package com.yasirkula.unity;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A MediaMetadataRetriever that is opened for a video once and queried many times. Setting up the retriever (parsing the container and
+// creating the decoder) is most of the cost of reading a video's properties or a single frame, so closed sessions are kept in a small
+// pool keyed by the video's path (plus its size and modification date, so that modified files aren't served stale data) and are reused
+// by the next session that opens the same video. Pooled sessions that stay idle for too long are released. Sessions can also be
+// opened by Unity via integer handles (see NativeCamera.OpenVideoSession), these must be closed explicitly. Since queries on a handle
+// run on worker threads, handle sessions are reference counted: a handle that is closed while it's being queried is returned to the
+// pool after the last of those queries finishes
+public class NativeCameraVideoSession
+{
+	private static final int MAX_IDLE_SESSIONS = 4;
+	private static final long IDLE_TIMEOUT = 30000L; // Milliseconds
+
+	private static final LinkedList<NativeCameraVideoSession> idleSessions = new LinkedList<NativeCameraVideoSession>(); // Least recently used first
+	private static final HashMap<Integer, NativeCameraVideoSession> openSessions = new HashMap<Integer, NativeCameraVideoSession>();
+	private static final AtomicInteger nextHandle = new AtomicInteger( 1 );
+	private static ScheduledThreadPoolExecutor evictionExecutor = null;
+	private static boolean isEvictionScheduled = false;
+
+	private final String key;
+	private final MediaMetadataRetriever retriever;
+	private long idleSince;
+	private boolean isFaulted = false;
+	private int handleReferenceCount; // openSessions holds a reference, as does each call that is using the session via its handle. Guarded by openSessions
+
+	private NativeCameraVideoSession( final String key, final MediaMetadataRetriever retriever )
+	{
+		this.key = key;
+		this.retriever = retriever;
+	}
+
+	// Returns a session for the video either from the pool or by opening the video. Throws if the video can't be opened. The session
+	// must be closed via Close after use
+	public static NativeCameraVideoSession Open( final String path )
+	{
+		File file = new File( path );
+		String key = path + ">" + file.length() + ">" + file.lastModified();
+
+		synchronized( idleSessions )
+		{
+			Iterator<NativeCameraVideoSession> iterator = idleSessions.descendingIterator();
+			while( iterator.hasNext() )
+			{
+				NativeCameraVideoSession session = iterator.next();
+				if( session.key.equals( key ) )
+				{
+					iterator.remove();
+					return session;
+				}
+			}
+		}
+
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try
+		{
+			retriever.setDataSource( path );
+		}
+		catch( RuntimeException e )
+		{
+			ReleaseRetriever( retriever );
+			throw e;
+		}
+
+		return new NativeCameraVideoSession( key, retriever );
+	}
+
+	// Returns the session to the pool. Sessions that threw an exception during a query aren't reused
+	public void Close()
+	{
+		if( isFaulted )
+		{
+			ReleaseRetriever( retriever );
+			return;
+		}
+
+		NativeCameraVideoSession evictedSession = null;
+		synchronized( idleSessions )
+		{
+			idleSince = System.currentTimeMillis();
+			idleSessions.addLast( this );
+
+			if( idleSessions.size() > MAX_IDLE_SESSIONS )
+				evictedSession = idleSessions.removeFirst();
+
+			ScheduleEviction();
+		}
+
+		if( evictedSession != null )
+			ReleaseRetriever( evictedSession.retriever );
+	}
+
+	// Returns { width, height, duration, rotation } (see NativeCameraUtils.VIDEO_PROPERTIES_LENGTH) or null on failure
+	@TargetApi( Build.VERSION_CODES.JELLY_BEAN_MR1 )
+	public synchronized long[] GetProperties()
+	{
+		try
+		{
+			long[] result = new long[NativeCameraUtils.VIDEO_PROPERTIES_LENGTH];
+			result[0] = NativeCameraUtils.ParseLong( retriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH ) );
+			result[1] = NativeCameraUtils.ParseLong( retriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT ) );
+			result[2] = NativeCameraUtils.ParseLong( retriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_DURATION ) );
+			if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 )
+				result[3] = NativeCameraUtils.ParseLong( retriever.extractMetadata( MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION ) );
+
+			return result;
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+
+			isFaulted = true;
+			return null;
+		}
+	}
+
+	// Returns the value of a MediaMetadataRetriever.METADATA_KEY_* or null if it isn't available
+	public synchronized String ExtractMetadata( final int key )
+	{
+		try
+		{
+			return retriever.extractMetadata( key );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+
+			isFaulted = true;
+			return null;
+		}
+	}
+
+	// Returns the frame closest to timeUs (if exactFrame is false, the sync frame closest to timeUs which is much faster to decode), scaled
+	// down to fit in maxWidth x maxHeight by the decoder on Android 8.1 and later (the caller scales the frame on older versions). Returns
+	// null if the frame can't be extracted
+	public synchronized Bitmap GetFrame( final long timeUs, final int maxWidth, final int maxHeight, final boolean exactFrame )
+	{
+		try
+		{
+			int option = exactFrame ? MediaMetadataRetriever.OPTION_CLOSEST : MediaMetadataRetriever.OPTION_CLOSEST_SYNC;
+			if( Build.VERSION.SDK_INT >= 27 )
+				return retriever.getScaledFrameAtTime( timeUs, option, maxWidth, maxHeight );
+
+			return retriever.getFrameAtTime( timeUs, option );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+
+			isFaulted = true;
+			return null;
+		}
+	}
+
+	// Opens a session that is accessed via the returned handle until CloseHandle is called. Returns 0 if the video can't be opened
+	public static int OpenHandle( final String path )
+	{
+		NativeCameraVideoSession session;
+		try
+		{
+			session = Open( path );
+		}
+		catch( Exception e )
+		{
+			Log.e( "Unity", "Exception:", e );
+			return 0;
+		}
+
+		int handle = nextHandle.getAndIncrement();
+		synchronized( openSessions )
+		{
+			session.handleReferenceCount = 1;
+			openSessions.put( handle, session );
+		}
+
+		return handle;
+	}
+
+	// Returns the handle's session with an additional reference, which must be released via ReleaseHandle. Returns null if the handle is
+	// invalid or already closed
+	public static NativeCameraVideoSession AcquireHandle( final int handle )
+	{
+		synchronized( openSessions )
+		{
+			NativeCameraVideoSession session = openSessions.get( handle );
+			if( session != null )
+				session.handleReferenceCount++;
+
+			return session;
+		}
+	}
+
+	public void ReleaseHandle()
+	{
+		boolean isReleased;
+		synchronized( openSessions )
+		{
+			isReleased = --handleReferenceCount == 0;
+		}
+
+		if( isReleased )
+			Close();
+	}
+
+	public static void CloseHandle( final int handle )
+	{
+		NativeCameraVideoSession session;
+		synchronized( openSessions )
+		{
+			session = openSessions.remove( handle );
+		}
+
+		if( session != null )
+			session.ReleaseHandle();
+	}
+
+	// Releases all pooled sessions (sessions that are currently open aren't affected)
+	public static void ClearPool()
+	{
+		ArrayList<NativeCameraVideoSession> sessions;
+		synchronized( idleSessions )
+		{
+			sessions = new ArrayList<NativeCameraVideoSession>( idleSessions );
+			idleSessions.clear();
+		}
+
+		for( NativeCameraVideoSession session : sessions )
+			ReleaseRetriever( session.retriever );
+	}
+
+	// Must be called while holding idleSessions' lock
+	private static void ScheduleEviction()
+	{
+		if( isEvictionScheduled || idleSessions.isEmpty() )
+			return;
+
+		if( evictionExecutor == null )
+		{
+			evictionExecutor = new ScheduledThreadPoolExecutor( 1 );
+			evictionExecutor.setKeepAliveTime( 10L, TimeUnit.SECONDS );
+			evictionExecutor.allowCoreThreadTimeOut( true );
+		}
+
+		long delay = Math.max( 0L, idleSessions.getFirst().idleSince + IDLE_TIMEOUT - System.currentTimeMillis() );
+		evictionExecutor.schedule( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				EvictIdleSessions();
+			}
+		}, delay, TimeUnit.MILLISECONDS );
+
+		isEvictionScheduled = true;
+	}
+
+	private static void EvictIdleSessions()
+	{
+		ArrayList<NativeCameraVideoSession> evictedSessions = new ArrayList<NativeCameraVideoSession>( 2 );
+		synchronized( idleSessions )
+		{
+			isEvictionScheduled = false;
+
+			long now = System.currentTimeMillis();
+			while( !idleSessions.isEmpty() && now - idleSessions.getFirst().idleSince >= IDLE_TIMEOUT )
+				evictedSessions.add( idleSessions.removeFirst() );
+
+			ScheduleEviction();
+		}
+
+		// Releasing a retriever can take a while, it is done outside the lock
+		for( NativeCameraVideoSession session : evictedSessions )
+			ReleaseRetriever( session.retriever );
+	}
+
+	private static void ReleaseRetriever( final MediaMetadataRetriever retriever )
+	{
+		try
+		{
+			retriever.release();
+		}
+		catch( Exception e )
+		{
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.yasirkula.unity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Helpers for building synthetic MP4/MOV files in tests. All values are big-endian like in ISO BMFF
+class Mp4Boxes
+{
+	static byte[] Box( final String type, final byte[]... contents )
+	{
+		byte[] content = Concat( contents );
+		return Concat( Int32( 8 + content.length ), type.getBytes( StandardCharsets.US_ASCII ), content );
+	}
+
+	// Box whose content starts with a version byte and 24-bit flags
+	static byte[] FullBox( final String type, final int version, final byte[]... contents )
+	{
+		return Box( type, Concat( Int32( (long) version << 24 ), Concat( contents ) ) );
+	}
+
+	// Box with a 64-bit size field
+	static byte[] LargeBox( final String type, final byte[]... contents )
+	{
+		byte[] content = Concat( contents );
+		return Concat( Int32( 1L ), type.getBytes( StandardCharsets.US_ASCII ), Int64( 16L + content.length ), content );
+	}
+
+	static byte[] Int16( final int... values )
+	{
+		byte[] result = new byte[values.length * 2];
+		for( int i = 0; i < values.length; i++ )
+		{
+			result[i * 2] = (byte) ( values[i] >>> 8 );
+			result[i * 2 + 1] = (byte) values[i];
+		}
+
+		return result;
+	}
+
+	static byte[] Int32( final long... values )
+	{
+		byte[] result = new byte[values.length * 4];
+		for( int i = 0; i < values.length; i++ )
+		{
+			for( int j = 0; j < 4; j++ )
+				result[i * 4 + j] = (byte) ( values[i] >>> ( 24 - j * 8 ) );
+		}
+
+		return result;
+	}
+
+	static byte[] Int64( final long... values )
+	{
+		byte[] result = new byte[values.length * 8];
+		for( int i = 0; i < values.length; i++ )
+		{
+			for( int j = 0; j < 8; j++ )
+				result[i * 8 + j] = (byte) ( values[i] >>> ( 56 - j * 8 ) );
+		}
+
+		return result;
+	}
+
+	static byte[] Zeros( final int length )
+	{
+		return new byte[length];
+	}
+
+	static byte[] Concat( final byte[]... arrays )
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		for( byte[] array : arrays )
+			result.write( array, 0, array.length );
+
+		return result.toByteArray();
+	}
+
+	static long ReadInt32( final byte[] data, final int offset )
+	{
+		return ( ( data[offset] & 0xFFL ) << 24 ) | ( ( data[offset + 1] & 0xFFL ) << 16 ) | ( ( data[offset + 2] & 0xFFL ) << 8 ) | ( data[offset + 3] & 0xFFL );
+	}
+
+	static long ReadInt64( final byte[] data, final int offset )
+	{
+		return ( ReadInt32( data, offset ) << 32 ) | ReadInt32( data, offset + 4 );
+	}
+
+	// Returns the position of the first box of the given type in data (found by searching its type bytes) or -1
+	static int IndexOfBox( final byte[] data, final String type )
+	{
+		byte[] typeBytes = type.getBytes( StandardCharsets.US_ASCII );
+		for( int i = 4; i + 4 <= data.length; i++ )
+		{
+			if( data[i] == typeBytes[0] && data[i + 1] == typeBytes[1] && data[i + 2] == typeBytes[2] && data[i + 3] == typeBytes[3] )
+				return i - 4;
+		}
+
+		return -1;
+	}
+
+	static File Write( final File file, final byte[]... contents ) throws IOException
+	{
+		FileOutputStream output = new FileOutputStream( file );
+		try
+		{
+			output.write( Concat( contents ) );
+		}
+		finally
+		{
+			output.close();
+		}
+
+		return file;
+	}
+
+	// A chunk offset table with the given offsets
+	static byte[] Stco( final long... offsets )
+	{
+		return FullBox( "stco", 0, Int32( offsets.length ), Int32( offsets ) );
+	}
+
+	static byte[] Co64( final long... offsets )
+	{
+		return FullBox( "co64", 0, Int32( offsets.length ), Int64( offsets ) );
+	}
+
+	// moov > trak > mdia > minf > stbl > chunkOffsets, with an empty mvhd
+	static byte[] MoovWithChunkOffsets( final byte[] chunkOffsets )
+	{
+		return Box( "moov", FullBox( "mvhd", 0, Zeros( 96 ) ), Box( "trak", Box( "mdia", Box( "minf", Box( "stbl", chunkOffsets ) ) ) ) );
+	}
+}
\ No newline at end of file
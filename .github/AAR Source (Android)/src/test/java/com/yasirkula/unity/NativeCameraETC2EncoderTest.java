@@ -0,0 +1,273 @@
+package com.yasirkula.unity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// Encodes test images and decodes them with a reference ETC2 decoder that is written from the specification (Khronos Data Format
+// Specification, sections "ETC2 compressed texture image formats" and "EAC"), independently of the encoder
+public class NativeCameraETC2EncoderTest
+{
+	private static final int[][] COLOR_MODIFIERS = { { 2, 8 }, { 5, 17 }, { 9, 29 }, { 13, 42 }, { 18, 60 }, { 24, 80 }, { 33, 106 }, { 47, 183 } };
+
+	private static final int[][] ALPHA_MODIFIERS = {
+			{ -3, -6, -9, -15, 2, 5, 8, 14 }, { -3, -7, -10, -13, 2, 6, 9, 12 }, { -2, -5, -8, -13, 1, 4, 7, 12 }, { -2, -4, -6, -13, 1, 3, 5, 12 },
+			{ -3, -6, -8, -12, 2, 5, 7, 11 }, { -3, -7, -9, -11, 2, 6, 8, 10 }, { -4, -7, -8, -11, 3, 6, 7, 10 }, { -3, -5, -8, -11, 2, 4, 7, 10 },
+			{ -2, -6, -8, -10, 1, 5, 7, 9 }, { -2, -5, -8, -10, 1, 4, 7, 9 }, { -2, -4, -8, -10, 1, 3, 7, 9 }, { -2, -5, -7, -10, 1, 4, 6, 9 },
+			{ -3, -4, -7, -10, 2, 3, 6, 9 }, { -1, -2, -3, -10, 0, 1, 2, 9 }, { -4, -6, -8, -9, 3, 5, 7, 8 }, { -3, -5, -7, -9, 2, 4, 6, 8 } };
+
+	private static int Clamp( final int value )
+	{
+		return Math.max( 0, Math.min( 255, value ) );
+	}
+
+	private static long ReadLong( final byte[] data, final int offset )
+	{
+		long result = 0L;
+		for( int i = 0; i < 8; i++ )
+			result = ( result << 8 ) | ( data[offset + i] & 0xFFL );
+
+		return result;
+	}
+
+	private static int Bits( final long block, final int lowestBit, final int count )
+	{
+		return (int) ( ( block >>> lowestBit ) & ( ( 1L << count ) - 1L ) );
+	}
+
+	// Decodes an ETC2 RGB8 block into 16 RGB values (y * 4 + x). Only the ETC1 compatible individual/differential modes are supported,
+	// the test fails if the block uses one of the ETC2-only modes (T, H, planar) since the encoder isn't supposed to generate them
+	private static int[] DecodeColorBlock( final long block )
+	{
+		int[][] baseColors = new int[2][3];
+		if( Bits( block, 33, 1 ) == 0 )
+		{
+			for( int channel = 0; channel < 3; channel++ )
+			{
+				int color1 = Bits( block, 60 - channel * 8, 4 ), color2 = Bits( block, 56 - channel * 8, 4 );
+				baseColors[0][channel] = ( color1 << 4 ) | color1;
+				baseColors[1][channel] = ( color2 << 4 ) | color2;
+			}
+		}
+		else
+		{
+			for( int channel = 0; channel < 3; channel++ )
+			{
+				int color1 = Bits( block, 59 - channel * 8, 5 );
+				int difference = ( Bits( block, 56 - channel * 8, 3 ) << 29 ) >> 29; // 3-bit two's complement
+				int color2 = color1 + difference;
+				assertTrue( "ETC2-only block mode", color2 >= 0 && color2 <= 31 );
+
+				baseColors[0][channel] = ( color1 << 3 ) | ( color1 >> 2 );
+				baseColors[1][channel] = ( color2 << 3 ) | ( color2 >> 2 );
+			}
+		}
+
+		int[] tables = { Bits( block, 37, 3 ), Bits( block, 34, 3 ) };
+		boolean flip = Bits( block, 32, 1 ) == 1;
+
+		int[] result = new int[16];
+		for( int x = 0; x < 4; x++ )
+		{
+			for( int y = 0; y < 4; y++ )
+			{
+				int subBlock = flip ? ( y >> 1 ) : ( x >> 1 );
+				int pixelIndex = x * 4 + y;
+				int index = ( Bits( block, 16 + pixelIndex, 1 ) << 1 ) | Bits( block, pixelIndex, 1 );
+
+				int[] modifiers = COLOR_MODIFIERS[tables[subBlock]];
+				int modifier = ( index == 0 ) ? modifiers[0] : ( index == 1 ) ? modifiers[1] : ( index == 2 ) ? -modifiers[0] : -modifiers[1];
+
+				int[] base = baseColors[subBlock];
+				result[y * 4 + x] = ( Clamp( base[0] + modifier ) << 16 ) | ( Clamp( base[1] + modifier ) << 8 ) | Clamp( base[2] + modifier );
+			}
+		}
+
+		return result;
+	}
+
+	// Decodes an EAC alpha block into 16 alpha values (y * 4 + x)
+	private static int[] DecodeAlphaBlock( final long block )
+	{
+		int base = Bits( block, 56, 8 ), multiplier = Bits( block, 52, 4 );
+		int[] modifiers = ALPHA_MODIFIERS[Bits( block, 48, 4 )];
+
+		int[] result = new int[16];
+		for( int x = 0; x < 4; x++ )
+		{
+			for( int y = 0; y < 4; y++ )
+				result[y * 4 + x] = Clamp( base + modifiers[Bits( block, 45 - 3 * ( x * 4 + y ), 3 )] * multiplier );
+		}
+
+		return result;
+	}
+
+	// Returns the image encoded and decoded back as ARGB pixels (alpha is 255 if hasAlpha is false)
+	private static int[] RoundTrip( final int[] pixels, final int width, final int height, final boolean hasAlpha, final boolean fast )
+	{
+		int blockSize = NativeCameraETC2Encoder.GetBlockSize( hasAlpha );
+		int blocksPerRow = ( width + 3 ) / 4;
+		byte[] encoded = new byte[NativeCameraETC2Encoder.GetEncodedSize( width, height, hasAlpha )];
+
+		NativeCameraETC2Encoder.Workspace workspace = new NativeCameraETC2Encoder.Workspace();
+		int[] rows = new int[width * 4];
+		for( int blockY = 0; blockY < height; blockY += 4 )
+		{
+			// Rows past the bottom edge repeat the last row
+			for( int y = 0; y < 4; y++ )
+				System.arraycopy( pixels, Math.min( blockY + y, height - 1 ) * width, rows, y * width, width );
+
+			NativeCameraETC2Encoder.EncodeBlockRow( rows, width, hasAlpha, fast, workspace, encoded, ( blockY / 4 ) * blocksPerRow * blockSize );
+		}
+
+		int[] result = new int[width * height];
+		for( int blockY = 0; blockY < height; blockY += 4 )
+		{
+			for( int blockX = 0; blockX < width; blockX += 4 )
+			{
+				int offset = ( ( blockY / 4 ) * blocksPerRow + blockX / 4 ) * blockSize;
+				int[] alpha = hasAlpha ? DecodeAlphaBlock( ReadLong( encoded, offset ) ) : null;
+				int[] color = DecodeColorBlock( ReadLong( encoded, hasAlpha ? offset + 8 : offset ) );
+
+				for( int y = 0; y < 4 && blockY + y < height; y++ )
+				{
+					for( int x = 0; x < 4 && blockX + x < width; x++ )
+						result[( blockY + y ) * width + blockX + x] = ( ( hasAlpha ? alpha[y * 4 + x] : 255 ) << 24 ) | color[y * 4 + x];
+				}
+			}
+		}
+
+		return result;
+	}
+
+	// Sum of squared errors of the given channels (shift: 24 for alpha, 16/8/0 for RGB)
+	private static long SquaredError( final int[] expected, final int[] actual, final int... shifts )
+	{
+		long result = 0L;
+		for( int i = 0; i < expected.length; i++ )
+		{
+			for( int shift : shifts )
+			{
+				int difference = ( ( expected[i] >>> shift ) & 0xFF ) - ( ( actual[i] >>> shift ) & 0xFF );
+				result += difference * difference;
+			}
+		}
+
+		return result;
+	}
+
+	private static double PSNR( final long squaredError, final int sampleCount )
+	{
+		if( squaredError == 0L )
+			return Double.POSITIVE_INFINITY;
+
+		return 10.0 * Math.log10( 255.0 * 255.0 * sampleCount / squaredError );
+	}
+
+	// Smooth gradients with some noise and a few hard edges, similar to a photo
+	private static int[] CreateImage( final int width, final int height, final boolean hasAlpha )
+	{
+		Random random = new Random( 1234 );
+		int[] result = new int[width * height];
+		for( int y = 0; y < height; y++ )
+		{
+			for( int x = 0; x < width; x++ )
+			{
+				int r = Clamp( x * 255 / width + random.nextInt( 9 ) - 4 );
+				int g = Clamp( y * 255 / height + random.nextInt( 9 ) - 4 );
+				int b = ( ( x / 16 + y / 16 ) % 2 == 0 ) ? 40 : 200;
+				int a = hasAlpha ? Clamp( (int) ( 128 + 127 * Math.sin( x * 0.1 ) * Math.cos( y * 0.07 ) ) ) : 255;
+				result[y * width + x] = ( a << 24 ) | ( r << 16 ) | ( g << 8 ) | b;
+			}
+		}
+
+		return result;
+	}
+
+	private static final int WIDTH = 130, HEIGHT = 66; // Not multiples of 4, so the edge blocks are padded
+
+	@Test
+	public void EncodesOpaqueImages()
+	{
+		int[] image = CreateImage( WIDTH, HEIGHT, false );
+
+		long slowError = SquaredError( image, RoundTrip( image, WIDTH, HEIGHT, false, false ), 16, 8, 0 );
+		long fastError = SquaredError( image, RoundTrip( image, WIDTH, HEIGHT, false, true ), 16, 8, 0 );
+
+		assertTrue( "Slow PSNR: " + PSNR( slowError, WIDTH * HEIGHT * 3 ), PSNR( slowError, WIDTH * HEIGHT * 3 ) > 37.0 );
+		assertTrue( "Fast PSNR: " + PSNR( fastError, WIDTH * HEIGHT * 3 ), PSNR( fastError, WIDTH * HEIGHT * 3 ) > 36.0 );
+		assertTrue( "Slow mode searches a superset of fast mode's candidates", slowError <= fastError );
+	}
+
+	@Test
+	public void EncodesTransparentImages()
+	{
+		int[] image = CreateImage( WIDTH, HEIGHT, true );
+
+		for( boolean fast : new boolean[] { false, true } )
+		{
+			int[] decoded = RoundTrip( image, WIDTH, HEIGHT, true, fast );
+			double colorPSNR = PSNR( SquaredError( image, decoded, 16, 8, 0 ), WIDTH * HEIGHT * 3 );
+			double alphaPSNR = PSNR( SquaredError( image, decoded, 24 ), WIDTH * HEIGHT );
+
+			assertTrue( "Color PSNR: " + colorPSNR, colorPSNR > 36.0 );
+			assertTrue( "Alpha PSNR: " + alphaPSNR, alphaPSNR > 45.0 );
+		}
+	}
+
+	@Test
+	public void EncodesUniformBlocksAccurately()
+	{
+		int[] colors = { 0xFF000000, 0xFFFFFFFF, 0xFF6496C8, 0x80FF0000, 0x00000000, 0x01020304 };
+		for( int color : colors )
+		{
+			int[] image = new int[8 * 4];
+			Arrays.fill( image, color );
+
+			for( boolean fast : new boolean[] { false, true } )
+			{
+				int[] decoded = RoundTrip( image, 8, 4, true, fast );
+				for( int pixel : decoded )
+				{
+					assertEquals( color >>> 24, pixel >>> 24 ); // Uniform alpha is stored exactly
+					for( int shift = 0; shift <= 16; shift += 8 )
+						assertEquals( ( color >>> shift ) & 0xFF, ( pixel >>> shift ) & 0xFF, 4.0 );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void EncodesExtremeAlphaValues()
+	{
+		// Half transparent, half opaque blocks must keep their 0 and 255 alpha values
+		int[] image = new int[4 * 4];
+		for( int i = 0; i < image.length; i++ )
+			image[i] = ( ( i % 4 ) < 2 ) ? 0x00FFFFFF : 0xFF000000;
+
+		for( boolean fast : new boolean[] { false, true } )
+		{
+			int[] decoded = RoundTrip( image, 4, 4, true, fast );
+			for( int i = 0; i < image.length; i++ )
+				assertEquals( image[i] >>> 24, decoded[i] >>> 24 );
+		}
+	}
+
+	@Test
+	public void CreatesKTXHeader()
+	{
+		for( boolean hasAlpha : new boolean[] { false, true } )
+		{
+			byte[] header = NativeCameraETC2Encoder.CreateKTXHeader( WIDTH, HEIGHT, hasAlpha );
+			assertEquals( 0, header.length % 4 );
+			assertEquals( 0xAB, header[0] & 0xFF );
+
+			int imageSize = ( header[header.length - 4] & 0xFF ) | ( ( header[header.length - 3] & 0xFF ) << 8 ) | ( ( header[header.length - 2] & 0xFF ) << 16 ) | ( ( header[header.length - 1] & 0xFF ) << 24 );
+			assertEquals( NativeCameraETC2Encoder.GetEncodedSize( WIDTH, HEIGHT, hasAlpha ), imageSize );
+			assertEquals( ( ( WIDTH + 3 ) / 4 ) * ( ( HEIGHT + 3 ) / 4 ) * ( hasAlpha ? 16 : 8 ), imageSize );
+		}
+	}
+}
\ No newline at end of file
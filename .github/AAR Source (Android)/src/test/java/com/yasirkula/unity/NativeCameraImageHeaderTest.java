@@ -0,0 +1,236 @@
+package com.yasirkula.unity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static com.yasirkula.unity.Mp4Boxes.*;
+import static org.junit.Assert.*;
+
+public class NativeCameraImageHeaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] Bytes( final int... values )
+	{
+		byte[] result = new byte[values.length];
+		for( int i = 0; i < values.length; i++ )
+			result[i] = (byte) values[i];
+
+		return result;
+	}
+
+	private static byte[] Int16LE( final int value )
+	{
+		return Bytes( value, value >>> 8 );
+	}
+
+	private static byte[] Int32LE( final long value )
+	{
+		return Bytes( (int) value, (int) ( value >>> 8 ), (int) ( value >>> 16 ), (int) ( value >>> 24 ) );
+	}
+
+	// TIFF structure whose IFD0 has a Make tag followed by the Orientation tag
+	private static byte[] Tiff( final boolean littleEndian, final int orientation )
+	{
+		if( littleEndian )
+			return Concat( Bytes( 'I', 'I' ), Int16LE( 42 ), Int32LE( 8L ), Int16LE( 2 ),
+					Int16LE( 0x010F ), Int16LE( 2 ), Int32LE( 4L ), Bytes( 'A', 'B', 'C', 0 ),
+					Int16LE( 0x0112 ), Int16LE( 3 ), Int32LE( 1L ), Int16LE( orientation ), Int16LE( 0 ), Int32LE( 0L ) );
+
+		return Concat( Bytes( 'M', 'M' ), Int16( 42 ), Int32( 8L ), Int16( 2 ),
+				Int16( 0x010F ), Int16( 2 ), Int32( 4L ), Bytes( 'A', 'B', 'C', 0 ),
+				Int16( 0x0112 ), Int16( 3 ), Int32( 1L ), Int16( orientation ), Int16( 0 ), Int32( 0L ) );
+	}
+
+	private static byte[] JpegSegment( final int marker, final byte[] content )
+	{
+		return Concat( Bytes( 0xFF, marker ), Int16( content.length + 2 ), content );
+	}
+
+	private static byte[] Jpeg( final byte[] exif, final int width, final int height )
+	{
+		byte[] app0 = JpegSegment( 0xE0, Concat( "JFIF".getBytes(), Zeros( 10 ) ) );
+		byte[] app1 = ( exif != null ) ? JpegSegment( 0xE1, Concat( Bytes( 'E', 'x', 'i', 'f', 0, 0 ), exif ) ) : new byte[0];
+		byte[] dqt = JpegSegment( 0xDB, Zeros( 65 ) );
+		byte[] sof = JpegSegment( 0xC0, Concat( Bytes( 8 ), Int16( height, width ), Bytes( 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1 ) ) );
+		byte[] sos = JpegSegment( 0xDA, Zeros( 10 ) );
+		return Concat( Bytes( 0xFF, 0xD8 ), app0, app1, dqt, sof, sos, Zeros( 64 ), Bytes( 0xFF, 0xD9 ) );
+	}
+
+	private static byte[] PngChunk( final String type, final byte[] content )
+	{
+		return Concat( Int32( content.length ), type.getBytes(), content, Int32( 0L ) ); // CRC isn't verified
+	}
+
+	private static byte[] Png( final byte[] exif, final int width, final int height )
+	{
+		byte[] signature = Bytes( 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' );
+		byte[] ihdr = PngChunk( "IHDR", Concat( Int32( width, height ), Bytes( 8, 6, 0, 0, 0 ) ) );
+		byte[] exifChunk = ( exif != null ) ? PngChunk( "eXIf", exif ) : new byte[0];
+		return Concat( signature, ihdr, PngChunk( "sRGB", Bytes( 0 ) ), exifChunk, PngChunk( "IDAT", Zeros( 20 ) ), PngChunk( "IEND", new byte[0] ) );
+	}
+
+	private static byte[] WebPChunk( final String type, final byte[] content )
+	{
+		byte[] padding = ( content.length % 2 == 1 ) ? Bytes( 0 ) : new byte[0];
+		return Concat( type.getBytes(), Int32LE( content.length ), content, padding );
+	}
+
+	private static byte[] WebP( final byte[]... chunks )
+	{
+		byte[] content = Concat( chunks );
+		return Concat( "RIFF".getBytes(), Int32LE( 4 + content.length ), "WEBP".getBytes(), content );
+	}
+
+	private static byte[] VP8( final int width, final int height )
+	{
+		return WebPChunk( "VP8 ", Concat( Bytes( 0x10, 0x02, 0x00, 0x9D, 0x01, 0x2A ), Int16LE( width ), Int16LE( height ), Zeros( 11 ) ) );
+	}
+
+	private static byte[] VP8L( final int width, final int height )
+	{
+		return WebPChunk( "VP8L", Concat( Bytes( 0x2F ), Int32LE( ( width - 1 ) | ( (long) ( height - 1 ) << 14 ) ), Zeros( 10 ) ) );
+	}
+
+	private static byte[] VP8X( final boolean hasExif, final int width, final int height )
+	{
+		return WebPChunk( "VP8X", Concat( Bytes( hasExif ? 0x08 : 0x00, 0, 0, 0 ), Arrays.copyOf( Int32LE( width - 1 ), 3 ), Arrays.copyOf( Int32LE( height - 1 ), 3 ) ) );
+	}
+
+	// Primary item 1 is associated with the ispe property and (if irot >= 0) the irot property
+	private static byte[] Heif( final String brand, final int width, final int height, final int irot )
+	{
+		byte[] ftyp = Box( "ftyp", brand.getBytes(), Int32( 0L ), "mif1".getBytes() );
+		byte[] ispe = FullBox( "ispe", 0, Int32( width, height ) );
+		byte[] ipco = ( irot >= 0 ) ? Box( "ipco", Box( "colr", Zeros( 8 ) ), ispe, Box( "irot", Bytes( irot ) ) ) : Box( "ipco", Box( "colr", Zeros( 8 ) ), ispe );
+		byte[] associations = ( irot >= 0 ) ? Bytes( 3, 0x81, 0x02, 0x03 ) : Bytes( 2, 0x81, 0x02 );
+		byte[] ipma = FullBox( "ipma", 0, Int32( 2L ), Int16( 2 ), Bytes( 1, 0x01 ), Int16( 1 ), associations );
+		byte[] meta = FullBox( "meta", 0, FullBox( "hdlr", 0, Zeros( 4 ), "pict".getBytes(), Zeros( 13 ) ), FullBox( "pitm", 0, Int16( 1 ) ), Box( "iprp", ipco, ipma ) );
+		return Concat( ftyp, meta, Box( "mdat", Zeros( 64 ) ) );
+	}
+
+	private NativeCameraImageHeader Parse( final byte[] data ) throws Exception
+	{
+		return NativeCameraImageHeader.Parse( Write( folder.newFile(), data ).getAbsolutePath() );
+	}
+
+	private static void AssertHeader( final NativeCameraImageHeader header, final int width, final int height, final String mimeType, final int orientation )
+	{
+		assertNotNull( header );
+		assertEquals( width, header.width );
+		assertEquals( height, header.height );
+		assertEquals( mimeType, header.mimeType );
+		assertEquals( orientation, header.orientation );
+	}
+
+	@Test
+	public void ParsesJpegWithBigEndianExif() throws Exception
+	{
+		AssertHeader( Parse( Jpeg( Tiff( false, 6 ), 4032, 3024 ) ), 4032, 3024, "image/jpeg", 6 );
+	}
+
+	@Test
+	public void ParsesJpegWithLittleEndianExif() throws Exception
+	{
+		AssertHeader( Parse( Jpeg( Tiff( true, 8 ), 640, 480 ) ), 640, 480, "image/jpeg", 8 );
+	}
+
+	@Test
+	public void ParsesJpegWithoutExif() throws Exception
+	{
+		AssertHeader( Parse( Jpeg( null, 640, 480 ) ), 640, 480, "image/jpeg", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+	}
+
+	@Test
+	public void IgnoresInvalidExifOrientation() throws Exception
+	{
+		AssertHeader( Parse( Jpeg( Tiff( false, 9 ), 640, 480 ) ), 640, 480, "image/jpeg", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+	}
+
+	@Test
+	public void SkipsJpegFillBytes() throws Exception
+	{
+		byte[] jpeg = Jpeg( Tiff( true, 3 ), 100, 50 );
+		byte[] padded = Concat( Arrays.copyOf( jpeg, 2 ), Bytes( 0xFF, 0xFF ), Arrays.copyOfRange( jpeg, 2, jpeg.length ) );
+		AssertHeader( Parse( padded ), 100, 50, "image/jpeg", 3 );
+	}
+
+	@Test
+	public void ParsesPng() throws Exception
+	{
+		AssertHeader( Parse( Png( null, 1920, 1080 ) ), 1920, 1080, "image/png", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+		AssertHeader( Parse( Png( Tiff( false, 6 ), 1920, 1080 ) ), 1920, 1080, "image/png", 6 );
+	}
+
+	@Test
+	public void ParsesLossyWebP() throws Exception
+	{
+		AssertHeader( Parse( WebP( VP8( 800, 600 ) ) ), 800, 600, "image/webp", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+	}
+
+	@Test
+	public void ParsesLosslessWebP() throws Exception
+	{
+		AssertHeader( Parse( WebP( VP8L( 16383, 1 ) ) ), 16383, 1, "image/webp", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+	}
+
+	@Test
+	public void ParsesExtendedWebP() throws Exception
+	{
+		// Dimensions come from VP8X, which can exceed 16383 pixels
+		byte[] exif = WebPChunk( "EXIF", Tiff( true, 6 ) );
+		AssertHeader( Parse( WebP( VP8X( true, 20000, 300 ), WebPChunk( "ICCP", Zeros( 5 ) ), VP8( 100, 100 ), exif ) ), 20000, 300, "image/webp", 6 );
+
+		// EXIF chunks that start with the JPEG APP1 identifier are also supported
+		exif = WebPChunk( "EXIF", Concat( Bytes( 'E', 'x', 'i', 'f', 0, 0 ), Tiff( false, 8 ) ) );
+		AssertHeader( Parse( WebP( VP8X( true, 20000, 300 ), VP8( 100, 100 ), exif ) ), 20000, 300, "image/webp", 8 );
+
+		AssertHeader( Parse( WebP( VP8X( false, 640, 480 ), VP8L( 640, 480 ) ) ), 640, 480, "image/webp", NativeCameraImageHeader.ORIENTATION_UNDEFINED );
+	}
+
+	@Test
+	public void ParsesHeif() throws Exception
+	{
+		AssertHeader( Parse( Heif( "heic", 4032, 3024, -1 ) ), 4032, 3024, "image/heif", 1 );
+		AssertHeader( Parse( Heif( "avif", 512, 256, -1 ) ), 512, 256, "image/avif", 1 );
+	}
+
+	@Test
+	public void ConvertsHeifRotationToOrientation() throws Exception
+	{
+		// irot is anti-clockwise
+		AssertHeader( Parse( Heif( "heic", 4032, 3024, 0 ) ), 4032, 3024, "image/heif", 1 );
+		AssertHeader( Parse( Heif( "heic", 4032, 3024, 1 ) ), 4032, 3024, "image/heif", 8 );
+		AssertHeader( Parse( Heif( "heic", 4032, 3024, 2 ) ), 4032, 3024, "image/heif", 3 );
+		AssertHeader( Parse( Heif( "heic", 4032, 3024, 3 ) ), 4032, 3024, "image/heif", 6 );
+	}
+
+	@Test
+	public void ReturnsNullForTruncatedImages() throws Exception
+	{
+		byte[] jpeg = Jpeg( Tiff( false, 6 ), 640, 480 );
+		assertNull( Parse( Arrays.copyOf( jpeg, 40 ) ) ); // Ends before SOF
+
+		byte[] png = Png( null, 640, 480 );
+		assertNull( Parse( Arrays.copyOf( png, 20 ) ) ); // Ends inside IHDR
+
+		byte[] webp = WebP( VP8( 800, 600 ) );
+		assertNull( Parse( Arrays.copyOf( webp, 24 ) ) ); // Ends inside the VP8 frame header
+
+		byte[] heif = Heif( "heic", 4032, 3024, 1 );
+		assertNull( Parse( Arrays.copyOf( heif, heif.length - 100 ) ) ); // Ends inside 'meta'
+
+		assertNull( Parse( Bytes( 0xFF, 0xD8 ) ) );
+	}
+
+	@Test
+	public void ReturnsNullForUnsupportedFormats() throws Exception
+	{
+		assertNull( Parse( Concat( "GIF89a".getBytes(), Zeros( 20 ) ) ) );
+		assertNull( Parse( Concat( Box( "ftyp", "isom".getBytes(), Int32( 0L ) ), Box( "mdat", Zeros( 16 ) ) ) ) ); // No 'meta'
+	}
+}
\ No newline at end of file
@@ -0,0 +1,342 @@
+package com.yasirkula.unity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static com.yasirkula.unity.Mp4Boxes.*;
+import static org.junit.Assert.*;
+
+public class NativeCameraJpegTransformTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// Baseline JPEG encoded by ImageIO. If subsampled is true, chroma is subsampled 2x2 (4:2:0, i.e. 16x16 MCUs), otherwise it isn't
+	// subsampled (4:4:4, i.e. 8x8 MCUs). restartInterval is in MCUs (0: no restart markers)
+	private static byte[] Jpeg( final BufferedImage image, final boolean subsampled, final int restartInterval ) throws Exception
+	{
+		ImageWriter writer = ImageIO.getImageWritersByFormatName( "jpeg" ).next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode( ImageWriteParam.MODE_EXPLICIT );
+		param.setCompressionQuality( 0.9f );
+
+		IIOMetadata metadata = writer.getDefaultImageMetadata( new ImageTypeSpecifier( image ), param );
+		String format = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree( format );
+		Element markerSequence = (Element) root.getElementsByTagName( "markerSequence" ).item( 0 );
+
+		NodeList componentSpecs = root.getElementsByTagName( "componentSpec" );
+		for( int i = 0; i < componentSpecs.getLength(); i++ )
+		{
+			Element componentSpec = (Element) componentSpecs.item( i );
+			int samplingFactor = ( i == 0 && subsampled ) ? 2 : 1;
+			componentSpec.setAttribute( "HsamplingFactor", Integer.toString( samplingFactor ) );
+			componentSpec.setAttribute( "VsamplingFactor", Integer.toString( samplingFactor ) );
+		}
+
+		if( restartInterval > 0 )
+		{
+			IIOMetadataNode dri = new IIOMetadataNode( "dri" );
+			dri.setAttribute( "interval", Integer.toString( restartInterval ) );
+			markerSequence.insertBefore( dri, root.getElementsByTagName( "sof" ).item( 0 ) );
+		}
+
+		metadata.setFromTree( format, root );
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream( result );
+		writer.setOutput( stream );
+		writer.write( null, new IIOImage( image, null, metadata ), param );
+		stream.close();
+		writer.dispose();
+
+		byte[] jpeg = result.toByteArray();
+		assertEquals( subsampled ? 0x22 : 0x11, SamplingFactors( jpeg ) );
+		assertEquals( restartInterval > 0, IndexOfMarker( jpeg, 0xDD ) >= 0 );
+		return jpeg;
+	}
+
+	// Image whose pixels are constant in each 8x8 block. The luma of each block is random, while the chroma is random per 16x16 area, so
+	// that ImageIO's encoder produces only DC coefficients even when chroma is subsampled. This makes the decoded samples independent of
+	// the decoder's IDCT rounding, so transformed images must match the expected samples exactly
+	private static BufferedImage BlockImage( final int width, final int height, final long seed )
+	{
+		Random random = new Random( seed );
+		int[][] chroma = new int[( height + 15 ) / 16][( width + 15 ) / 16];
+		for( int[] row : chroma )
+		{
+			for( int i = 0; i < row.length; i++ )
+				row[i] = 0x404040 + ( random.nextInt( 128 ) << 16 ) + ( random.nextInt( 128 ) << 8 ) + random.nextInt( 128 );
+		}
+
+		int[][] luma = new int[( height + 7 ) / 8][( width + 7 ) / 8];
+		for( int[] row : luma )
+		{
+			for( int i = 0; i < row.length; i++ )
+				row[i] = random.nextInt( 97 ) - 48;
+		}
+
+		// Adding the same value to R, G and B changes only the luma (the chroma weights of R, G and B sum to 0 in libjpeg's fixed point tables)
+		BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_3BYTE_BGR );
+		for( int y = 0; y < height; y++ )
+		{
+			for( int x = 0; x < width; x++ )
+			{
+				int color = chroma[y / 16][x / 16];
+				int offset = luma[y / 8][x / 8];
+				int r = ( ( color >> 16 ) & 0xFF ) + offset;
+				int g = ( ( color >> 8 ) & 0xFF ) + offset;
+				int b = ( color & 0xFF ) + offset;
+				image.setRGB( x, y, ( r << 16 ) | ( g << 8 ) | b );
+			}
+		}
+
+		return image;
+	}
+
+	// Returns the sampling factors byte of the first component in SOF0
+	private static int SamplingFactors( final byte[] jpeg )
+	{
+		return jpeg[IndexOfMarker( jpeg, 0xC0 ) + 11] & 0xFF;
+	}
+
+	// Returns the index of the first marker segment of the given type before the scan data or -1 if it doesn't exist
+	private static int IndexOfMarker( final byte[] jpeg, final int marker )
+	{
+		int position = 2;
+		while( position + 4 <= jpeg.length && ( jpeg[position] & 0xFF ) == 0xFF )
+		{
+			int type = jpeg[position + 1] & 0xFF;
+			if( type == marker )
+				return position;
+			if( type == 0xDA )
+				break;
+
+			position += 2 + ( ( ( jpeg[position + 2] & 0xFF ) << 8 ) | ( jpeg[position + 3] & 0xFF ) );
+		}
+
+		return -1;
+	}
+
+	// Inserts an APP1 segment with an EXIF orientation tag right after SOI
+	private static byte[] WithExifOrientation( final byte[] jpeg, final int orientation )
+	{
+		byte[] tiff = Concat( "MM".getBytes(), Int16( 42 ), Int32( 8L ), Int16( 1 ), Int16( 0x0112, 3 ), Int32( 1L ), Int16( orientation, 0 ), Int32( 0L ) );
+		byte[] exif = Concat( "Exif".getBytes(), new byte[2], tiff );
+		byte[] app1 = Concat( new byte[] { (byte) 0xFF, (byte) 0xE1 }, Int16( exif.length + 2 ), exif );
+		return Concat( Arrays.copyOf( jpeg, 2 ), app1, Arrays.copyOfRange( jpeg, 2, jpeg.length ) );
+	}
+
+	// Returns the decoded Y, Cb and Cr samples (ImageIO doesn't apply color conversion when reading a raster)
+	private static Raster Decode( final File file ) throws Exception
+	{
+		ImageReader reader = ImageIO.getImageReadersByFormatName( "jpeg" ).next();
+		ImageInputStream stream = ImageIO.createImageInputStream( file );
+		try
+		{
+			reader.setInput( stream );
+			Raster raster = reader.readRaster( 0, null );
+			assertEquals( 3, raster.getNumBands() );
+			return raster;
+		}
+		finally
+		{
+			stream.close();
+			reader.dispose();
+		}
+	}
+
+	// Returns { x, y } of the source sample that is displayed at (x, y) of the image after the EXIF orientation is applied, for an oriented
+	// image of the given size (i.e. the trimmed source region is anchored at the top-left corner)
+	private static int[] SourcePosition( final int orientation, final int x, final int y, final int width, final int height )
+	{
+		switch( orientation )
+		{
+			case 2: return new int[] { width - 1 - x, y };
+			case 3: return new int[] { width - 1 - x, height - 1 - y };
+			case 4: return new int[] { x, height - 1 - y };
+			case 5: return new int[] { y, x };
+			case 6: return new int[] { y, width - 1 - x };
+			case 7: return new int[] { height - 1 - y, width - 1 - x };
+			default: return new int[] { height - 1 - y, x };
+		}
+	}
+
+	private File Transform( final byte[] jpeg, final int orientation, final boolean allowTrim, final boolean expectedResult ) throws Exception
+	{
+		File src = Write( folder.newFile(), jpeg );
+		File dst = folder.newFile();
+		assertEquals( "orientation " + orientation, expectedResult, NativeCameraJpegTransform.Transform( src.getAbsolutePath(), dst.getAbsolutePath(), orientation, allowTrim ) );
+		return dst;
+	}
+
+	// Transforms the image with all orientations and verifies that the output decodes to exactly the reoriented source samples. Edges that
+	// aren't multiples of the MCU size must be trimmed when they're moved to the opposite edge, or the transform must fail if allowTrim is
+	// false. Decoders upsample subsampled chroma by interpolating between neighbouring samples with a rounding bias that isn't symmetric,
+	// so the chroma of pixels that are next to an MCU edge (whose neighbouring chroma sample belongs to another MCU) isn't compared
+	private void AssertLosslessTransforms( final BufferedImage image, final boolean subsampled, final int restartInterval, final boolean allowTrim ) throws Exception
+	{
+		byte[] jpeg = Jpeg( image, subsampled, restartInterval );
+		File src = Write( folder.newFile(), jpeg );
+		Raster source = Decode( src );
+
+		int mcuSize = subsampled ? 16 : 8;
+		int trimmedWidth = source.getWidth() - source.getWidth() % mcuSize;
+		int trimmedHeight = source.getHeight() - source.getHeight() % mcuSize;
+
+		for( int orientation = 2; orientation <= 8; orientation++ )
+		{
+			boolean transpose = orientation >= 5;
+			boolean flipsX = orientation == 2 || orientation == 3 || orientation == 7 || orientation == 8; // Source columns are reversed
+			boolean flipsY = orientation == 3 || orientation == 4 || orientation == 6 || orientation == 7; // Source rows are reversed
+			int sourceWidth = flipsX ? trimmedWidth : source.getWidth();
+			int sourceHeight = flipsY ? trimmedHeight : source.getHeight();
+			boolean isTrimmed = sourceWidth != source.getWidth() || sourceHeight != source.getHeight();
+
+			File dst = Transform( jpeg, orientation, allowTrim, allowTrim || !isTrimmed );
+			if( !allowTrim && isTrimmed )
+				continue;
+
+			Raster result = Decode( dst );
+			int width = transpose ? sourceHeight : sourceWidth;
+			int height = transpose ? sourceWidth : sourceHeight;
+			assertEquals( "orientation " + orientation, width, result.getWidth() );
+			assertEquals( "orientation " + orientation, height, result.getHeight() );
+
+			for( int y = 0; y < height; y++ )
+			{
+				for( int x = 0; x < width; x++ )
+				{
+					int[] position = SourcePosition( orientation, x, y, width, height );
+					boolean isNextToMcuEdge = x % mcuSize == 0 || x % mcuSize == mcuSize - 1 || y % mcuSize == 0 || y % mcuSize == mcuSize - 1;
+					int bandCount = ( subsampled && isNextToMcuEdge ) ? 1 : 3;
+					for( int band = 0; band < bandCount; band++ )
+					{
+						if( result.getSample( x, y, band ) != source.getSample( position[0], position[1], band ) )
+							fail( "orientation " + orientation + ": band " + band + " of pixel (" + x + ", " + y + ") doesn't match" );
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void Transforms444Losslessly() throws Exception
+	{
+		AssertLosslessTransforms( BlockImage( 48, 32, 1L ), false, 0, false );
+		AssertLosslessTransforms( BlockImage( 48, 32, 1L ), false, 0, true );
+	}
+
+	@Test
+	public void Transforms420Losslessly() throws Exception
+	{
+		AssertLosslessTransforms( BlockImage( 64, 48, 2L ), true, 0, false );
+		AssertLosslessTransforms( BlockImage( 64, 48, 2L ), true, 0, true );
+	}
+
+	@Test
+	public void TransformsJpegWithRestartMarkers() throws Exception
+	{
+		AssertLosslessTransforms( BlockImage( 80, 64, 3L ), true, 3, false );
+		AssertLosslessTransforms( BlockImage( 80, 64, 3L ), true, 3, true );
+		AssertLosslessTransforms( BlockImage( 56, 40, 4L ), false, 1, false );
+		AssertLosslessTransforms( BlockImage( 56, 40, 4L ), false, 1, true );
+	}
+
+	@Test
+	public void TrimsPartialEdgeMcus() throws Exception
+	{
+		AssertLosslessTransforms( BlockImage( 50, 37, 5L ), false, 0, true );
+		AssertLosslessTransforms( BlockImage( 70, 45, 6L ), true, 0, true );
+		AssertLosslessTransforms( BlockImage( 70, 45, 7L ), true, 2, true );
+	}
+
+	@Test
+	public void RejectsPartialEdgeMcusWithoutTrim() throws Exception
+	{
+		// Orientation 5 (transpose) doesn't move any edge to the opposite side, so it succeeds without trimming
+		AssertLosslessTransforms( BlockImage( 50, 37, 8L ), false, 0, false );
+		AssertLosslessTransforms( BlockImage( 70, 45, 9L ), true, 0, false );
+	}
+
+	@Test
+	public void TransformsTexturedImageWithinBlocks() throws Exception
+	{
+		// Pixels vary inside blocks, so AC coefficients must be rearranged too. Decoders' IDCT rounding isn't exactly symmetric under
+		// transposition, so the result is compared against the source with a small tolerance
+		Random random = new Random( 10L );
+		BufferedImage image = new BufferedImage( 32, 32, BufferedImage.TYPE_3BYTE_BGR );
+		for( int y = 0; y < 32; y++ )
+		{
+			for( int x = 0; x < 32; x++ )
+				image.setRGB( x, y, ( ( x * 8 ) << 16 ) | ( ( y * 8 ) << 8 ) | ( ( x * y + random.nextInt( 16 ) ) & 0xFF ) );
+		}
+
+		byte[] jpeg = Jpeg( image, true, 0 );
+		Raster source = Decode( Write( folder.newFile(), jpeg ) );
+		for( int orientation = 2; orientation <= 8; orientation++ )
+		{
+			Raster result = Decode( Transform( jpeg, orientation, false, true ) );
+			for( int y = 0; y < 32; y++ )
+			{
+				for( int x = 0; x < 32; x++ )
+				{
+					int[] position = SourcePosition( orientation, x, y, 32, 32 );
+					for( int band = 0; band < 3; band++ )
+						assertTrue( "orientation " + orientation + ": band " + band + " of pixel (" + x + ", " + y + ")", Math.abs( result.getSample( x, y, band ) - source.getSample( position[0], position[1], band ) ) <= 2 );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void ResetsExifOrientation() throws Exception
+	{
+		byte[] jpeg = WithExifOrientation( Jpeg( BlockImage( 32, 32, 11L ), true, 0 ), 6 );
+		assertEquals( 6, NativeCameraImageHeader.Parse( Write( folder.newFile(), jpeg ).getAbsolutePath() ).orientation );
+
+		for( int orientation = 2; orientation <= 8; orientation++ )
+		{
+			File dst = Transform( WithExifOrientation( Jpeg( BlockImage( 32, 32, 11L ), true, 0 ), orientation ), orientation, false, true );
+			NativeCameraImageHeader header = NativeCameraImageHeader.Parse( dst.getAbsolutePath() );
+			assertNotNull( header );
+			assertEquals( "image/jpeg", header.mimeType );
+			assertEquals( "orientation " + orientation, 1, header.orientation );
+		}
+	}
+
+	@Test
+	public void RejectsUnsupportedInput() throws Exception
+	{
+		byte[] jpeg = Jpeg( BlockImage( 16, 16, 12L ), false, 0 );
+		Transform( jpeg, 1, true, false ); // Nothing to transform
+		Transform( jpeg, 9, true, false );
+		Transform( "not a jpeg".getBytes(), 6, true, false );
+
+		// Progressive JPEGs aren't supported
+		byte[] progressive = jpeg.clone();
+		progressive[IndexOfMarker( progressive, 0xC0 ) + 1] = (byte) 0xC2;
+		Transform( progressive, 6, true, false );
+	}
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.yasirkula.unity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static com.yasirkula.unity.Mp4Boxes.*;
+import static org.junit.Assert.*;
+
+public class NativeCameraMp4FastStartTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final byte[] FTYP = Box( "ftyp", "isom".getBytes(), Int32( 0L ) );
+
+	private static byte[] Payload( final int length, final int seed )
+	{
+		byte[] result = new byte[length];
+		for( int i = 0; i < length; i++ )
+			result[i] = (byte) ( i * 7 + seed );
+
+		return result;
+	}
+
+	@Test
+	public void ShiftsChunkOffsetsBetweenMdatAndMoov() throws Exception
+	{
+		byte[] payload = Payload( 1000, 1 );
+		long chunk1 = FTYP.length + 8, chunk2 = chunk1 + 100;
+		byte[] moov = MoovWithChunkOffsets( Stco( chunk1, chunk2 ) );
+		File src = Write( folder.newFile(), FTYP, Box( "mdat", payload ), moov, Box( "free", Zeros( 4 ) ) );
+		File dst = new File( folder.getRoot(), "dst.mp4" );
+
+		assertTrue( NativeCameraMp4FastStart.Process( src.getAbsolutePath(), dst.getAbsolutePath() ) );
+
+		byte[] output = Files.readAllBytes( dst.toPath() );
+		assertEquals( src.length(), output.length );
+		assertEquals( FTYP.length, IndexOfBox( output, "moov" ) );
+		assertEquals( FTYP.length + moov.length, IndexOfBox( output, "mdat" ) );
+
+		int stco = IndexOfBox( output, "stco" );
+		assertEquals( chunk1 + moov.length, ReadInt32( output, stco + 16 ) );
+		assertEquals( chunk2 + moov.length, ReadInt32( output, stco + 20 ) );
+		assertEquals( payload[0], output[(int) ReadInt32( output, stco + 16 )] );
+		assertEquals( payload[100], output[(int) ReadInt32( output, stco + 20 )] );
+	}
+
+	@Test
+	public void KeepsChunkOffsetsOfMdatAfterMoov() throws Exception
+	{
+		byte[] payload1 = Payload( 500, 1 ), payload2 = Payload( 300, 2 );
+		long chunk1 = FTYP.length + 8;
+		byte[] moov = MoovWithChunkOffsets( Stco( chunk1, 0L ) );
+		long chunk2 = FTYP.length + 8 + payload1.length + moov.length + 8 + 50;
+		moov = MoovWithChunkOffsets( Stco( chunk1, chunk2 ) );
+
+		File src = Write( folder.newFile(), FTYP, Box( "mdat", payload1 ), moov, Box( "mdat", payload2 ) );
+		File dst = new File( folder.getRoot(), "dst.mp4" );
+
+		assertTrue( NativeCameraMp4FastStart.Process( src.getAbsolutePath(), dst.getAbsolutePath() ) );
+
+		byte[] output = Files.readAllBytes( dst.toPath() );
+		int stco = IndexOfBox( output, "stco" );
+		assertEquals( chunk1 + moov.length, ReadInt32( output, stco + 16 ) );
+		assertEquals( chunk2, ReadInt32( output, stco + 20 ) ); // The second 'mdat' stays where it was since 'moov' didn't grow
+		assertEquals( payload1[0], output[(int) ReadInt32( output, stco + 16 )] );
+		assertEquals( payload2[50], output[(int) ReadInt32( output, stco + 20 )] );
+	}
+
+	// A >4GB video whose first track's chunks are in the first 4GB ('stco') and second track's chunks are after 'moov' ('co64')
+	private static byte[] LargeVideoMoov( final long firstMdatPosition, final long afterMoovOffset )
+	{
+		byte[] trak1 = Box( "trak", Box( "mdia", Box( "minf", Box( "stbl", Stco( 16L, firstMdatPosition + 8L, 0xFFFFFFF0L ) ) ) ) );
+		byte[] trak2 = Box( "trak", Box( "mdia", Box( "minf", Box( "stbl", Co64( afterMoovOffset ) ) ) ) );
+		return Box( "moov", FullBox( "mvhd", 0, Zeros( 96 ) ), trak1, trak2 );
+	}
+
+	@Test
+	public void UpgradesChunkOffsetsThatWouldOverflow() throws Exception
+	{
+		long firstMdatPosition = 32L, moovPosition = 0x140000000L;
+		long afterMoovOffset = moovPosition + LargeVideoMoov( 0L, 0L ).length + 8L;
+		byte[] moov = LargeVideoMoov( firstMdatPosition, afterMoovOffset );
+
+		byte[] result = NativeCameraMp4FastStart.RelocateMoov( moov.clone(), firstMdatPosition, moovPosition );
+		assertEquals( moov.length + 3 * 4, result.length ); // Each 'stco' entry grows from 4 bytes to 8 bytes
+		assertEquals( result.length, ReadInt32( result, 0 ) );
+		assertEquals( -1, IndexOfBox( result, "stco" ) );
+
+		int co64 = IndexOfBox( result, "co64" );
+		assertEquals( 8 + 8 + 3 * 8, ReadInt32( result, co64 ) );
+		assertEquals( 3L, ReadInt32( result, co64 + 12 ) );
+		assertEquals( 16L, ReadInt64( result, co64 + 16 ) ); // Before the first 'mdat': not moved
+		assertEquals( firstMdatPosition + 8L + result.length, ReadInt64( result, co64 + 24 ) );
+		assertEquals( 0xFFFFFFF0L + result.length, ReadInt64( result, co64 + 32 ) );
+
+		// Chunks after the old 'moov' are shifted by moov's growth
+		int co64AfterMoov = IndexOfBox( Arrays.copyOfRange( result, co64 + 8, result.length ), "co64" ) + co64 + 8;
+		assertEquals( afterMoovOffset + ( result.length - moov.length ), ReadInt64( result, co64AfterMoov + 16 ) );
+
+		// Parent boxes' sizes must account for the larger table
+		int trak = IndexOfBox( result, "trak" );
+		assertEquals( co64AfterMoov, trak + ReadInt32( result, trak ) + 8 + 8 + 8 + 8 );
+	}
+
+	@Test
+	public void ShiftsExistingCo64Offsets() throws Exception
+	{
+		long firstMdatPosition = 32L, moovPosition = 0x100000000L;
+		byte[] moov = MoovWithChunkOffsets( Co64( firstMdatPosition + 8L, moovPosition - 8L ) );
+
+		byte[] result = NativeCameraMp4FastStart.RelocateMoov( moov.clone(), firstMdatPosition, moovPosition );
+		assertEquals( moov.length, result.length );
+
+		int co64 = IndexOfBox( result, "co64" );
+		assertEquals( firstMdatPosition + 8L + moov.length, ReadInt64( result, co64 + 16 ) );
+		assertEquals( moovPosition - 8L + moov.length, ReadInt64( result, co64 + 24 ) );
+	}
+
+	@Test
+	public void IgnoresFastStartVideos() throws Exception
+	{
+		File src = Write( folder.newFile(), FTYP, MoovWithChunkOffsets( Stco( 100L ) ), Box( "mdat", Payload( 100, 0 ) ) );
+		File dst = new File( folder.getRoot(), "dst.mp4" );
+
+		assertFalse( NativeCameraMp4FastStart.Process( src.getAbsolutePath(), dst.getAbsolutePath() ) );
+		assertFalse( dst.exists() );
+	}
+
+	@Test
+	public void IgnoresFragmentedVideos() throws Exception
+	{
+		File src = Write( folder.newFile(), FTYP, Box( "mdat", Payload( 100, 0 ) ), MoovWithChunkOffsets( Stco( 40L ) ), Box( "moof", Zeros( 16 ) ), Box( "mdat", Payload( 100, 0 ) ) );
+		File dst = new File( folder.getRoot(), "dst.mp4" );
+
+		assertFalse( NativeCameraMp4FastStart.Process( src.getAbsolutePath(), dst.getAbsolutePath() ) );
+		assertFalse( dst.exists() );
+	}
+
+	@Test
+	public void IgnoresNonMp4Files() throws Exception
+	{
+		File src = Write( folder.newFile(), FTYP, Box( "free", Zeros( 32 ) ) );
+		File dst = new File( folder.getRoot(), "dst.mp4" );
+
+		assertFalse( NativeCameraMp4FastStart.Process( src.getAbsolutePath(), dst.getAbsolutePath() ) );
+		assertFalse( dst.exists() );
+	}
+
+	@Test( expected = IOException.class )
+	public void ThrowsForTruncatedVideos() throws Exception
+	{
+		byte[] video = Concat( FTYP, Box( "mdat", Payload( 100, 0 ) ), MoovWithChunkOffsets( Stco( 40L ) ) );
+		File src = Write( folder.newFile(), Arrays.copyOf( video, video.length - 10 ) );
+
+		NativeCameraMp4FastStart.Process( src.getAbsolutePath(), new File( folder.getRoot(), "dst.mp4" ).getAbsolutePath() );
+	}
+}
\ No newline at end of file
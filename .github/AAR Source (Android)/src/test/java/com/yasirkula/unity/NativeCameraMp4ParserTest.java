@@ -0,0 +1,214 @@
+package com.yasirkula.unity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static com.yasirkula.unity.Mp4Boxes.*;
+import static org.junit.Assert.*;
+
+public class NativeCameraMp4ParserTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final byte[] FTYP = Box( "ftyp", "isom".getBytes(), Int32( 0L ) );
+	private static final byte[] MDAT = Box( "mdat", Zeros( 4000 ) );
+
+	private static final long[] IDENTITY_MATRIX = new long[] { 0x10000L, 0L, 0x10000L };
+
+	private static byte[] Mvhd( final int version, final long timescale, final long duration )
+	{
+		if( version == 1 )
+			return FullBox( "mvhd", 1, Zeros( 16 ), Int32( timescale ), Int64( duration ), Zeros( 80 ) );
+
+		return FullBox( "mvhd", 0, Zeros( 8 ), Int32( timescale, duration ), Zeros( 80 ) );
+	}
+
+	// matrix: { a, b, d } (c is -b)
+	private static byte[] Tkhd( final int version, final long[] matrix, final int width, final int height )
+	{
+		byte[] matrixBytes = Int32( matrix[0], matrix[1], 0L, -matrix[1], matrix[2], 0L, 0L, 0L, 0x40000000L );
+		byte[] dimensions = Int32( (long) width << 16, (long) height << 16 );
+		if( version == 1 )
+			return FullBox( "tkhd", 1, Zeros( 16 ), Int32( 1L, 0L ), Int64( 0L ), Zeros( 16 ), matrixBytes, dimensions );
+
+		return FullBox( "tkhd", 0, Zeros( 8 ), Int32( 1L, 0L, 0L ), Zeros( 16 ), matrixBytes, dimensions );
+	}
+
+	private static byte[] Mdhd( final int version, final long timescale, final long duration )
+	{
+		if( version == 1 )
+			return FullBox( "mdhd", 1, Zeros( 16 ), Int32( timescale ), Int64( duration ), Zeros( 4 ) );
+
+		return FullBox( "mdhd", 0, Zeros( 8 ), Int32( timescale, duration ), Zeros( 4 ) );
+	}
+
+	private static byte[] Hdlr( final String handlerType )
+	{
+		return FullBox( "hdlr", 0, Zeros( 4 ), handlerType.getBytes(), Zeros( 13 ) );
+	}
+
+	private static byte[] VisualSampleEntries( final String codec, final int width, final int height )
+	{
+		byte[] entry = Box( codec, Zeros( 6 ), Int16( 1 ), Zeros( 16 ), Int16( width, height ), Zeros( 50 ) );
+		return FullBox( "stsd", 0, Int32( 1L ), entry );
+	}
+
+	private static byte[] Stts( final long... countsAndDeltas )
+	{
+		return FullBox( "stts", 0, Int32( countsAndDeltas.length / 2 ), Int32( countsAndDeltas ) );
+	}
+
+	private static byte[] Stss( final int keyframeCount )
+	{
+		long[] samples = new long[keyframeCount];
+		for( int i = 0; i < keyframeCount; i++ )
+			samples[i] = i * 30 + 1;
+
+		return FullBox( "stss", 0, Int32( keyframeCount ), Int32( samples ) );
+	}
+
+	private static byte[] Trak( final byte[] tkhd, final byte[] mdhd, final String handlerType, final byte[]... sampleTables )
+	{
+		return Box( "trak", tkhd, Box( "mdia", mdhd, Hdlr( handlerType ), Box( "minf", Box( "stbl", sampleTables ) ) ) );
+	}
+
+	// 10 second 1920x1080 30 FPS video track with a keyframe every second
+	private static byte[] VideoTrak( final int version, final long[] matrix, final boolean hasStss )
+	{
+		byte[] stsd = VisualSampleEntries( "avc1", 1920, 1080 );
+		byte[] stts = Stts( 300L, 1000L );
+		return Trak( Tkhd( version, matrix, 1920, 1080 ), Mdhd( version, 30000L, 300000L ), "vide", hasStss ? Concat( stsd, stts, Stss( 10 ) ) : Concat( stsd, stts ) );
+	}
+
+	private static byte[] AudioTrak()
+	{
+		return Trak( Tkhd( 0, IDENTITY_MATRIX, 0, 0 ), Mdhd( 0, 44100L, 441000L ), "soun", FullBox( "stsd", 0, Int32( 1L ), Box( "mp4a", Zeros( 28 ) ) ), Stts( 431L, 1024L ) );
+	}
+
+	private NativeCameraMp4Parser Parse( final byte[]... boxes ) throws Exception
+	{
+		return NativeCameraMp4Parser.Parse( Write( folder.newFile(), boxes ).getAbsolutePath() );
+	}
+
+	@Test
+	public void ParsesVideoWithAudio() throws Exception
+	{
+		byte[] moov = Box( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, IDENTITY_MATRIX, true ), AudioTrak() );
+		NativeCameraMp4Parser result = Parse( FTYP, moov, MDAT );
+
+		assertNotNull( result );
+		assertEquals( 1920, result.width );
+		assertEquals( 1080, result.height );
+		assertEquals( 10000L, result.duration );
+		assertEquals( 0, result.rotation );
+		assertEquals( 30f, result.frameRate, 0.001f );
+		assertEquals( "avc1", result.codec );
+		assertEquals( ( FTYP.length + moov.length + MDAT.length ) * 8L * 1000L / 10000L, result.bitrate );
+		assertTrue( result.hasAudio );
+		assertEquals( 10L, result.keyframeCount );
+	}
+
+	@Test
+	public void ParsesVersion1Headers() throws Exception
+	{
+		NativeCameraMp4Parser result = Parse( FTYP, Box( "moov", Mvhd( 1, 1000L, 10000L ), VideoTrak( 1, new long[] { 0L, 0x10000L, 0L }, true ) ), MDAT );
+
+		assertNotNull( result );
+		assertEquals( 1920, result.width );
+		assertEquals( 1080, result.height );
+		assertEquals( 10000L, result.duration );
+		assertEquals( 90, result.rotation );
+		assertEquals( 30f, result.frameRate, 0.001f );
+		assertFalse( result.hasAudio );
+	}
+
+	@Test
+	public void CalculatesRotationFromMatrix() throws Exception
+	{
+		long one = 0x10000L, minusOne = 0xFFFF0000L;
+		long[][] matrices = new long[][] { IDENTITY_MATRIX, { 0L, one, 0L }, { minusOne, 0L, minusOne }, { 0L, minusOne, 0L } };
+		int[] rotations = new int[] { 0, 90, 180, 270 };
+
+		for( int i = 0; i < matrices.length; i++ )
+		{
+			NativeCameraMp4Parser result = Parse( FTYP, Box( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, matrices[i], true ) ), MDAT );
+			assertNotNull( result );
+			assertEquals( rotations[i], result.rotation );
+			assertEquals( 1920, result.width ); // Dimensions aren't rotated
+		}
+	}
+
+	@Test
+	public void TreatsAllSamplesAsKeyframesWithoutStss() throws Exception
+	{
+		NativeCameraMp4Parser result = Parse( FTYP, Box( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, IDENTITY_MATRIX, false ) ), MDAT );
+
+		assertNotNull( result );
+		assertEquals( 300L, result.keyframeCount );
+	}
+
+	@Test
+	public void ParsesMoovAfterMdat() throws Exception
+	{
+		NativeCameraMp4Parser result = Parse( FTYP, MDAT, Box( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, IDENTITY_MATRIX, true ), AudioTrak() ) );
+
+		assertNotNull( result );
+		assertEquals( 10000L, result.duration );
+		assertTrue( result.hasAudio );
+	}
+
+	@Test
+	public void FallsBackToTrackDuration() throws Exception
+	{
+		NativeCameraMp4Parser result = Parse( FTYP, Box( "moov", Mvhd( 0, 1000L, 0L ), VideoTrak( 0, IDENTITY_MATRIX, true ) ), MDAT );
+
+		assertNotNull( result );
+		assertEquals( 10000L, result.duration );
+	}
+
+	@Test
+	public void ReturnsNullForFragmentedVideos() throws Exception
+	{
+		// Samples of fragmented videos are listed in 'moof' boxes, 'moov' has empty sample tables
+		byte[] trak = Trak( Tkhd( 0, IDENTITY_MATRIX, 1920, 1080 ), Mdhd( 0, 30000L, 0L ), "vide", VisualSampleEntries( "avc1", 1920, 1080 ), Stts() );
+		byte[] moov = Box( "moov", Mvhd( 0, 1000L, 0L ), trak, Box( "mvex", Zeros( 32 ) ) );
+
+		assertNull( Parse( FTYP, moov, Box( "moof", Zeros( 64 ) ), MDAT ) );
+	}
+
+	@Test
+	public void ReturnsNullForTruncatedVideos() throws Exception
+	{
+		byte[] video = Concat( FTYP, MDAT, Box( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, IDENTITY_MATRIX, true ) ) );
+
+		assertNull( Parse( Arrays.copyOf( video, video.length - 100 ) ) );
+		assertNull( Parse( Arrays.copyOf( video, FTYP.length + MDAT.length + 20 ) ) );
+	}
+
+	@Test
+	public void ReturnsNullForOtherFiles() throws Exception
+	{
+		assertNull( Parse( new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R' } ) );
+		assertNull( Parse( FTYP, MDAT ) );
+		assertNull( Parse( new byte[0] ) );
+	}
+
+	@Test
+	public void ReturnsNullForAudioOnlyFiles() throws Exception
+	{
+		assertNull( Parse( FTYP, Box( "moov", Mvhd( 0, 1000L, 10000L ), AudioTrak() ), MDAT ) );
+	}
+
+	@Test
+	public void ParsesLargeBoxSizes() throws Exception
+	{
+		NativeCameraMp4Parser result = Parse( FTYP, LargeBox( "mdat", Zeros( 4000 ) ), LargeBox( "moov", Mvhd( 0, 1000L, 10000L ), VideoTrak( 0, IDENTITY_MATRIX, true ) ) );
+
+		assertNotNull( result );
+		assertEquals( 1920, result.width );
+	}
+}
\ No newline at end of file
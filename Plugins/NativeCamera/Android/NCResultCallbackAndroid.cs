@@ -0,0 +1,24 @@
+﻿#if UNITY_EDITOR || UNITY_ANDROID
+using System.Threading.Tasks;
+using UnityEngine;
+
+namespace NativeCameraNamespace
+{
+	public class NCResultCallbackAndroid : AndroidJavaProxy
+	{
+		private readonly TaskCompletionSource<string> taskCompletionSource = new TaskCompletionSource<string>( TaskCreationOptions.RunContinuationsAsynchronously );
+
+		public Task<string> Task { get { return taskCompletionSource.Task; } }
+
+		public NCResultCallbackAndroid() : base( "com.yasirkula.unity.NativeCameraResultReceiver" )
+		{
+		}
+
+		[UnityEngine.Scripting.Preserve]
+		public void OnResultReceived( string result )
+		{
+			taskCompletionSource.TrySetResult( result );
+		}
+	}
+}
+#endif
\ No newline at end of file
@@ -1,8 +1,10 @@
 ﻿using System;
 using System.Globalization;
 using System.IO;
+using System.Threading;
 using UnityEngine;
 using System.Threading.Tasks;
+using Unity.Collections;
 using UnityEngine.Networking;
 #if UNITY_ANDROID || UNITY_IOS
 using NativeCameraNamespace;
@@ -43,13 +45,119 @@ public static class NativeCamera
 		}
 	}
 
+	// Extended video properties (see GetVideoDetails). Values that can't be determined are 0 (frameRate, bitrate), empty (codec) or -1 (keyframeCount)
+	public struct VideoDetails
+	{
+		public readonly VideoProperties properties;
+		public readonly float frameRate; // Average frames per second
+		public readonly string codec; // e.g. "avc1" (H.264), "hvc1"/"hev1" (H.265), "av01", "vp09"
+		public readonly long bitrate; // Average bits per second
+		public readonly bool hasAudio;
+		public readonly long keyframeCount;
+
+		public VideoDetails( VideoProperties properties, float frameRate, string codec, long bitrate, bool hasAudio, long keyframeCount )
+		{
+			this.properties = properties;
+			this.frameRate = frameRate;
+			this.codec = codec;
+			this.bitrate = bitrate;
+			this.hasAudio = hasAudio;
+			this.keyframeCount = keyframeCount;
+		}
+	}
+
+	// Frames of a video packed into a single texture (see GetVideoFrameAtlasAsync)
+	public class VideoFrameAtlas
+	{
+		public readonly Texture2D texture;
+		public readonly Rect[] frameRects; // In pixels, origin is the bottom-left corner of the texture
+		public readonly double[] frameTimes; // In seconds, presentation time of the frame that is shown (may differ slightly from the requested time)
+
+		public VideoFrameAtlas( Texture2D texture, Rect[] frameRects, double[] frameTimes )
+		{
+			this.texture = texture;
+			this.frameRects = frameRects;
+			this.frameTimes = frameTimes;
+		}
+	}
+
+	// Keeps a video open between property/thumbnail queries (see OpenVideoSession). Must be disposed when the video is no longer needed
+	public class VideoSession : IDisposable
+	{
+		public readonly string videoPath;
+		private int handle; // Native session handle on Android, 0 on other platforms or after Dispose
+
+		internal VideoSession( string videoPath, int handle )
+		{
+			this.videoPath = videoPath;
+			this.handle = handle;
+		}
+
+		public VideoProperties GetProperties()
+		{
+#if !UNITY_EDITOR && UNITY_ANDROID
+			if( handle != 0 )
+				return CreateVideoProperties( AJC.CallStatic<long[]>( "GetVideoSessionProperties", handle ), 0 );
+#endif
+
+			return GetVideoProperties( videoPath );
+		}
+
+		public async Task<Texture2D> GetThumbnailAsync( int maxSize = -1, double captureTimeInSeconds = -1.0, bool markTextureNonReadable = true, CancellationToken cancellationToken = default( CancellationToken ), TaskPriority priority = TaskPriority.Normal, ImageEncodeFormat encodeFormat = ImageEncodeFormat.Auto, int encodeQuality = 95 )
+		{
+#if !UNITY_EDITOR && UNITY_ANDROID
+			if( handle != 0 )
+			{
+				if( maxSize <= 0 )
+					maxSize = SystemInfo.maxTextureSize;
+
+				cancellationToken.ThrowIfCancellationRequested();
+
+				string thumbnailPath;
+				NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+				using( AndroidJavaObject nativeCancellationToken = new AndroidJavaObject( "com.yasirkula.unity.NativeCameraCancellationToken" ) )
+				using( cancellationToken.Register( () => nativeCancellationToken.Call( "Cancel" ), true ) ) // Callback is invoked on the main thread
+				{
+					AJC.CallStatic( "GetVideoSessionThumbnailAsync", Context, resultCallback, handle, "", (int) encodeFormat, encodeQuality, maxSize, captureTimeInSeconds, (int) priority, nativeCancellationToken );
+					thumbnailPath = await resultCallback.Task;
+				}
+
+				if( !string.IsNullOrEmpty( thumbnailPath ) )
+					return await LoadImageAtPathAsync( thumbnailPath, maxSize, markTextureNonReadable, cancellationToken: cancellationToken, priority: priority );
+
+				cancellationToken.ThrowIfCancellationRequested();
+				return null;
+			}
+#endif
+
+			return await GetVideoThumbnailAsync( videoPath, maxSize, captureTimeInSeconds, markTextureNonReadable, cancellationToken, priority, encodeFormat, encodeQuality );
+		}
+
+		public void Dispose()
+		{
+#if !UNITY_EDITOR && UNITY_ANDROID
+			if( handle != 0 )
+				AJC.CallStatic( "CloseVideoSession", handle );
+#endif
+
+			handle = 0;
+		}
+	}
+
 	public enum Permission { Denied = 0, Granted = 1, ShouldAsk = 2 };
 	public enum Quality { Default = -1, Low = 0, Medium = 1, High = 2 };
 	public enum PreferredCamera { Default = -1, Rear = 0, Front = 1 }
 
+	// Order in which queued asynchronous operations are processed on Android (e.g. High for images that are visible on screen)
+	public enum TaskPriority { Low = 0, Normal = 1, High = 2 };
+
 	// EXIF orientation: http://sylvana.net/jpegcrop/exif_orientation.html (indices are reordered)
 	public enum ImageOrientation { Unknown = -1, Normal = 0, Rotate90 = 1, Rotate180 = 2, Rotate270 = 3, FlipHorizontal = 4, Transpose = 5, FlipVertical = 6, Transverse = 7 };
 
+	// Format of the image files that are generated on Android before being loaded into a Texture2D (e.g. video thumbnails)
+	// Auto: PNG if the image has transparent pixels, JPEG otherwise. WebPLossless falls back to WebPLossy on Android 10 and earlier
+	public enum ImageEncodeFormat { Auto = 0, JPEG = 1, PNG = 2, WebPLossy = 3, WebPLossless = 4 };
+
 	public delegate void PermissionCallback( Permission permission );
 	public delegate void CameraCallback( string path );
 
@@ -223,7 +331,9 @@ public static class NativeCamera
 		}, true );
 	}
 
-	public static void RecordVideo( CameraCallback callback, Quality quality = Quality.Default, int maxDuration = 0, long maxSizeBytes = 0L, PreferredCamera preferredCamera = PreferredCamera.Default )
+	// returnFileDescriptor (Android only): if the recorded video can't be accessed directly, instead of copying it to the cache, callback receives
+	// a file descriptor to it that can be parsed via TryParseFileDescriptor
+	public static void RecordVideo( CameraCallback callback, Quality quality = Quality.Default, int maxDuration = 0, long maxSizeBytes = 0L, PreferredCamera preferredCamera = PreferredCamera.Default, bool returnFileDescriptor = false )
 	{
 		RequestPermissionAsync( ( permission ) =>
 		{
@@ -239,7 +349,7 @@ public static class NativeCamera
 			if( callback != null )
 				callback( pickedFile != "" ? pickedFile : null );
 #elif UNITY_ANDROID
-			AJC.CallStatic( "RecordVideo", Context, new NCCameraCallbackAndroid( callback ), (int) preferredCamera, (int) quality, maxDuration, maxSizeBytes );
+			AJC.CallStatic( "RecordVideo", Context, new NCCameraCallbackAndroid( callback ), (int) preferredCamera, (int) quality, maxDuration, maxSizeBytes, returnFileDescriptor );
 #elif UNITY_IOS
 			NCCameraCallbackiOS.Initialize( callback );
 			_NativeCamera_RecordVideo( (int) quality, maxDuration, (int) preferredCamera );
@@ -250,6 +360,96 @@ public static class NativeCamera
 		}, false );
 	}
 
+	// Android only: parses the "fd:FD>OFFSET>LENGTH" value that RecordVideo's callback receives when returnFileDescriptor is true. The video's
+	// bytes are in range [offset, offset+length) of the file descriptor. The file descriptor must be closed via CloseFileDescriptor when it's
+	// no longer needed. Returns false if path is a regular file path
+	public static bool TryParseFileDescriptor( string path, out int fileDescriptor, out long offset, out long length )
+	{
+		fileDescriptor = -1;
+		offset = 0L;
+		length = 0L;
+
+		if( string.IsNullOrEmpty( path ) || !path.StartsWith( "fd:", StringComparison.Ordinal ) )
+			return false;
+
+		string[] values = path.Substring( 3 ).Split( '>' );
+		if( values.Length < 3 )
+			return false;
+
+		return int.TryParse( values[0], NumberStyles.Integer, CultureInfo.InvariantCulture, out fileDescriptor ) &&
+			long.TryParse( values[1], NumberStyles.Integer, CultureInfo.InvariantCulture, out offset ) &&
+			long.TryParse( values[2], NumberStyles.Integer, CultureInfo.InvariantCulture, out length );
+	}
+
+	public static void CloseFileDescriptor( int fileDescriptor )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "CloseFileDescriptor", fileDescriptor );
+#endif
+	}
+
+	// Android only: if enabled, media that has to be copied to the cache (e.g. a recorded video that can't be accessed directly) is hashed while
+	// it's being copied and copying the same media again returns the existing copy instead of creating a duplicate. Disabled by default
+	public static void SetDeduplicateCopies( bool value )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "SetDeduplicateCopies", value );
+#endif
+	}
+
+	// Android only: if enabled, recorded MP4/MOV videos are rewritten so that their metadata ('moov' box) is at the start of the file, which
+	// allows them to be played or uploaded progressively. The video isn't re-encoded. Disabled by default
+	public static void SetFastStartRecordedVideos( bool value )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "SetFastStartRecordedVideos", value );
+#endif
+	}
+
+	// Android only: rewrites the MP4/MOV video in place so that its metadata is at the start of the file (see SetFastStartRecordedVideos).
+	// Returns false if the video didn't need it or couldn't be processed, the file is left untouched in that case
+	public static bool MakeVideoFastStart( string videoPath )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		return AJC.CallStatic<bool>( "MakeVideoFastStart", Context, videoPath );
+#else
+		return false;
+#endif
+	}
+
+	public static async Task<bool> MakeVideoFastStartAsync( string videoPath, TaskPriority priority = TaskPriority.Normal )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		AJC.CallStatic( "MakeVideoFastStartAsync", Context, resultCallback, videoPath, (int) priority );
+		return await resultCallback.Task == "1";
+#else
+		return await Task.FromResult( false );
+#endif
+	}
+
+	// Returns the SHA-256 hash of the file as a lowercase hex string. On Android, this is instant for the files that were copied while
+	// SetDeduplicateCopies was enabled
+	public static string GetFileHash( string path )
+	{
+		if( !File.Exists( path ) )
+			throw new FileNotFoundException( "File not found at " + path );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		return AJC.CallStatic<string>( "GetFileHash", path );
+#else
+		using( System.Security.Cryptography.SHA256 sha256 = System.Security.Cryptography.SHA256.Create() )
+		using( FileStream stream = File.OpenRead( path ) )
+			return BitConverter.ToString( sha256.ComputeHash( stream ) ).Replace( "-", "" ).ToLowerInvariant();
+#endif
+	}
+
 	public static bool DeviceHasCamera()
 	{
 #if !UNITY_EDITOR && UNITY_ANDROID
@@ -272,7 +472,9 @@ public static class NativeCamera
 	#endregion
 
 	#region Utility Functions
-	public static Texture2D LoadImageAtPath( string imagePath, int maxSize = -1, bool markTextureNonReadable = true, bool generateMipmaps = true, bool linearColorSpace = false )
+	// On Android, memoryBudget limits the memory allocated while decoding the image (0: use the value set via SetDecodeMemoryBudget) and
+	// grayscale loads the image as an Alpha8 texture that contains the image's luminance
+	public static Texture2D LoadImageAtPath( string imagePath, int maxSize = -1, bool markTextureNonReadable = true, bool generateMipmaps = true, bool linearColorSpace = false, bool grayscale = false, long memoryBudget = 0L )
 	{
 		if( string.IsNullOrEmpty( imagePath ) )
 			throw new ArgumentException( "Parameter 'imagePath' is null or empty!" );
@@ -284,7 +486,27 @@ public static class NativeCamera
 			maxSize = SystemInfo.maxTextureSize;
 
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string loadPath = AJC.CallStatic<string>( "LoadImageAtPath", Context, imagePath, TemporaryImagePath, maxSize );
+		string loadPath = AJC.CallStatic<string>( "LoadImageAtPathRaw", Context, imagePath, "", maxSize, generateMipmaps, grayscale, memoryBudget );
+		if( IsRawImagePath( loadPath, imagePath ) )
+		{
+			try
+			{
+				return LoadRawImage( File.ReadAllBytes( loadPath ), markTextureNonReadable, generateMipmaps, linearColorSpace );
+			}
+			catch( Exception e )
+			{
+				Debug.LogException( e );
+				return null;
+			}
+			finally
+			{
+				try
+				{
+					File.Delete( loadPath );
+				}
+				catch { }
+			}
+		}
 #elif !UNITY_EDITOR && UNITY_IOS
 		string loadPath = _NativeCamera_LoadImageAtPath( imagePath, TemporaryImagePath, maxSize );
 #else
@@ -328,7 +550,7 @@ public static class NativeCamera
 		return result;
 	}
 
-	public static async Task<Texture2D> LoadImageAtPathAsync( string imagePath, int maxSize = -1, bool markTextureNonReadable = true )
+	public static async Task<Texture2D> LoadImageAtPathAsync( string imagePath, int maxSize = -1, bool markTextureNonReadable = true, bool grayscale = false, long memoryBudget = 0L, CancellationToken cancellationToken = default( CancellationToken ), TaskPriority priority = TaskPriority.Normal )
 	{
 		if( string.IsNullOrEmpty( imagePath ) )
 			throw new ArgumentException( "Parameter 'imagePath' is null or empty!" );
@@ -339,9 +561,47 @@ public static class NativeCamera
 		if( maxSize <= 0 )
 			maxSize = SystemInfo.maxTextureSize;
 
+		cancellationToken.ThrowIfCancellationRequested();
+
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string temporaryImagePath = TemporaryImagePath; // Must be accessed from main thread
-		string loadPath = await TryCallNativeAndroidFunctionOnSeparateThread( () => AJC.CallStatic<string>( "LoadImageAtPath", Context, imagePath, temporaryImagePath, maxSize ) );
+		string loadPath;
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		using( AndroidJavaObject nativeCancellationToken = new AndroidJavaObject( "com.yasirkula.unity.NativeCameraCancellationToken" ) )
+		using( cancellationToken.Register( () => nativeCancellationToken.Call( "Cancel" ), true ) ) // Callback is invoked on the main thread
+		{
+			AJC.CallStatic( "LoadImageAtPathRawAsync", Context, resultCallback, imagePath, "", maxSize, true, grayscale, memoryBudget, (int) priority, nativeCancellationToken );
+			loadPath = await resultCallback.Task;
+		}
+
+		if( IsRawImagePath( loadPath, imagePath ) )
+		{
+			try
+			{
+				cancellationToken.ThrowIfCancellationRequested();
+
+				byte[] rawImage = await Task.Run( () => File.ReadAllBytes( loadPath ), cancellationToken );
+				cancellationToken.ThrowIfCancellationRequested();
+
+				return LoadRawImage( rawImage, markTextureNonReadable, true, false );
+			}
+			catch( OperationCanceledException )
+			{
+				throw;
+			}
+			catch( Exception e )
+			{
+				Debug.LogException( e );
+				return null;
+			}
+			finally
+			{
+				try
+				{
+					File.Delete( loadPath );
+				}
+				catch { }
+			}
+		}
 #elif !UNITY_EDITOR && UNITY_IOS
 		string temporaryImagePath = TemporaryImagePath; // Must be accessed from main thread
 		string loadPath = await Task.Run( () => _NativeCamera_LoadImageAtPath( imagePath, temporaryImagePath, maxSize ) );
@@ -355,7 +615,25 @@ public static class NativeCamera
 		{
 			UnityWebRequestAsyncOperation asyncOperation = www.SendWebRequest();
 			while( !asyncOperation.isDone )
+			{
+				if( cancellationToken.IsCancellationRequested )
+				{
+					www.Abort();
+
+					if( loadPath != imagePath )
+					{
+						try
+						{
+							File.Delete( loadPath );
+						}
+						catch { }
+					}
+
+					cancellationToken.ThrowIfCancellationRequested();
+				}
+
 				await Task.Yield();
+			}
 
 			if( www.result != UnityWebRequest.Result.Success )
 				Debug.LogWarning( "Couldn't use UnityWebRequest to load image, falling back to LoadImage: " + www.error );
@@ -363,6 +641,17 @@ public static class NativeCamera
 				result = DownloadHandlerTexture.GetContent( www );
 		}
 
+#if !UNITY_EDITOR && UNITY_ANDROID
+		if( result && loadPath != imagePath ) // Losslessly rotated JPEG
+		{
+			try
+			{
+				File.Delete( loadPath );
+			}
+			catch { }
+		}
+#endif
+
 		if( !result ) // Fallback to Texture2D.LoadImage if something goes wrong
 		{
 			string extension = Path.GetExtension( imagePath ).ToLowerInvariant();
@@ -403,13 +692,165 @@ public static class NativeCamera
 		return result;
 	}
 
-	public static Texture2D GetVideoThumbnail( string videoPath, int maxSize = -1, double captureTimeInSeconds = -1.0, bool markTextureNonReadable = true, bool generateMipmaps = true, bool linearColorSpace = false )
+	// Loads multiple images at once. On Android, the images are decoded in parallel with a single native call. Elements of the
+	// returned array are null for the images that couldn't be loaded
+	public static async Task<Texture2D[]> LoadImagesAtPathsAsync( string[] imagePaths, int maxSize = -1, bool markTextureNonReadable = true )
 	{
+		if( imagePaths == null )
+			throw new ArgumentNullException( "imagePaths" );
+
 		if( maxSize <= 0 )
 			maxSize = SystemInfo.maxTextureSize;
 
+		Texture2D[] result = new Texture2D[imagePaths.Length];
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		string[] rawImagePaths = new string[imagePaths.Length];
+		for( int i = 0; i < imagePaths.Length; i++ )
+			rawImagePaths[i] = ""; // Native code picks a unique temporary path for each image
+
+		// All images are decoded to raw images (with their mip chains) in parallel, so each image is decoded exactly once and Unity doesn't
+		// have to generate their mipmaps on the main thread
+		string[] loadPaths = await TryCallNativeAndroidFunctionOnSeparateThread( () => AJC.CallStatic<string[]>( "LoadImagesAtPathsRaw", Context, imagePaths, rawImagePaths, maxSize, true ) );
+		for( int i = 0; i < imagePaths.Length; i++ )
+		{
+			string loadPath = loadPaths[i];
+			if( string.IsNullOrEmpty( loadPath ) )
+				continue;
+
+			try
+			{
+				byte[] rawImage = await Task.Run( () => File.ReadAllBytes( loadPath ) );
+				result[i] = LoadRawImage( rawImage, markTextureNonReadable, true, false );
+			}
+			catch( Exception e )
+			{
+				Debug.LogException( e );
+			}
+			finally
+			{
+				try
+				{
+					File.Delete( loadPath );
+				}
+				catch { }
+			}
+		}
+#else
+		for( int i = 0; i < imagePaths.Length; i++ )
+		{
+			try
+			{
+				result[i] = await LoadImageAtPathAsync( imagePaths[i], maxSize, markTextureNonReadable );
+			}
+			catch( Exception e )
+			{
+				Debug.LogException( e );
+			}
+		}
+#endif
+
+		return result;
+	}
+
+	// Loads the image as an ETC2 compressed texture (ETC2_RGBA8 if the image has transparent pixels, ETC2_RGB otherwise) that uses 4-8 times
+	// less memory than an uncompressed texture. Compression is done on Android only, falls back to LoadImageAtPathAsync on other platforms
+	// and on devices that don't support ETC2. fastCompression trades a little quality for a few times faster compression
+	public static async Task<Texture2D> LoadImageAtPathCompressedAsync( string imagePath, int maxSize = -1, bool markTextureNonReadable = true, bool fastCompression = true )
+	{
+		if( string.IsNullOrEmpty( imagePath ) )
+			throw new ArgumentException( "Parameter 'imagePath' is null or empty!" );
+
+		if( !File.Exists( imagePath ) )
+			throw new FileNotFoundException( "File not found at " + imagePath );
+
+		if( maxSize <= 0 )
+			maxSize = SystemInfo.maxTextureSize;
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		if( SystemInfo.SupportsTextureFormat( TextureFormat.ETC2_RGBA8 ) )
+		{
+			string loadPath = await TryCallNativeAndroidFunctionOnSeparateThread( () => AJC.CallStatic<string>( "LoadImageAtPathETC2", Context, imagePath, "", maxSize, fastCompression ) );
+			if( !string.IsNullOrEmpty( loadPath ) )
+			{
+				try
+				{
+					byte[] ktxImage = await Task.Run( () => File.ReadAllBytes( loadPath ) );
+					return LoadKTXImage( ktxImage, markTextureNonReadable, false );
+				}
+				catch( Exception e )
+				{
+					Debug.LogException( e );
+					return null;
+				}
+				finally
+				{
+					try
+					{
+						File.Delete( loadPath );
+					}
+					catch { }
+				}
+			}
+		}
+#endif
+
+		return await LoadImageAtPathAsync( imagePath, maxSize, markTextureNonReadable );
+	}
+
+	// Android only: limits the memory allocated while decoding images (in bytes, 0: unlimited). To stay within the budget, images with
+	// non-default orientation are decoded in bands, JPEGs are decoded as RGB565 and as a last resort, images are loaded at a lower resolution
+	public static void SetDecodeMemoryBudget( long memoryBudget )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "SetDecodeMemoryBudget", memoryBudget );
+#endif
+	}
+
+	// Android only: intermediate images (e.g. decoded images) are stored in a temporary folder with unique names. When the total size of these
+	// files exceeds maxSize (in bytes, 0: unlimited), the least recently used files are deleted. Default value is 1 GB. Captured media
+	// (and copies of them) are stored separately and aren't affected by this limit
+	public static void SetTemporaryFileCacheSize( long maxSize )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "SetTemporaryFileCacheSize", Context, maxSize );
+#endif
+	}
+
+	// Android only: deletes the temporary files mentioned in SetTemporaryFileCacheSize and the captured media. Paths that were previously
+	// returned by this plugin (e.g. the path of a captured video) become invalid
+	public static void ClearTemporaryFiles()
+	{
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string thumbnailPath = AJC.CallStatic<string>( "GetVideoThumbnail", Context, videoPath, TemporaryImagePath + ".png", false, maxSize, captureTimeInSeconds );
+		AJC.CallStatic( "ClearTemporaryFiles", Context );
+#endif
+	}
+
+	// Android only: generated video thumbnails are cached on disk between sessions, so requesting the same thumbnail of an unmodified video
+	// again returns the cached image immediately. When the total size of the cached thumbnails exceeds maxSize (in bytes, 0: caching is
+	// disabled), the least recently used thumbnails are deleted. Default value is 64 MB
+	public static void SetVideoThumbnailCacheSize( long maxSize )
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "SetVideoThumbnailCacheSize", Context, maxSize );
+#endif
+	}
+
+	// Android only: deletes the cached video thumbnails mentioned in SetVideoThumbnailCacheSize
+	public static void ClearVideoThumbnailCache()
+	{
+#if !UNITY_EDITOR && UNITY_ANDROID
+		AJC.CallStatic( "ClearVideoThumbnailCache", Context );
+#endif
+	}
+
+	public static Texture2D GetVideoThumbnail( string videoPath, int maxSize = -1, double captureTimeInSeconds = -1.0, bool markTextureNonReadable = true, bool generateMipmaps = true, bool linearColorSpace = false, ImageEncodeFormat encodeFormat = ImageEncodeFormat.Auto, int encodeQuality = 95 )
+	{
+		if( maxSize <= 0 )
+			maxSize = SystemInfo.maxTextureSize;
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		string thumbnailPath = AJC.CallStatic<string>( "GetVideoThumbnail", Context, videoPath, "", (int) encodeFormat, encodeQuality, maxSize, captureTimeInSeconds );
 #elif !UNITY_EDITOR && UNITY_IOS
 		string thumbnailPath = _NativeCamera_GetVideoThumbnail( videoPath, TemporaryImagePath + ".png", maxSize, captureTimeInSeconds );
 #else
@@ -422,14 +863,22 @@ public static class NativeCamera
 			return null;
 	}
 
-	public static async Task<Texture2D> GetVideoThumbnailAsync( string videoPath, int maxSize = -1, double captureTimeInSeconds = -1.0, bool markTextureNonReadable = true )
+	public static async Task<Texture2D> GetVideoThumbnailAsync( string videoPath, int maxSize = -1, double captureTimeInSeconds = -1.0, bool markTextureNonReadable = true, CancellationToken cancellationToken = default( CancellationToken ), TaskPriority priority = TaskPriority.Normal, ImageEncodeFormat encodeFormat = ImageEncodeFormat.Auto, int encodeQuality = 95 )
 	{
 		if( maxSize <= 0 )
 			maxSize = SystemInfo.maxTextureSize;
 
+		cancellationToken.ThrowIfCancellationRequested();
+
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string temporaryImagePath = TemporaryImagePath; // Must be accessed from main thread
-		string thumbnailPath = await TryCallNativeAndroidFunctionOnSeparateThread( () => AJC.CallStatic<string>( "GetVideoThumbnail", Context, videoPath, temporaryImagePath + ".png", false, maxSize, captureTimeInSeconds ) );
+		string thumbnailPath;
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		using( AndroidJavaObject nativeCancellationToken = new AndroidJavaObject( "com.yasirkula.unity.NativeCameraCancellationToken" ) )
+		using( cancellationToken.Register( () => nativeCancellationToken.Call( "Cancel" ), true ) ) // Callback is invoked on the main thread
+		{
+			AJC.CallStatic( "GetVideoThumbnailAsync", Context, resultCallback, videoPath, "", (int) encodeFormat, encodeQuality, maxSize, captureTimeInSeconds, (int) priority, nativeCancellationToken );
+			thumbnailPath = await resultCallback.Task;
+		}
 #elif !UNITY_EDITOR && UNITY_IOS
 		string temporaryImagePath = TemporaryImagePath; // Must be accessed from main thread
 		string thumbnailPath = await Task.Run( () => _NativeCamera_GetVideoThumbnail( videoPath, temporaryImagePath + ".png", maxSize, captureTimeInSeconds ) );
@@ -438,11 +887,179 @@ public static class NativeCamera
 #endif
 
 		if( !string.IsNullOrEmpty( thumbnailPath ) )
-			return await LoadImageAtPathAsync( thumbnailPath, maxSize, markTextureNonReadable );
+			return await LoadImageAtPathAsync( thumbnailPath, maxSize, markTextureNonReadable, cancellationToken: cancellationToken, priority: priority );
 		else
+		{
+			cancellationToken.ThrowIfCancellationRequested();
 			return null;
+		}
 	}
 
+	// Extracts frameCount evenly spaced frames (or the frames at captureTimesInSeconds, if not null) from the video in a single pass and
+	// packs them into one texture, e.g. for a scrubbing timeline. Each frame fits in maxFrameSize x maxFrameSize. Only supported on Android,
+	// returns null on other platforms
+	public static async Task<VideoFrameAtlas> GetVideoFrameAtlasAsync( string videoPath, int frameCount, int maxFrameSize = 256, double[] captureTimesInSeconds = null, bool markTextureNonReadable = true, CancellationToken cancellationToken = default( CancellationToken ), TaskPriority priority = TaskPriority.Normal )
+	{
+		cancellationToken.ThrowIfCancellationRequested();
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		string result;
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		using( AndroidJavaObject nativeCancellationToken = new AndroidJavaObject( "com.yasirkula.unity.NativeCameraCancellationToken" ) )
+		using( cancellationToken.Register( () => nativeCancellationToken.Call( "Cancel" ), true ) ) // Callback is invoked on the main thread
+		{
+			// An empty array (instead of null) is passed for evenly spaced frames so that the Java method signature can be resolved
+			AJC.CallStatic( "GetVideoFrameAtlasAsync", Context, resultCallback, videoPath, "", frameCount, captureTimesInSeconds ?? new double[0], maxFrameSize, SystemInfo.maxTextureSize, (int) priority, nativeCancellationToken );
+			result = await resultCallback.Task;
+		}
+
+		if( string.IsNullOrEmpty( result ) )
+		{
+			cancellationToken.ThrowIfCancellationRequested();
+			return null;
+		}
+
+		// Format: atlasPath>frameCount>x>y>width>height>timeInMilliseconds>... (frame rects have top-left origin)
+		string[] values = result.Split( '>' );
+		string atlasPath = values[0];
+
+		try
+		{
+			cancellationToken.ThrowIfCancellationRequested();
+
+			byte[] rawImage = await Task.Run( () => File.ReadAllBytes( atlasPath ), cancellationToken );
+			cancellationToken.ThrowIfCancellationRequested();
+
+			Texture2D texture = LoadRawImage( rawImage, markTextureNonReadable, false, false );
+			if( !texture )
+				return null;
+
+			int count = int.Parse( values[1], CultureInfo.InvariantCulture );
+			Rect[] frameRects = new Rect[count];
+			double[] frameTimes = new double[count];
+			for( int i = 0, index = 2; i < count; i++, index += 5 )
+			{
+				int x = int.Parse( values[index], CultureInfo.InvariantCulture );
+				int y = int.Parse( values[index + 1], CultureInfo.InvariantCulture );
+				int width = int.Parse( values[index + 2], CultureInfo.InvariantCulture );
+				int height = int.Parse( values[index + 3], CultureInfo.InvariantCulture );
+
+				frameRects[i] = new Rect( x, texture.height - y - height, width, height );
+				frameTimes[i] = long.Parse( values[index + 4], CultureInfo.InvariantCulture ) / 1000.0;
+			}
+
+			return new VideoFrameAtlas( texture, frameRects, frameTimes );
+		}
+		catch( OperationCanceledException )
+		{
+			throw;
+		}
+		catch( Exception e )
+		{
+			Debug.LogException( e );
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				File.Delete( atlasPath );
+			}
+			catch { }
+		}
+#else
+		return await Task.FromResult<VideoFrameAtlas>( null );
+#endif
+	}
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+	// LoadImageAtPathRaw returns imagePath if the image can be loaded as is, a ".jpg" file if the image could be rotated losslessly
+	// and a raw image otherwise
+	private static bool IsRawImagePath( string loadPath, string imagePath )
+	{
+		return loadPath != imagePath && !loadPath.EndsWith( ".jpg", StringComparison.OrdinalIgnoreCase );
+	}
+
+	// Raw image format is documented at NativeCameraUtils.WriteRawImage (Android plugin). If the raw image contains a mip chain,
+	// it is uploaded as is; otherwise, mipmaps are generated by Unity if generateMipmaps is true
+	private static Texture2D LoadRawImage( byte[] rawImage, bool markTextureNonReadable, bool generateMipmaps, bool linearColorSpace )
+	{
+		const int RAW_IMAGE_HEADER_SIZE = 20;
+
+		int width = BitConverter.ToInt32( rawImage, 0 );
+		int height = BitConverter.ToInt32( rawImage, 4 );
+		TextureFormat format;
+		switch( BitConverter.ToInt32( rawImage, 8 ) )
+		{
+			case 1: format = TextureFormat.Alpha8; break;
+			case 2: format = TextureFormat.RGB565; break;
+			case 3: format = TextureFormat.RGB24; break;
+			default: format = TextureFormat.RGBA32; break;
+		}
+
+		int mipCount = BitConverter.ToInt32( rawImage, 16 );
+
+		Texture2D result = new Texture2D( width, height, format, mipCount > 1 || generateMipmaps, linearColorSpace );
+
+		try
+		{
+			if( mipCount > 1 && mipCount == result.mipmapCount )
+			{
+				NativeArray<byte> textureData = result.GetRawTextureData<byte>();
+				NativeArray<byte>.Copy( rawImage, RAW_IMAGE_HEADER_SIZE, textureData, 0, textureData.Length );
+				result.Apply( false, markTextureNonReadable );
+			}
+			else
+			{
+				result.SetPixelData( rawImage, 0, RAW_IMAGE_HEADER_SIZE );
+				result.Apply( generateMipmaps, markTextureNonReadable );
+			}
+		}
+		catch( Exception e )
+		{
+			Debug.LogException( e );
+
+			Object.DestroyImmediate( result );
+			return null;
+		}
+
+		return result;
+	}
+#endif
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+	// KTX file is generated by NativeCameraUtils.LoadImageAtPathETC2 (Android plugin): a single mip level whose blocks are ordered bottom to top
+	private static Texture2D LoadKTXImage( byte[] ktxImage, bool markTextureNonReadable, bool linearColorSpace )
+	{
+		const int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+		const int KTX_HEADER_SIZE = 64;
+
+		TextureFormat format = ( BitConverter.ToInt32( ktxImage, 28 ) == GL_COMPRESSED_RGBA8_ETC2_EAC ) ? TextureFormat.ETC2_RGBA8 : TextureFormat.ETC2_RGB;
+		int width = BitConverter.ToInt32( ktxImage, 36 );
+		int height = BitConverter.ToInt32( ktxImage, 40 );
+		int imageSizeOffset = KTX_HEADER_SIZE + BitConverter.ToInt32( ktxImage, 60 );
+		int imageSize = BitConverter.ToInt32( ktxImage, imageSizeOffset );
+
+		Texture2D result = new Texture2D( width, height, format, false, linearColorSpace );
+
+		try
+		{
+			NativeArray<byte> textureData = result.GetRawTextureData<byte>();
+			NativeArray<byte>.Copy( ktxImage, imageSizeOffset + 4, textureData, 0, Mathf.Min( imageSize, textureData.Length ) );
+			result.Apply( false, markTextureNonReadable );
+		}
+		catch( Exception e )
+		{
+			Debug.LogException( e );
+
+			Object.DestroyImmediate( result );
+			return null;
+		}
+
+		return result;
+	}
+#endif
+
 #if UNITY_ANDROID
 	private static async Task<T> TryCallNativeAndroidFunctionOnSeparateThread<T>( Func<T> function )
 	{
@@ -477,13 +1094,59 @@ public static class NativeCamera
 			throw new FileNotFoundException( "File not found at " + imagePath );
 
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string value = AJC.CallStatic<string>( "GetImageProperties", Context, imagePath );
-#elif !UNITY_EDITOR && UNITY_IOS
+		int[] properties = AJC.CallStatic<int[]>( "GetImagePropertiesArray", Context, imagePath );
+		return CreateImageProperties( imagePath, properties, 0 );
+#else
+#if !UNITY_EDITOR && UNITY_IOS
 		string value = _NativeCamera_GetImageProperties( imagePath );
 #else
 		string value = null;
 #endif
 
+		return ParseImageProperties( imagePath, value );
+#endif
+	}
+
+	// Returns the properties of multiple images at once. On Android, this is considerably faster than calling GetImageProperties for each image
+	public static ImageProperties[] GetImagePropertiesBatch( string[] imagePaths )
+	{
+		for( int i = 0; i < imagePaths.Length; i++ )
+		{
+			if( !File.Exists( imagePaths[i] ) )
+				throw new FileNotFoundException( "File not found at " + imagePaths[i] );
+		}
+
+		ImageProperties[] result = new ImageProperties[imagePaths.Length];
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		int[] properties = AJC.CallStatic<int[]>( "GetImagePropertiesBatch", Context, imagePaths );
+		for( int i = 0; i < imagePaths.Length; i++ )
+			result[i] = CreateImageProperties( imagePaths[i], properties, i * 4 );
+#else
+		for( int i = 0; i < imagePaths.Length; i++ )
+			result[i] = GetImageProperties( imagePaths[i] );
+#endif
+
+		return result;
+	}
+
+	// On Android, the properties are read on a Java worker thread. On other platforms, this function is synchronous
+	public static async Task<ImageProperties> GetImagePropertiesAsync( string imagePath, TaskPriority priority = TaskPriority.Normal )
+	{
+		if( !File.Exists( imagePath ) )
+			throw new FileNotFoundException( "File not found at " + imagePath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		AJC.CallStatic( "GetImagePropertiesAsync", Context, resultCallback, imagePath, (int) priority );
+		return ParseImageProperties( imagePath, await resultCallback.Task );
+#else
+		return await Task.FromResult( GetImageProperties( imagePath ) );
+#endif
+	}
+
+	private static ImageProperties ParseImageProperties( string imagePath, string value )
+	{
 		int width = 0, height = 0;
 		string mimeType = null;
 		ImageOrientation orientation = ImageOrientation.Unknown;
@@ -499,19 +1162,7 @@ public static class NativeCamera
 
 				mimeType = properties[2].Trim();
 				if( mimeType.Length == 0 )
-				{
-					string extension = Path.GetExtension( imagePath ).ToLowerInvariant();
-					if( extension == ".png" )
-						mimeType = "image/png";
-					else if( extension == ".jpg" || extension == ".jpeg" )
-						mimeType = "image/jpeg";
-					else if( extension == ".gif" )
-						mimeType = "image/gif";
-					else if( extension == ".bmp" )
-						mimeType = "image/bmp";
-					else
-						mimeType = null;
-				}
+					mimeType = GetMimeTypeFromExtension( imagePath );
 
 				int orientationInt;
 				if( int.TryParse( properties[3].Trim(), out orientationInt ) )
@@ -522,19 +1173,175 @@ public static class NativeCamera
 		return new ImageProperties( width, height, mimeType, orientation );
 	}
 
+#if !UNITY_EDITOR && UNITY_ANDROID
+	// properties[offset...offset+3] are in { width, height, MIME type code, orientation } format (see NativeCameraUtils.GetImagePropertiesArray)
+	private static ImageProperties CreateImageProperties( string imagePath, int[] properties, int offset )
+	{
+		string mimeType;
+		switch( properties[offset + 2] )
+		{
+			case 1: mimeType = "image/jpeg"; break;
+			case 2: mimeType = "image/png"; break;
+			case 3: mimeType = "image/gif"; break;
+			case 4: mimeType = "image/bmp"; break;
+			case 5: mimeType = "image/webp"; break;
+			case 6: mimeType = "image/heif"; break;
+			case 7: mimeType = "image/avif"; break;
+			default: mimeType = GetMimeTypeFromExtension( imagePath ); break;
+		}
+
+		return new ImageProperties( properties[offset], properties[offset + 1], mimeType, (ImageOrientation) properties[offset + 3] );
+	}
+#endif
+
+	private static string GetMimeTypeFromExtension( string imagePath )
+	{
+		string extension = Path.GetExtension( imagePath ).ToLowerInvariant();
+		if( extension == ".png" )
+			return "image/png";
+		else if( extension == ".jpg" || extension == ".jpeg" )
+			return "image/jpeg";
+		else if( extension == ".gif" )
+			return "image/gif";
+		else if( extension == ".bmp" )
+			return "image/bmp";
+		else
+			return null;
+	}
+
 	public static VideoProperties GetVideoProperties( string videoPath )
 	{
 		if( !File.Exists( videoPath ) )
 			throw new FileNotFoundException( "File not found at " + videoPath );
 
 #if !UNITY_EDITOR && UNITY_ANDROID
-		string value = AJC.CallStatic<string>( "GetVideoProperties", Context, videoPath );
-#elif !UNITY_EDITOR && UNITY_IOS
+		long[] properties = AJC.CallStatic<long[]>( "GetVideoPropertiesArray", Context, videoPath );
+		return CreateVideoProperties( properties, 0 );
+#else
+#if !UNITY_EDITOR && UNITY_IOS
 		string value = _NativeCamera_GetVideoProperties( videoPath );
 #else
 		string value = null;
 #endif
 
+		return ParseVideoProperties( value );
+#endif
+	}
+
+	// Opens the video once for multiple property/thumbnail queries. On Android, the video's container isn't parsed again for each query.
+	// On other platforms, the session's functions call GetVideoProperties/GetVideoThumbnailAsync
+	public static VideoSession OpenVideoSession( string videoPath )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		int handle = AJC.CallStatic<int>( "OpenVideoSession", Context, videoPath );
+		if( handle == 0 )
+			return null;
+
+		return new VideoSession( videoPath, handle );
+#else
+		return new VideoSession( videoPath, 0 );
+#endif
+	}
+
+	// Returns the properties of multiple videos at once. On Android, this is considerably faster than calling GetVideoProperties for each video
+	public static VideoProperties[] GetVideoPropertiesBatch( string[] videoPaths )
+	{
+		for( int i = 0; i < videoPaths.Length; i++ )
+		{
+			if( !File.Exists( videoPaths[i] ) )
+				throw new FileNotFoundException( "File not found at " + videoPaths[i] );
+		}
+
+		VideoProperties[] result = new VideoProperties[videoPaths.Length];
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		long[] properties = AJC.CallStatic<long[]>( "GetVideoPropertiesBatch", Context, videoPaths );
+		for( int i = 0; i < videoPaths.Length; i++ )
+			result[i] = CreateVideoProperties( properties, i * 4 );
+#else
+		for( int i = 0; i < videoPaths.Length; i++ )
+			result[i] = GetVideoProperties( videoPaths[i] );
+#endif
+
+		return result;
+	}
+
+	// On Android, the properties are read on a Java worker thread. On other platforms, this function is synchronous
+	public static async Task<VideoProperties> GetVideoPropertiesAsync( string videoPath, TaskPriority priority = TaskPriority.Normal )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		AJC.CallStatic( "GetVideoPropertiesAsync", Context, resultCallback, videoPath, (int) priority );
+		return ParseVideoProperties( await resultCallback.Task );
+#else
+		return await Task.FromResult( GetVideoProperties( videoPath ) );
+#endif
+	}
+
+	// Returns the properties of the video along with its frame rate, codec, bitrate, audio presence and keyframe count. Only the properties
+	// are available on platforms other than Android
+	public static VideoDetails GetVideoDetails( string videoPath )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		return ParseVideoDetails( AJC.CallStatic<string>( "GetVideoDetails", Context, videoPath ) );
+#else
+		return new VideoDetails( GetVideoProperties( videoPath ), 0f, "", 0L, false, -1L );
+#endif
+	}
+
+	public static async Task<VideoDetails> GetVideoDetailsAsync( string videoPath, TaskPriority priority = TaskPriority.Normal )
+	{
+		if( !File.Exists( videoPath ) )
+			throw new FileNotFoundException( "File not found at " + videoPath );
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+		NCResultCallbackAndroid resultCallback = new NCResultCallbackAndroid();
+		AJC.CallStatic( "GetVideoDetailsAsync", Context, resultCallback, videoPath, (int) priority );
+		return ParseVideoDetails( await resultCallback.Task );
+#else
+		return await Task.FromResult( GetVideoDetails( videoPath ) );
+#endif
+	}
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+	// value is in "width>height>duration>rotation>frameRate>codec>bitrate>hasAudio>keyframeCount" format (see NativeCameraUtils.GetVideoDetails)
+	private static VideoDetails ParseVideoDetails( string value )
+	{
+		float frameRate = 0f;
+		string codec = "";
+		long bitrate = 0L, keyframeCount = -1L;
+		bool hasAudio = false;
+		if( !string.IsNullOrEmpty( value ) )
+		{
+			string[] details = value.Split( '>' );
+			if( details.Length >= 9 )
+			{
+				if( !float.TryParse( details[4], NumberStyles.Float, CultureInfo.InvariantCulture, out frameRate ) )
+					frameRate = 0f;
+				codec = details[5];
+				if( !long.TryParse( details[6], NumberStyles.Integer, CultureInfo.InvariantCulture, out bitrate ) )
+					bitrate = 0L;
+				hasAudio = details[7] == "1";
+				if( !long.TryParse( details[8], NumberStyles.Integer, CultureInfo.InvariantCulture, out keyframeCount ) )
+					keyframeCount = -1L;
+			}
+		}
+
+		return new VideoDetails( ParseVideoProperties( value ), frameRate, codec, bitrate, hasAudio, keyframeCount );
+	}
+#endif
+
+	private static VideoProperties ParseVideoProperties( string value )
+	{
 		int width = 0, height = 0;
 		long duration = 0L;
 		float rotation = 0f;
@@ -559,5 +1366,17 @@ public static class NativeCamera
 
 		return new VideoProperties( width, height, duration, rotation );
 	}
+
+#if !UNITY_EDITOR && UNITY_ANDROID
+	// properties[offset...offset+3] are in { width, height, duration, rotation } format (see NativeCameraUtils.GetVideoPropertiesArray)
+	private static VideoProperties CreateVideoProperties( long[] properties, int offset )
+	{
+		float rotation = properties[offset + 3];
+		if( rotation == -90f )
+			rotation = 270f;
+
+		return new VideoProperties( (int) properties[offset], (int) properties[offset + 1], properties[offset + 2], rotation );
+	}
+#endif
 #endregion
 }
\ No newline at end of file